@@ -0,0 +1,99 @@
+package com.card.java;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 卡片接口的重试策略：指数退避 + 全抖动（full jitter），每次调用有独立的截止时间，
+ * 并通过重试预算限制重试量，避免钉钉侧抖动时被重试流量进一步放大。
+ * createAndDeliver/update 以 outTrackId、streaming 以 guid 保证幂等，重试时复用同一个请求体
+ */
+@Slf4j
+@Component
+public class CardApiRetryPolicy {
+
+  @Value("${card.api.retry.max-attempts:3}")
+  private int maxAttempts;
+
+  @Value("${card.api.retry.base-delay-millis:100}")
+  private long baseDelayMillis;
+
+  @Value("${card.api.retry.throttled-base-delay-millis:500}")
+  private long throttledBaseDelayMillis;
+
+  @Value("${card.api.retry.max-delay-millis:2000}")
+  private long maxDelayMillis;
+
+  @Value("${card.api.retry.deadline-millis:10000}")
+  private long deadlineMillis;
+
+  // 每个首次请求为预算充值的重试次数，0.1 表示重试量最多为请求量的 10%
+  @Value("${card.api.retry.budget-ratio:0.1}")
+  private double budgetRatio;
+
+  // 请求量很小时也保证每秒至少可以重试的次数
+  @Value("${card.api.retry.min-retries-per-second:5}")
+  private double minRetriesPerSecond;
+
+  @Value("${card.api.retry.max-budget:50}")
+  private double maxBudget;
+
+  private double budget;
+
+  private long lastRefillNanos = System.nanoTime();
+
+  public long newDeadlineNanos() {
+    return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+  }
+
+  /**
+   * 每次首次请求（不含重试）调用一次，为重试预算充值
+   */
+  public synchronized void onRequest() {
+    refill();
+    budget = Math.min(maxBudget, budget + budgetRatio);
+  }
+
+  /**
+   * 计算第 attempt 次调用失败后的退避时间，返回 -1 表示不再重试
+   */
+  public long nextDelayMillis(CardApiResult result, int attempt, long deadlineNanos) {
+    if (!result.isRetryable() || attempt >= maxAttempts) {
+      return -1;
+    }
+
+    long base = result.isThrottled() ? throttledBaseDelayMillis : baseDelayMillis;
+    long cap = Math.min(maxDelayMillis, base << Math.min(attempt - 1, 20));
+    long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+    if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) >= deadlineNanos) {
+      return -1;
+    }
+
+    if (!tryAcquireRetry()) {
+      log.warn("card api retry budget exhausted, give up retrying {}", result);
+      return -1;
+    }
+    return delay;
+  }
+
+  private synchronized boolean tryAcquireRetry() {
+    refill();
+    if (budget < 1) {
+      return false;
+    }
+    budget -= 1;
+    return true;
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    double elapsedSeconds = (now - lastRefillNanos) / 1e9;
+    lastRefillNanos = now;
+    budget = Math.min(maxBudget, budget + elapsedSeconds * minRetriesPerSecond);
+  }
+}
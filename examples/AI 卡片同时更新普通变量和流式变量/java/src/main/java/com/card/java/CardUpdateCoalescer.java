@@ -0,0 +1,121 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONObject;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按卡片实例合并 updateCard 调用：每张卡片同一时间最多只有一个更新请求在发送中，
+ * 发送期间到达的更新按 key 合并（同一个 key 以最新的值为准），等前一个请求完成后作为一个请求发出。
+ * 只适用于 cardUpdateOptions.updateCardDataByKey=true 的按 key 更新，最终状态不会丢失
+ */
+@Slf4j
+@Component
+public class CardUpdateCoalescer {
+
+  @Autowired
+  private CardApiTransport cardApiTransport;
+
+  private final Map<String, CardQueue> queues = new ConcurrentHashMap<>();
+
+  private static class PendingUpdate {
+    final JSONObject cardParamMap = new JSONObject();
+    final CompletableFuture<CardApiResult> future = new CompletableFuture<>();
+    AccessTokenCache.TokenKey tenant;
+    JSONObject options;
+    int merged;
+    boolean critical;
+  }
+
+  private static class CardQueue {
+    boolean inFlight;
+    boolean closed;
+    PendingUpdate pending;
+  }
+
+  /**
+   * 提交一次按 key 更新，返回的 future 在包含这次更新的请求完成后完成。tenant 是投放卡片时使用的租户，
+   * 同一张卡片的更新都用它的 Token 发送。中间进度不是关键调用，熔断期间直接丢弃
+   */
+  public CompletableFuture<CardApiResult> submit(AccessTokenCache.TokenKey tenant, String cardInstanceId,
+      JSONObject cardParamMap, JSONObject options) {
+    return submit(tenant, cardInstanceId, cardParamMap, options, false);
+  }
+
+  /**
+   * 同 {@link #submit(AccessTokenCache.TokenKey, String, JSONObject, JSONObject)}，最终状态应以 critical=true 提交，
+   * 熔断期间排队等恢复后重放。合并了关键更新的请求整体作为关键调用发送
+   */
+  public CompletableFuture<CardApiResult> submit(AccessTokenCache.TokenKey tenant, String cardInstanceId,
+      JSONObject cardParamMap, JSONObject options, boolean critical) {
+    while (true) {
+      CardQueue queue = queues.computeIfAbsent(cardInstanceId, k -> new CardQueue());
+      PendingUpdate toSend;
+      CompletableFuture<CardApiResult> future;
+      synchronized (queue) {
+        if (queue.closed) {
+          // 队列刚被回收，重新获取
+          continue;
+        }
+        if (queue.pending == null) {
+          queue.pending = new PendingUpdate();
+        }
+        queue.pending.cardParamMap.putAll(cardParamMap);
+        queue.pending.tenant = tenant;
+        queue.pending.options = options;
+        queue.pending.merged++;
+        queue.pending.critical |= critical;
+        future = queue.pending.future;
+        if (queue.inFlight) {
+          return future;
+        }
+        queue.inFlight = true;
+        toSend = queue.pending;
+        queue.pending = null;
+      }
+      send(cardInstanceId, queue, toSend);
+      return future;
+    }
+  }
+
+  private void send(String cardInstanceId, CardQueue queue, PendingUpdate update) {
+    JSONObject data = new JSONObject().fluentPut("outTrackId", cardInstanceId);
+    data.put("cardData", new JSONObject().fluentPut("cardParamMap", update.cardParamMap));
+    for (String key : update.options.keySet()) {
+      data.put(key, update.options.get(key));
+    }
+    if (update.merged > 1) {
+      log.debug("coalesced {} updates of card {} into one request", update.merged, cardInstanceId);
+    }
+
+    CompletableFuture<CardApiResult> sent =
+        cardApiTransport.executeAsync(update.tenant, CardApiEndpoint.UPDATE, data, update.critical);
+    sent.whenComplete((result, e) -> {
+      if (e != null) {
+        update.future.completeExceptionally(e);
+      } else {
+        update.future.complete(result);
+      }
+
+      PendingUpdate next;
+      synchronized (queue) {
+        next = queue.pending;
+        queue.pending = null;
+        if (next == null) {
+          queue.inFlight = false;
+          queue.closed = true;
+          queues.remove(cardInstanceId, queue);
+          return;
+        }
+      }
+      send(cardInstanceId, queue, next);
+    });
+  }
+}
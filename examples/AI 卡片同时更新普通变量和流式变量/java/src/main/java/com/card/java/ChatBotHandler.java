@@ -1,5 +1,6 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.dingtalk.open.app.api.callback.OpenDingTalkCallbackListener;
@@ -11,59 +12,41 @@ import org.springframework.stereotype.Component;
 
 import lombok.extern.slf4j.Slf4j;
 
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.UUID;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Component
 public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessage, Void> {
 
   @Autowired
-  private AccessTokenService accessTokenService;
+  private CardTrafficLogger cardTrafficLogger;
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardParamMapEncoder cardParamMapEncoder;
 
-  @Value("${openApiHost}")
-  private String openApiHost;
+  @Autowired
+  private CardApiTransport cardApiTransport;
 
-  @Value("${dingtalk.app.client-id}")
-  private String clientId;
+  @Autowired
+  private AccessTokenCache accessTokenCache;
 
-  public static String genCardId(ChatbotMessage message) throws NoSuchAlgorithmException {
-    String factor = message.getSenderId() + '_' + message.getSenderCorpId() + '_' + message.getConversationId() + '_'
-        + message.getMsgId() + '_' + UUID.randomUUID().toString();
-    MessageDigest digest = MessageDigest.getInstance("SHA-256");
-    byte[] hash = digest.digest(factor.getBytes(StandardCharsets.UTF_8));
-    StringBuilder hexString = new StringBuilder();
-    for (byte b : hash) {
-      String hex = Integer.toHexString(0xff & b);
-      if (hex.length() == 1)
-        hexString.append('0');
-      hexString.append(hex);
-    }
-    return hexString.toString();
-  }
+  @Autowired
+  private CardIdGenerator cardIdGenerator;
 
-  public void streaming(
-      String cardInstanceId,
-      String contentKey,
-      String contentValue,
-      Boolean isFull,
-      Boolean isFinalize,
-      Boolean isError) {
+  @Autowired
+  private MessageDeduplicator messageDeduplicator;
+
+  @Autowired
+  private CardUpdateCoalescer cardUpdateCoalescer;
 
+  @Value("${dingtalk.app.client-id}")
+  private String clientId;
+
+  private JSONObject buildStreamingData(String cardInstanceId, String contentKey, String contentValue,
+      Boolean isFull, Boolean isFinalize, Boolean isError) {
     JSONObject data = new JSONObject().fluentPut("outTrackId", cardInstanceId);
     data.put("key", contentKey);
     data.put("content", contentValue);
@@ -71,37 +54,50 @@ public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessa
     data.put("isFinalize", isFinalize);
     data.put("isError", isError);
     data.put("guid", UUID.randomUUID().toString());
+    return data;
+  }
 
-    String url = openApiHost + "/v1.0/card/streaming";
+  public CardApiResult streaming(
+      AccessTokenCache.TokenKey tenant,
+      String cardInstanceId,
+      String contentKey,
+      String contentValue,
+      Boolean isFull,
+      Boolean isFinalize,
+      Boolean isError) {
+    JSONObject data = buildStreamingData(cardInstanceId, contentKey, contentValue, isFull, isFinalize, isError);
 
-    OkHttpClient client = new OkHttpClient();
-    MediaType JSON = MediaType.get("application/json; charset=utf-8");
-    RequestBody body = RequestBody.create(data.toJSONString(), JSON);
+    CardApiResult result = cardApiTransport.execute(tenant, CardApiEndpoint.STREAMING, data,
+        isCriticalFrame(isFinalize, isError));
+    cardTrafficLogger.info(Category.STREAMING, "streaming update card", data::toJSONString);
+    if (!result.isSuccess()) {
+      log.error("streaming update card failed: " + result);
+    }
+    return result;
+  }
 
-    Request request = new Request.Builder()
-        .url(url)
-        .addHeader("Content-Type", "application/json")
-        .addHeader("Accept", "*/*")
-        .addHeader("x-acs-dingtalk-access-token", accessTokenService.getAccessToken())
-        .put(body)
-        .build();
+  /**
+   * 异步流式更新卡片，guid 在请求体构造时生成，同一帧的重发不会被重复渲染
+   */
+  public CompletableFuture<CardApiResult> streamingAsync(AccessTokenCache.TokenKey tenant, String cardInstanceId,
+      String contentKey, String contentValue, Boolean isFull, Boolean isFinalize, Boolean isError) {
+    return cardApiTransport.executeAsync(tenant, CardApiEndpoint.STREAMING,
+        buildStreamingData(cardInstanceId, contentKey, contentValue, isFull, isFinalize, isError),
+        isCriticalFrame(isFinalize, isError));
+  }
 
-    try {
-      Response response = client.newCall(request).execute();
-      log.info("streaming update card: " + data.toJSONString());
-      if (response.code() != 200) {
-        log.error("streaming update card failed: " + response.code() + " " + response.body().string());
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+  // 只有最终帧和错误帧是关键调用，熔断期间中间帧直接丢弃
+  private static boolean isCriticalFrame(Boolean isFinalize, Boolean isError) {
+    return Boolean.TRUE.equals(isFinalize) || Boolean.TRUE.equals(isError);
   }
 
-  public String createAndDeliverCard(ChatbotMessage message, String cardTemplateId, JSONObject cardData,
-      JSONObject options)
-      throws IOException, InterruptedException, NoSuchAlgorithmException {
-    String cardInstanceId = genCardId(message);
+  // ISV 套件按消息所属的授权企业取 Token，企业内部应用使用本应用的 Token
+  private AccessTokenCache.TokenKey tenantOf(ChatbotMessage message) {
+    return accessTokenCache.keyOf(clientId, message.getChatbotCorpId());
+  }
 
+  private JSONObject buildCreateAndDeliverData(ChatbotMessage message, String cardInstanceId,
+      String cardTemplateId, JSONObject cardData, JSONObject options) {
     boolean supportForward = (boolean) options.getOrDefault("supportForward", true);
     boolean atAll = (boolean) options.getOrDefault("alAll", false);
     boolean atSender = (boolean) options.getOrDefault("atSender", false);
@@ -157,35 +153,34 @@ public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessa
     for (String key : restOptions.keySet()) {
       data.put(key, restOptions.get(key));
     }
+    return data;
+  }
 
-    String url = openApiHost + "/v1.0/card/instances/createAndDeliver";
-
-    OkHttpClient client = new OkHttpClient();
-    MediaType JSON = MediaType.get("application/json; charset=utf-8");
-    RequestBody body = RequestBody.create(data.toJSONString(), JSON);
-
-    Request request = new Request.Builder()
-        .url(url)
-        .addHeader("Content-Type", "application/json")
-        .addHeader("Accept", "*/*")
-        .addHeader("x-acs-dingtalk-access-token", accessTokenService.getAccessToken())
-        .post(body)
-        .build();
-
-    try {
-      Response response = client.newCall(request).execute();
-      log.info("reply card: " + data.toJSONString());
-      if (response.code() != 200) {
-        log.error("reply card failed: " + response.code() + " " + response.body().string());
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
+  public String createAndDeliverCard(ChatbotMessage message, String cardTemplateId, JSONObject cardData,
+      JSONObject options) {
+    String cardInstanceId = cardIdGenerator.generate(message);
+    JSONObject data = buildCreateAndDeliverData(message, cardInstanceId, cardTemplateId, cardData, options);
+
+    CardApiResult result = cardApiTransport.execute(tenantOf(message), CardApiEndpoint.CREATE_AND_DELIVER, data,
+        true);
+    cardTrafficLogger.info(Category.OPEN_API, "reply card", data::toJSONString);
+    if (!result.isSuccess()) {
+      log.error("reply card failed: " + result);
     }
     return cardInstanceId;
   }
 
-  public void updateCard(String cardInstanceId, JSONObject cardData, JSONObject options)
-      throws IOException, InterruptedException, NoSuchAlgorithmException {
+  /**
+   * 异步创建并投放卡片，不阻塞 Stream 回调线程，结果中的 outTrackId 即卡片实例 ID
+   */
+  public CompletableFuture<CardApiResult> createAndDeliverCardAsync(ChatbotMessage message, String cardTemplateId,
+      JSONObject cardData, JSONObject options) {
+    String cardInstanceId = cardIdGenerator.generate(message);
+    JSONObject data = buildCreateAndDeliverData(message, cardInstanceId, cardTemplateId, cardData, options);
+    return cardApiTransport.executeAsync(tenantOf(message), CardApiEndpoint.CREATE_AND_DELIVER, data, true);
+  }
+
+  private JSONObject buildUpdateCardData(String cardInstanceId, JSONObject cardData, JSONObject options) {
     JSONObject data = new JSONObject().fluentPut("outTrackId", cardInstanceId);
     // 构造 cardData
     JSONObject cardDataObject = new JSONObject();
@@ -195,177 +190,191 @@ public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessa
     for (String key : options.keySet()) {
       data.put(key, options.get(key));
     }
+    return data;
+  }
 
-    String url = openApiHost + "/v1.0/card/instances";
-
-    OkHttpClient client = new OkHttpClient();
-    MediaType JSON = MediaType.get("application/json; charset=utf-8");
-    RequestBody body = RequestBody.create(data.toJSONString(), JSON);
-
-    Request request = new Request.Builder()
-        .url(url)
-        .addHeader("Content-Type", "application/json")
-        .addHeader("Accept", "*/*")
-        .addHeader("x-acs-dingtalk-access-token", accessTokenService.getAccessToken())
-        .put(body)
-        .build();
+  public CardApiResult updateCard(AccessTokenCache.TokenKey tenant, String cardInstanceId, JSONObject cardData,
+      JSONObject options) {
+    JSONObject data = buildUpdateCardData(cardInstanceId, cardData, options);
 
-    try {
-      Response response = client.newCall(request).execute();
-      log.info("update card: " + data.toJSONString());
-      if (response.code() != 200) {
-        log.error("update card failed: " + response.code() + " " + response.body().string());
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
+    CardApiResult result = cardApiTransport.execute(tenant, CardApiEndpoint.UPDATE, data, true);
+    cardTrafficLogger.info(Category.OPEN_API, "update card", data::toJSONString);
+    if (!result.isSuccess()) {
+      log.error("update card failed: " + result);
     }
+    return result;
+  }
+
+  /**
+   * 异步更新卡片，调用方可以基于返回的 future 串联后续的更新
+   */
+  public CompletableFuture<CardApiResult> updateCardAsync(AccessTokenCache.TokenKey tenant, String cardInstanceId,
+      JSONObject cardData, JSONObject options) {
+    return cardApiTransport.executeAsync(tenant, CardApiEndpoint.UPDATE,
+        buildUpdateCardData(cardInstanceId, cardData, options), true);
   }
 
   @Override
   public Void execute(ChatbotMessage message) {
+    String msgId = message.getMsgId();
+    // Stream 重复投递的同一条消息直接跳过，不再创建卡片
+    if (!messageDeduplicator.markIfFirst(msgId)) {
+      return null;
+    }
+    try {
+      reply(message);
+    } catch (RuntimeException e) {
+      // 处理失败时撤销标记，Stream 重新投递这条消息时可以再处理一次
+      messageDeduplicator.unmark(msgId);
+      throw e;
+    }
+    return null;
+  }
 
+  private void reply(ChatbotMessage message) {
     String receivedMessage = message.getText().getContent().trim();
-    log.info("received message: " + receivedMessage);
-
+    cardTrafficLogger.info(Category.MESSAGE, "received message", () -> receivedMessage);
+
+    // 卡片模板 ID
+    String cardTemplateId = "2b07a3e6-cdf4-4e8f-8bac-a4f6e3e19eff.schema"; // 该模板只用于测试使用，如需投入线上使用，请导入卡片模板 json 到自己的应用下
+    String contentKey = "content";
+    JSONObject cardData = new JSONObject();
+    cardData.put(contentKey, "");
+    cardData.put("query", receivedMessage);
+    cardData.put("preparations", new JSONArray());
+    cardData.put("charts", new JSONArray());
+    cardData.put("config", new JSONObject().fluentPut("autoLayout", true));
+    // 先投放卡片: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
+    JSONObject options = new JSONObject();
+    // 同一张卡片的后续更新都使用投放时的租户 Token
+    AccessTokenCache.TokenKey tenant = tenantOf(message);
+    String cardInstanceId = createAndDeliverCard(message, cardTemplateId,
+        cardParamMapEncoder.encode(cardData), options);
+    // 流式更新卡片
     try {
-      // 卡片模板 ID
-      String cardTemplateId = "2b07a3e6-cdf4-4e8f-8bac-a4f6e3e19eff.schema"; // 该模板只用于测试使用，如需投入线上使用，请导入卡片模板 json 到自己的应用下
-      String contentKey = "content";
-      JSONObject cardData = new JSONObject();
-      cardData.put(contentKey, "");
-      cardData.put("query", receivedMessage);
-      cardData.put("preparations", new JSONArray());
-      cardData.put("charts", new JSONArray());
-      cardData.put("config", new JSONObject().fluentPut("autoLayout", true));
-      // 先投放卡片: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
-      JSONObject options = new JSONObject();
-      String cardInstanceId = createAndDeliverCard(message, cardTemplateId,
-          jsonObjectUtils.convertJSONValuesToString(cardData), options);
-      // 流式更新卡片
-      try {
-        // 更新成输入中状态: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
-        streaming(cardInstanceId, contentKey, "", true, false, false);
-        // 更新卡片: https://open.dingtalk.com/document/orgapp/interactive-card-update-interface
-        JSONObject cardUpdateOptions = new JSONObject()
-            .fluentPut("updateCardDataByKey", true)
-            .fluentPut("updatePrivateDataByKey", true);
-        JSONObject updateOptions = new JSONObject();
-        updateOptions.put("cardUpdateOptions", cardUpdateOptions);
-        JSONObject updateCardData = new JSONObject();
-        JSONArray preparations = new JSONArray();
-        for (String action : new String[] { "正在理解需求", "正在生成 SQL", "正在执行 SQL", "正在生成图表" }) {
-          JSONObject step = new JSONObject();
-          step.put("name", action);
-          step.put("progress", 0);
-          preparations.add(step);
-          for (int progress = 0; progress <= 100; progress += 20) {
-            step.put("progress", progress);
-            updateCardData.put("preparations", preparations);
-            updateCard(cardInstanceId, jsonObjectUtils.convertJSONValuesToString(updateCardData), updateOptions);
-            Thread.sleep(new Random().nextInt(1001));
-          }
-        }
-        String[] fakeContentValues = new String[] {
-            "## 过去一个月的营收分析",
-            "\n本报告分析了过去一个月的营收情况。",
-            "包括每周营收的趋势图、",
-            "按不同产品分类的柱状图、",
-            "以及不同产品的总营收占比饼图。"
-        };
-        StringBuilder contentValue = new StringBuilder();
-        for (String fakeContentValue : fakeContentValues) {
-          contentValue.append(fakeContentValue);
-          streaming(cardInstanceId, contentKey, contentValue.toString(), true, false, false);
+      // 更新成输入中状态: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
+      streaming(tenant, cardInstanceId, contentKey, "", true, false, false);
+      // 更新卡片: https://open.dingtalk.com/document/orgapp/interactive-card-update-interface
+      JSONObject cardUpdateOptions = new JSONObject()
+          .fluentPut("updateCardDataByKey", true)
+          .fluentPut("updatePrivateDataByKey", true);
+      JSONObject updateOptions = new JSONObject();
+      updateOptions.put("cardUpdateOptions", cardUpdateOptions);
+      JSONObject updateCardData = new JSONObject();
+      JSONArray preparations = new JSONArray();
+      // 进度更新交给 cardUpdateCoalescer 合并发送，上一个请求未完成时到达的进度只保留最新值
+      CompletableFuture<CardApiResult> preparationsUpdated = null;
+      String[] actions = new String[] { "正在理解需求", "正在生成 SQL", "正在执行 SQL", "正在生成图表" };
+      for (int i = 0; i < actions.length; i++) {
+        JSONObject step = new JSONObject();
+        step.put("name", actions[i]);
+        step.put("progress", 0);
+        preparations.add(step);
+        for (int progress = 0; progress <= 100; progress += 20) {
+          step.put("progress", progress);
+          updateCardData.put("preparations", preparations);
+          // 最后一次进度是最终状态，熔断期间排队等恢复后重放，中间进度直接丢弃
+          boolean isFinal = i == actions.length - 1 && progress == 100;
+          preparationsUpdated = cardUpdateCoalescer.submit(tenant, cardInstanceId,
+              cardParamMapEncoder.encode(updateCardData), updateOptions, isFinal);
           Thread.sleep(new Random().nextInt(1001));
         }
-        streaming(cardInstanceId, contentKey, contentValue.toString(), true, true, false);
-
-        JSONObject updateChartCardData = new JSONObject();
-        JSONArray charts = new JSONArray();
-
-        JSONObject line = new JSONObject();
-        String lineMd = "# 过去一个月每周营收";
-        line.put("markdown", lineMd);
-        JSONObject lineChart = new JSONObject();
-        lineChart.put("type", "lineChart");
-        lineChart.put("config", new JSONObject());
-        lineChart.put("data", new JSONArray()
-            .fluentAdd(createChartData("0603", 820, "产品 A"))
-            .fluentAdd(createChartData("0610", 932, "产品 A"))
-            .fluentAdd(createChartData("0617", 901, "产品 A"))
-            .fluentAdd(createChartData("0624", 934, "产品 A"))
-            .fluentAdd(createChartData("0701", 1290, "产品 A"))
-            .fluentAdd(createChartData("0603", 1498, "产品 B"))
-            .fluentAdd(createChartData("0610", 809, "产品 B"))
-            .fluentAdd(createChartData("0617", 728, "产品 B"))
-            .fluentAdd(createChartData("0624", 759, "产品 B"))
-            .fluentAdd(createChartData("0701", 995, "产品 B"))
-            .fluentAdd(createChartData("0603", 1249, "产品 C"))
-            .fluentAdd(createChartData("0610", 873, "产品 C"))
-            .fluentAdd(createChartData("0617", 1086, "产品 C"))
-            .fluentAdd(createChartData("0624", 908, "产品 C"))
-            .fluentAdd(createChartData("0701", 972, "产品 C")));
-        line.put("chart", lineChart);
-        charts.add(line);
-        updateChartCardData.put("charts", charts);
-        updateCard(cardInstanceId, jsonObjectUtils.convertJSONValuesToString(updateChartCardData), updateOptions);
-        Thread.sleep(new Random().nextInt(2001));
-
-        JSONObject bar = new JSONObject();
-        String barMd = "# 不同产品的营收";
-        bar.put("markdown", barMd);
-        JSONObject barChart = new JSONObject();
-        barChart.put("type", "histogram");
-        barChart.put("config", new JSONObject());
-        barChart.put("data", new JSONArray()
-            .fluentAdd(createChartData("W1", 820, "产品 A"))
-            .fluentAdd(createChartData("W2", 932, "产品 A"))
-            .fluentAdd(createChartData("W3", 901, "产品 A"))
-            .fluentAdd(createChartData("W4", 934, "产品 A"))
-            .fluentAdd(createChartData("W5", 1290, "产品 A"))
-            .fluentAdd(createChartData("W1", 1498, "产品 B"))
-            .fluentAdd(createChartData("W2", 809, "产品 B"))
-            .fluentAdd(createChartData("W3", 728, "产品 B"))
-            .fluentAdd(createChartData("W4", 759, "产品 B"))
-            .fluentAdd(createChartData("W5", 995, "产品 B"))
-            .fluentAdd(createChartData("W1", 1249, "产品 C"))
-            .fluentAdd(createChartData("W2", 873, "产品 C"))
-            .fluentAdd(createChartData("W3", 1086, "产品 C"))
-            .fluentAdd(createChartData("W4", 908, "产品 C"))
-            .fluentAdd(createChartData("W5", 972, "产品 C")));
-        bar.put("chart", barChart);
-        charts.add(bar);
-        updateChartCardData.put("charts", charts);
-        updateCard(cardInstanceId, jsonObjectUtils.convertJSONValuesToString(updateChartCardData), updateOptions);
-        Thread.sleep(new Random().nextInt(2001));
-
-        JSONObject pie = new JSONObject();
-        String pieMd = "# 不同产品的营收占比\n\n| 产品名称 | 营收 |\n| :-: | :-: |\n| 产品 A | 4877 |\n| 产品 B | 4789 |\n| 产品 C | 5088 |";
-        pie.put("markdown", pieMd);
-        JSONObject pieChart = new JSONObject();
-        pieChart.put("type", "pieChart");
-        int[] padding = { 20, 30, 20, 30 };
-        pieChart.put("config", new JSONObject().fluentPut("padding", padding));
-        pieChart.put("data", new JSONArray()
-            .fluentAdd(createChartData("产品 A", 4877, null))
-            .fluentAdd(createChartData("产品 B", 4789, null))
-            .fluentAdd(createChartData("产品 C", 5088, null)));
-        pie.put("chart", pieChart);
-        charts.add(pie);
-        updateChartCardData.put("charts", charts);
-        updateCard(cardInstanceId, jsonObjectUtils.convertJSONValuesToString(updateChartCardData), updateOptions);
-      } catch (Exception e) {
-        e.printStackTrace();
-        streaming(cardInstanceId, contentKey, "", true, false, true);
       }
-    } catch (NoSuchAlgorithmException | IOException e) {
-      e.printStackTrace();
-    } catch (InterruptedException e) {
+      // 等最终的进度更新完成后再开始输出内容
+      preparationsUpdated.join();
+      String[] fakeContentValues = new String[] {
+          "## 过去一个月的营收分析",
+          "\n本报告分析了过去一个月的营收情况。",
+          "包括每周营收的趋势图、",
+          "按不同产品分类的柱状图、",
+          "以及不同产品的总营收占比饼图。"
+      };
+      StringBuilder contentValue = new StringBuilder();
+      for (String fakeContentValue : fakeContentValues) {
+        contentValue.append(fakeContentValue);
+        streaming(tenant, cardInstanceId, contentKey, contentValue.toString(), true, false, false);
+        Thread.sleep(new Random().nextInt(1001));
+      }
+      streaming(tenant, cardInstanceId, contentKey, contentValue.toString(), true, true, false);
+
+      JSONObject updateChartCardData = new JSONObject();
+      JSONArray charts = new JSONArray();
+
+      JSONObject line = new JSONObject();
+      String lineMd = "# 过去一个月每周营收";
+      line.put("markdown", lineMd);
+      JSONObject lineChart = new JSONObject();
+      lineChart.put("type", "lineChart");
+      lineChart.put("config", new JSONObject());
+      lineChart.put("data", new JSONArray()
+          .fluentAdd(createChartData("0603", 820, "产品 A"))
+          .fluentAdd(createChartData("0610", 932, "产品 A"))
+          .fluentAdd(createChartData("0617", 901, "产品 A"))
+          .fluentAdd(createChartData("0624", 934, "产品 A"))
+          .fluentAdd(createChartData("0701", 1290, "产品 A"))
+          .fluentAdd(createChartData("0603", 1498, "产品 B"))
+          .fluentAdd(createChartData("0610", 809, "产品 B"))
+          .fluentAdd(createChartData("0617", 728, "产品 B"))
+          .fluentAdd(createChartData("0624", 759, "产品 B"))
+          .fluentAdd(createChartData("0701", 995, "产品 B"))
+          .fluentAdd(createChartData("0603", 1249, "产品 C"))
+          .fluentAdd(createChartData("0610", 873, "产品 C"))
+          .fluentAdd(createChartData("0617", 1086, "产品 C"))
+          .fluentAdd(createChartData("0624", 908, "产品 C"))
+          .fluentAdd(createChartData("0701", 972, "产品 C")));
+      line.put("chart", lineChart);
+      charts.add(line);
+      updateChartCardData.put("charts", charts);
+      updateCard(tenant, cardInstanceId, cardParamMapEncoder.encode(updateChartCardData), updateOptions);
+      Thread.sleep(new Random().nextInt(2001));
+
+      JSONObject bar = new JSONObject();
+      String barMd = "# 不同产品的营收";
+      bar.put("markdown", barMd);
+      JSONObject barChart = new JSONObject();
+      barChart.put("type", "histogram");
+      barChart.put("config", new JSONObject());
+      barChart.put("data", new JSONArray()
+          .fluentAdd(createChartData("W1", 820, "产品 A"))
+          .fluentAdd(createChartData("W2", 932, "产品 A"))
+          .fluentAdd(createChartData("W3", 901, "产品 A"))
+          .fluentAdd(createChartData("W4", 934, "产品 A"))
+          .fluentAdd(createChartData("W5", 1290, "产品 A"))
+          .fluentAdd(createChartData("W1", 1498, "产品 B"))
+          .fluentAdd(createChartData("W2", 809, "产品 B"))
+          .fluentAdd(createChartData("W3", 728, "产品 B"))
+          .fluentAdd(createChartData("W4", 759, "产品 B"))
+          .fluentAdd(createChartData("W5", 995, "产品 B"))
+          .fluentAdd(createChartData("W1", 1249, "产品 C"))
+          .fluentAdd(createChartData("W2", 873, "产品 C"))
+          .fluentAdd(createChartData("W3", 1086, "产品 C"))
+          .fluentAdd(createChartData("W4", 908, "产品 C"))
+          .fluentAdd(createChartData("W5", 972, "产品 C")));
+      bar.put("chart", barChart);
+      charts.add(bar);
+      updateChartCardData.put("charts", charts);
+      updateCard(tenant, cardInstanceId, cardParamMapEncoder.encode(updateChartCardData), updateOptions);
+      Thread.sleep(new Random().nextInt(2001));
+
+      JSONObject pie = new JSONObject();
+      String pieMd = "# 不同产品的营收占比\n\n| 产品名称 | 营收 |\n| :-: | :-: |\n| 产品 A | 4877 |\n| 产品 B | 4789 |\n| 产品 C | 5088 |";
+      pie.put("markdown", pieMd);
+      JSONObject pieChart = new JSONObject();
+      pieChart.put("type", "pieChart");
+      int[] padding = { 20, 30, 20, 30 };
+      pieChart.put("config", new JSONObject().fluentPut("padding", padding));
+      pieChart.put("data", new JSONArray()
+          .fluentAdd(createChartData("产品 A", 4877, null))
+          .fluentAdd(createChartData("产品 B", 4789, null))
+          .fluentAdd(createChartData("产品 C", 5088, null)));
+      pie.put("chart", pieChart);
+      charts.add(pie);
+      updateChartCardData.put("charts", charts);
+      updateCard(tenant, cardInstanceId, cardParamMapEncoder.encode(updateChartCardData), updateOptions);
+    } catch (Exception e) {
       e.printStackTrace();
-      Thread.currentThread().interrupt();
+      streaming(tenant, cardInstanceId, contentKey, "", true, false, true);
     }
-
-    return null;
   }
 
   private JSONObject createChartData(String x, int y, String type) {
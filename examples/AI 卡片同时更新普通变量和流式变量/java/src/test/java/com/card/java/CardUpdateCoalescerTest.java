@@ -0,0 +1,139 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONObject;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CardUpdateCoalescerTest {
+
+  private static final AccessTokenCache.TokenKey TENANT = AccessTokenCache.TokenKey.of("app", "corp");
+
+  private static final JSONObject OPTIONS = new JSONObject()
+      .fluentPut("cardUpdateOptions", new JSONObject().fluentPut("updateCardDataByKey", true));
+
+  private CardApiTransport cardApiTransport;
+
+  private CardUpdateCoalescer coalescer;
+
+  // 每次发送返回的 future，由测试决定何时完成
+  private final List<CompletableFuture<CardApiResult>> sent = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    cardApiTransport = mock(CardApiTransport.class);
+    when(cardApiTransport.executeAsync(eq(TENANT), eq(CardApiEndpoint.UPDATE), any(JSONObject.class), anyBoolean()))
+        .thenAnswer(invocation -> {
+          CompletableFuture<CardApiResult> future = new CompletableFuture<>();
+          sent.add(future);
+          return future;
+        });
+    coalescer = new CardUpdateCoalescer();
+    ReflectionTestUtils.setField(coalescer, "cardApiTransport", cardApiTransport);
+  }
+
+  private static CardApiResult ok() {
+    return CardApiResult.ofResponse(CardApiEndpoint.UPDATE, "card", 200, "{\"success\":true}", 1);
+  }
+
+  private List<JSONObject> sentData(int times) {
+    ArgumentCaptor<JSONObject> data = ArgumentCaptor.forClass(JSONObject.class);
+    verify(cardApiTransport, times(times))
+        .executeAsync(eq(TENANT), eq(CardApiEndpoint.UPDATE), data.capture(), anyBoolean());
+    return data.getAllValues();
+  }
+
+  private static Map<String, Object> cardParamMap(JSONObject data) {
+    return data.getJSONObject("cardData").getJSONObject("cardParamMap");
+  }
+
+  @Test
+  void mergesUpdatesWhileRequestInFlight() {
+    CompletableFuture<CardApiResult> first =
+        coalescer.submit(TENANT, "card", new JSONObject().fluentPut("a", "1"), OPTIONS);
+    CompletableFuture<CardApiResult> second =
+        coalescer.submit(TENANT, "card", new JSONObject().fluentPut("a", "2"), OPTIONS);
+    CompletableFuture<CardApiResult> third =
+        coalescer.submit(TENANT, "card", new JSONObject().fluentPut("b", "3"), OPTIONS);
+
+    // 第一个请求完成前，后两次更新只合并不发送
+    assertThat(sent).hasSize(1);
+    assertThat(second).isSameAs(third);
+
+    sent.get(0).complete(ok());
+    assertThat(first).isCompleted();
+    assertThat(second).isNotDone();
+
+    List<JSONObject> data = sentData(2);
+    assertThat(cardParamMap(data.get(0))).containsOnly(Map.entry("a", "1"));
+    assertThat(cardParamMap(data.get(1))).containsOnly(Map.entry("a", "2"), Map.entry("b", "3"));
+    assertThat(data.get(1).getString("outTrackId")).isEqualTo("card");
+    assertThat(data.get(1).getJSONObject("cardUpdateOptions").getBoolean("updateCardDataByKey")).isTrue();
+
+    sent.get(1).complete(ok());
+    assertThat(second).isCompleted();
+  }
+
+  @Test
+  void cardsAreCoalescedIndependently() {
+    coalescer.submit(TENANT, "card-a", new JSONObject().fluentPut("a", "1"), OPTIONS);
+    coalescer.submit(TENANT, "card-b", new JSONObject().fluentPut("a", "1"), OPTIONS);
+    assertThat(sent).hasSize(2);
+  }
+
+  @Test
+  void sendsImmediatelyAfterQueueDrains() {
+    coalescer.submit(TENANT, "card", new JSONObject().fluentPut("a", "1"), OPTIONS);
+    sent.get(0).complete(ok());
+
+    // 没有待发送的更新时队列被回收，下一次更新直接发送
+    coalescer.submit(TENANT, "card", new JSONObject().fluentPut("a", "2"), OPTIONS);
+    assertThat(sent).hasSize(2);
+    assertThat(cardParamMap(sentData(2).get(1))).containsOnly(Map.entry("a", "2"));
+  }
+
+  @Test
+  void mergedUpdateIsCriticalIfAnyUpdateIs() {
+    coalescer.submit(TENANT, "card", new JSONObject().fluentPut("a", "1"), OPTIONS);
+    coalescer.submit(TENANT, "card", new JSONObject().fluentPut("a", "2"), OPTIONS, true);
+    coalescer.submit(TENANT, "card", new JSONObject().fluentPut("a", "3"), OPTIONS);
+    sent.get(0).complete(ok());
+
+    // 中间进度熔断期间可以丢弃，包含最终状态的合并请求需要排队重放
+    ArgumentCaptor<Boolean> critical = ArgumentCaptor.forClass(Boolean.class);
+    verify(cardApiTransport, times(2)).executeAsync(eq(TENANT), eq(CardApiEndpoint.UPDATE), any(JSONObject.class),
+        critical.capture());
+    assertThat(critical.getAllValues()).containsExactly(false, true);
+  }
+
+  @Test
+  void failedRequestStillSendsMergedUpdate() {
+    CompletableFuture<CardApiResult> first =
+        coalescer.submit(TENANT, "card", new JSONObject().fluentPut("a", "1"), OPTIONS);
+    CompletableFuture<CardApiResult> second =
+        coalescer.submit(TENANT, "card", new JSONObject().fluentPut("a", "2"), OPTIONS);
+
+    sent.get(0).completeExceptionally(new IllegalStateException("boom"));
+    assertThat(first).isCompletedExceptionally();
+    assertThat(sent).hasSize(2);
+
+    sent.get(1).complete(ok());
+    assertThat(second).isCompleted();
+  }
+}
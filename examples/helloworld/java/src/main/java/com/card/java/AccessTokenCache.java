@@ -0,0 +1,435 @@
+package com.card.java;
+
+import com.aliyun.dingtalkoauth2_1_0.Client;
+import com.aliyun.dingtalkoauth2_1_0.models.GetAccessTokenRequest;
+import com.aliyun.dingtalkoauth2_1_0.models.GetAccessTokenResponse;
+import com.aliyun.dingtalkoauth2_1_0.models.GetCorpAccessTokenRequest;
+import com.aliyun.dingtalkoauth2_1_0.models.GetCorpAccessTokenResponse;
+import com.aliyun.tea.TeaException;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多应用、多企业的 accessToken 缓存。企业内部应用按 appKey 缓存，ISV 套件按 suiteKey + 授权企业 corpId 缓存。
+ * 每个 Token 在过期前由后台线程池独立刷新（带随机抖动），并发的刷新请求共享同一次远程调用，一个租户刷新慢不会拖住其他租户；
+ * 读取 Token 只是一次 ConcurrentHashMap 查找加 volatile 读，异步调用方通过 {@link #getAccessTokenAsync} 等待首次获取，不阻塞线程。缓存的租户数有上限，长时间未使用的租户会被淘汰
+ */
+@Slf4j
+@Service
+public class AccessTokenCache {
+
+  @Autowired
+  private SharedTokenFile sharedTokenFile;
+
+  // 提前多久刷新 Token
+  @Value("${dingtalk.token.refresh-ahead-seconds:600}")
+  private long refreshAheadSeconds;
+
+  // 刷新时间的随机抖动范围
+  @Value("${dingtalk.token.refresh-jitter-seconds:60}")
+  private long refreshJitterSeconds;
+
+  // 刷新失败后的重试间隔，连续失败时指数增长
+  @Value("${dingtalk.token.retry-delay-millis:1000}")
+  private long retryDelayMillis;
+
+  @Value("${dingtalk.token.max-retry-delay-millis:30000}")
+  private long maxRetryDelayMillis;
+
+  // 最多缓存多少个租户的 Token
+  @Value("${dingtalk.token.max-tenants:64}")
+  private int maxTenants;
+
+  // 超过多久没有使用的租户被淘汰，停止后台刷新
+  @Value("${dingtalk.token.idle-evict-minutes:30}")
+  private long idleEvictMinutes;
+
+  // 刷新 Token 的线程数，远程调用是同步的，多个租户同时刷新时并行执行
+  @Value("${dingtalk.token.refresher-threads:4}")
+  private int refresherThreads;
+
+  private Client auth2Client;
+
+  private final Map<String, Credential> credentials = new ConcurrentHashMap<>();
+
+  private final Map<TokenKey, TenantToken> tokens = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService refresher;
+
+  @Getter
+  @EqualsAndHashCode
+  @ToString
+  public static final class TokenKey {
+    private final String appKey;
+    // 企业内部应用为 null
+    private final String corpId;
+
+    private TokenKey(String appKey, String corpId) {
+      this.appKey = appKey;
+      this.corpId = corpId;
+    }
+
+    public static TokenKey of(String appKey) {
+      return new TokenKey(appKey, null);
+    }
+
+    public static TokenKey of(String appKey, String corpId) {
+      return new TokenKey(appKey, corpId);
+    }
+  }
+
+  @Getter
+  @Setter
+  static class AccessToken {
+    private String accessToken;
+    private Long expireTimestamp;
+
+    boolean isNearlyExpired() {
+      // if expired timestamp nearly 5000ms, should not send requests
+      return expireTimestamp - 5000L < System.currentTimeMillis();
+    }
+  }
+
+  private static class Credential {
+    final String appKey;
+    final String appSecret;
+    final boolean suite;
+    volatile String suiteTicket;
+
+    Credential(String appKey, String appSecret, boolean suite) {
+      this.appKey = appKey;
+      this.appSecret = appSecret;
+      this.suite = suite;
+    }
+  }
+
+  @PostConstruct
+  public void init() throws Exception {
+    com.aliyun.teaopenapi.models.Config config = new com.aliyun.teaopenapi.models.Config();
+    config.protocol = "https";
+    config.regionId = "central";
+    auth2Client = new Client(config);
+
+    AtomicInteger threadIndex = new AtomicInteger();
+    refresher = Executors.newScheduledThreadPool(refresherThreads, r -> {
+      Thread thread = new Thread(r, "access-token-refresher-" + threadIndex.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    refresher.scheduleWithFixedDelay(this::evictIdle, 1, 1, TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    refresher.shutdownNow();
+  }
+
+  /**
+   * 注册企业内部应用
+   */
+  public void registerApp(String appKey, String appSecret) {
+    credentials.put(appKey, new Credential(appKey, appSecret, false));
+  }
+
+  /**
+   * 注册 ISV 套件，获取授权企业的 Token 前需要通过 {@link #updateSuiteTicket} 设置最新的 suiteTicket
+   */
+  public void registerSuite(String suiteKey, String suiteSecret) {
+    credentials.put(suiteKey, new Credential(suiteKey, suiteSecret, true));
+  }
+
+  public void updateSuiteTicket(String suiteKey, String suiteTicket) {
+    Credential credential = credentials.get(suiteKey);
+    if (credential == null || !credential.suite) {
+      throw new IllegalArgumentException("unknown suite: " + suiteKey);
+    }
+    credential.suiteTicket = suiteTicket;
+  }
+
+  /**
+   * 根据应用和企业确定缓存 key：ISV 套件按授权企业区分，企业内部应用只按 appKey 区分
+   */
+  public TokenKey keyOf(String appKey, String corpId) {
+    Credential credential = credentials.get(appKey);
+    return credential != null && credential.suite ? TokenKey.of(appKey, corpId) : TokenKey.of(appKey);
+  }
+
+  /**
+   * 当前的 Token，只读缓存不等待。还没有 Token 时在后台开始获取并返回 null，需要等待首次获取的调用方使用
+   * {@link #getAccessTokenAsync}
+   */
+  public String getAccessToken(TokenKey key) {
+    TenantToken tenant = tokens.get(key);
+    if (tenant == null || tenant.token == null) {
+      tenantOf(key).refresh();
+      return null;
+    }
+    return tenant.getAccessToken();
+  }
+
+  /**
+   * 异步获取 Token，已有 Token 时立即完成；首次获取时等待共享的那次刷新，获取失败时 future 以 null 完成
+   */
+  public CompletableFuture<String> getAccessTokenAsync(TokenKey key) {
+    TenantToken tenant = tokens.get(key);
+    if (tenant == null || tenant.token == null) {
+      tenant = tenantOf(key);
+      if (tenant.token == null) {
+        TenantToken loading = tenant;
+        return tenant.refresh().thenApply(fetched -> fetched == null ? null : loading.getAccessToken());
+      }
+    }
+    return CompletableFuture.completedFuture(tenant.getAccessToken());
+  }
+
+  public boolean isTokenNearlyExpired(TokenKey key) {
+    TenantToken tenant = tokens.get(key);
+    return tenant == null || tenant.token == null || tenant.token.isNearlyExpired();
+  }
+
+  /**
+   * 刷新指定租户的 Token，刷新失败时 future 以 null 完成
+   */
+  public CompletableFuture<AccessToken> refresh(TokenKey key) {
+    return tenantOf(key).refresh();
+  }
+
+  /**
+   * 接口返回 Token 无效时调用。staleToken 仍是当前 Token 时触发刷新，并发的调用方共享同一次刷新；
+   * 否则说明其他调用方已经刷新过，直接返回当前 Token
+   */
+  public CompletableFuture<AccessToken> invalidate(TokenKey key, String staleToken) {
+    TenantToken tenant = tenantOf(key);
+    AccessToken current = tenant.token;
+    if (current != null && !current.accessToken.equals(staleToken)) {
+      return CompletableFuture.completedFuture(current);
+    }
+    log.warn("access token of {} is invalid, refresh it", key);
+    return tenant.refreshIfStale(staleToken);
+  }
+
+  /**
+   * 固定的租户不会因为空闲被淘汰，如默认应用
+   */
+  public void pin(TokenKey key) {
+    tenantOf(key).pinned = true;
+  }
+
+  private TenantToken tenantOf(TokenKey key) {
+    Credential credential = credentials.get(key.appKey);
+    if (credential == null) {
+      throw new IllegalArgumentException("unknown app: " + key.appKey);
+    }
+    TenantToken tenant = tokens.computeIfAbsent(key, k -> new TenantToken(k, credential));
+    if (tokens.size() > maxTenants) {
+      evictLeastRecentlyUsed();
+    }
+    return tenant;
+  }
+
+  private void evictIdle() {
+    long idleNanos = TimeUnit.MINUTES.toNanos(idleEvictMinutes);
+    long now = System.nanoTime();
+    tokens.values().stream()
+        .filter(tenant -> !tenant.pinned && now - tenant.lastAccessNanos > idleNanos)
+        .forEach(tenant -> evict(tenant, "idle"));
+  }
+
+  private void evictLeastRecentlyUsed() {
+    tokens.values().stream()
+        .filter(tenant -> !tenant.pinned)
+        .min(Comparator.comparingLong(tenant -> tenant.lastAccessNanos))
+        .ifPresent(tenant -> evict(tenant, "capacity"));
+  }
+
+  private void evict(TenantToken tenant, String reason) {
+    if (tokens.remove(tenant.key, tenant)) {
+      tenant.evicted = true;
+      tenant.cancelScheduledRefresh();
+      log.info("evict access token of {}, reason={}", tenant.key, reason);
+    }
+  }
+
+  private class TenantToken {
+    final TokenKey key;
+    final Credential credential;
+    final AtomicReference<CompletableFuture<AccessToken>> refreshing = new AtomicReference<>();
+    volatile AccessToken token;
+    volatile long lastAccessNanos = System.nanoTime();
+    volatile long lastAttemptNanos;
+    volatile boolean pinned;
+    volatile boolean evicted;
+
+    // 同一租户同时只有一次刷新，只在刷新任务中读写
+    int consecutiveFailures;
+    // 刷新任务和淘汰都会修改，由 TenantToken 自身的锁保护
+    ScheduledFuture<?> scheduledRefresh;
+
+    TenantToken(TokenKey key, Credential credential) {
+      this.key = key;
+      this.credential = credential;
+    }
+
+    String getAccessToken() {
+      long now = System.nanoTime();
+      // 降低热点路径上的写频率，访问时间精确到秒即可
+      if (now - lastAccessNanos > TimeUnit.SECONDS.toNanos(1)) {
+        lastAccessNanos = now;
+      }
+      AccessToken current = token;
+      if (current.isNearlyExpired() && now - lastAttemptNanos > TimeUnit.MILLISECONDS.toNanos(retryDelayMillis)) {
+        // 后台刷新没有赶上时触发一次刷新，本次调用不等待
+        refresh();
+      }
+      return current.accessToken;
+    }
+
+    CompletableFuture<AccessToken> refresh() {
+      return refreshIfStale(null);
+    }
+
+    /**
+     * staleToken 不为 null 时，刷新开始前 Token 已经不是 staleToken 则不再调用远程接口，直接返回当前 Token，
+     * 避免读到旧 Token 的调用方在上一次刷新完成后又触发一次刷新
+     */
+    CompletableFuture<AccessToken> refreshIfStale(String staleToken) {
+      while (true) {
+        CompletableFuture<AccessToken> current = refreshing.get();
+        if (current != null) {
+          return current;
+        }
+        CompletableFuture<AccessToken> future = new CompletableFuture<>();
+        if (refreshing.compareAndSet(null, future)) {
+          lastAttemptNanos = System.nanoTime();
+          refresher.execute(() -> doRefresh(future, staleToken));
+          return future;
+        }
+      }
+    }
+
+    void doRefresh(CompletableFuture<AccessToken> future, String staleToken) {
+      AccessToken fetched = null;
+      try {
+        if (evicted) {
+          return;
+        }
+        AccessToken current = token;
+        if (staleToken != null && current != null && !current.accessToken.equals(staleToken)) {
+          fetched = current;
+          return;
+        }
+        // 启用共享文件时优先复用同一台机器上其他进程刷新的 Token
+        fetched = sharedTokenFile.isEnabled()
+            ? sharedTokenFile.refresh(key, token, () -> fetchAccessToken(credential, key.corpId))
+            : fetchAccessToken(credential, key.corpId);
+        if (fetched != null) {
+          token = fetched;
+          consecutiveFailures = 0;
+          scheduleRefresh(nextRefreshDelayMillis(fetched));
+        } else if (token != null) {
+          // 已有 Token 时在后台继续重试，首次获取失败由调用方处理
+          consecutiveFailures++;
+          scheduleRefresh(Math.min(maxRetryDelayMillis, retryDelayMillis << Math.min(consecutiveFailures - 1, 10)));
+        }
+      } finally {
+        refreshing.compareAndSet(future, null);
+        future.complete(fetched);
+      }
+    }
+
+    synchronized void scheduleRefresh(long delayMillis) {
+      cancelScheduledRefresh();
+      scheduledRefresh = refresher.schedule(this::refresh, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void cancelScheduledRefresh() {
+      if (scheduledRefresh != null) {
+        scheduledRefresh.cancel(false);
+        scheduledRefresh = null;
+      }
+    }
+  }
+
+  private long nextRefreshDelayMillis(AccessToken token) {
+    long expireInMillis = token.expireTimestamp - System.currentTimeMillis();
+    long jitterMillis = ThreadLocalRandom.current().nextLong(TimeUnit.SECONDS.toMillis(refreshJitterSeconds) + 1);
+    // 有效期很短时至少在有效期过半后再刷新
+    long refreshAheadMillis = TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+    return Math.max(expireInMillis / 2, expireInMillis - refreshAheadMillis - jitterMillis);
+  }
+
+  private AccessToken fetchAccessToken(Credential credential, String corpId) {
+    try {
+      String accessToken;
+      Long expireIn;
+      if (credential.suite) {
+        GetCorpAccessTokenRequest getCorpAccessTokenRequest = new GetCorpAccessTokenRequest()
+            .setSuiteKey(credential.appKey)
+            .setSuiteSecret(credential.appSecret)
+            .setAuthCorpId(corpId)
+            .setSuiteTicket(credential.suiteTicket);
+        GetCorpAccessTokenResponse response = auth2Client.getCorpAccessToken(getCorpAccessTokenRequest);
+        if (Objects.isNull(response) || Objects.isNull(response.body)) {
+          log.error("AccessTokenCache_getTokenFromRemoteServer getCorpAccessToken return error," +
+              " suiteKey={}, corpId={}, response={}", credential.appKey, corpId, response);
+          return null;
+        }
+        accessToken = response.body.accessToken;
+        expireIn = response.body.expireIn;
+      } else {
+        GetAccessTokenRequest getAccessTokenRequest = new GetAccessTokenRequest()
+            .setAppKey(credential.appKey)
+            .setAppSecret(credential.appSecret);
+        GetAccessTokenResponse response = auth2Client.getAccessToken(getAccessTokenRequest);
+        if (Objects.isNull(response) || Objects.isNull(response.body)) {
+          log.error("AccessTokenCache_getTokenFromRemoteServer getAccessToken return error," +
+              " appKey={}, response={}", credential.appKey, response);
+          return null;
+        }
+        accessToken = response.body.accessToken;
+        expireIn = response.body.expireIn;
+      }
+
+      if (Objects.isNull(accessToken) || Objects.isNull(expireIn)) {
+        log.error("AccessTokenCache_getTokenFromRemoteServer invalid token, token or expireIn" +
+            " maybe null, appKey={}, corpId={}, expireIn={}", credential.appKey, corpId, expireIn);
+        return null;
+      }
+
+      AccessToken token = new AccessToken();
+      token.setAccessToken(accessToken);
+      token.setExpireTimestamp(System.currentTimeMillis() + expireIn * 1000);
+      log.info("refresh access token success, appKey={}, corpId={}, expireIn={}", credential.appKey, corpId, expireIn);
+      return token;
+    } catch (TeaException e) {
+      log.error("AccessTokenCache_getTokenFromRemoteServer throw TeaException, appKey={}, corpId={}, " +
+          "errCode={}, errorMessage={}", credential.appKey, corpId, e.getCode(), e.getMessage(), e);
+      return null;
+    } catch (Exception e) {
+      log.error("AccessTokenCache_getTokenFromRemoteServer throw Exception, appKey={}, corpId={}",
+          credential.appKey, corpId, e);
+      return null;
+    }
+  }
+}
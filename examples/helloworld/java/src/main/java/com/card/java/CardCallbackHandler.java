@@ -1,11 +1,10 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import lombok.extern.slf4j.Slf4j;
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
-import com.card.java.models.CardCallbackMessage;
-import com.card.java.models.CardPrivateData;
-import com.card.java.models.CardPrivateDataWrapper;
+import com.card.java.models.CardCallback;
+import com.card.java.models.LocalInputParams;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import com.dingtalk.open.app.api.callback.OpenDingTalkCallbackListener;
@@ -14,40 +13,36 @@ import org.springframework.stereotype.Component;
 
 @Slf4j
 @Component
-public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, JSONObject> {
+public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, CardCallbackResponse> {
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardTrafficLogger cardTrafficLogger;
+
+  @Autowired
+  private CardCallbackResponseWriter cardCallbackResponseWriter;
+
+  @Autowired
+  private CardCallbackDecoder cardCallbackDecoder;
 
   @Override
-  public JSONObject execute(String messageString) {
+  public CardCallbackResponse execute(String messageString) {
     /**
      * 卡片事件回调文档：https://open.dingtalk.com/document/orgapp/event-callback-card
      */
-    log.info("card callback message: " + messageString);
+    cardTrafficLogger.info(Category.CALLBACK, "card callback message", () -> messageString);
     JSONObject userPrivateData = new JSONObject();
 
-    CardCallbackMessage message = JSON.parseObject(messageString, CardCallbackMessage.class);
-    CardPrivateDataWrapper content = JSON.parseObject(message.getContent(), CardPrivateDataWrapper.class);
-    CardPrivateData cardPrivateData = content.getCardPrivateData();
-    JSONObject params = cardPrivateData.getParams();
-    String local_input = params.getString("local_input");
+    CardCallback<LocalInputParams> callback = cardCallbackDecoder.decode(messageString, LocalInputParams.class);
+    String local_input = callback.getParams().getLocalInput();
 
     if (local_input != null) {
       userPrivateData.put("private_input", local_input);
       userPrivateData.put("submitted", true);
     }
 
-    JSONObject cardUpdateOptions = new JSONObject();
-    cardUpdateOptions.put("updateCardDataByKey", true);
-    cardUpdateOptions.put("updatePrivateDataByKey", true);
-
-    JSONObject response = new JSONObject();
-    response.put("cardUpdateOptions", cardUpdateOptions);
-    response.put("userPrivateData",
-        new JSONObject().fluentPut("cardParamMap", jsonObjectUtils.convertJSONValuesToString(userPrivateData)));
+    CardCallbackResponse response = cardCallbackResponseWriter.write(userPrivateData);
 
-    log.info("card callback response: " + JSON.toJSONString(response));
+    cardTrafficLogger.info(Category.CALLBACK, "card callback response", response::toString);
     return response;
   }
 }
@@ -0,0 +1,13 @@
+package com.card.java.models;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import lombok.Data;
+
+/**
+ * helloworld 卡片的回传参数
+ */
+@Data
+public class LocalInputParams {
+  @JSONField(name = "local_input")
+  private String localInput;
+}
@@ -0,0 +1,183 @@
+package com.card.java;
+
+import com.aliyun.dingtalkoauth2_1_0.Client;
+import com.aliyun.dingtalkoauth2_1_0.models.GetAccessTokenRequest;
+import com.aliyun.dingtalkoauth2_1_0.models.GetAccessTokenResponse;
+import com.aliyun.dingtalkoauth2_1_0.models.GetAccessTokenResponseBody;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AccessTokenCacheTest {
+
+  private static final AccessTokenCache.TokenKey APP_A = AccessTokenCache.TokenKey.of("app-a");
+
+  private static final AccessTokenCache.TokenKey APP_B = AccessTokenCache.TokenKey.of("app-b");
+
+  private Client auth2Client;
+
+  private AccessTokenCache accessTokenCache;
+
+  // app-a 的第一次远程调用在放行前一直阻塞
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  // 每个应用的远程调用次数，Token 按应用和次数命名，如 app-a 的第一个 Token 为 app-a-1
+  private final Map<String, AtomicInteger> fetched = new ConcurrentHashMap<>();
+
+  @BeforeEach
+  void setUp() throws Exception {
+    SharedTokenFile sharedTokenFile = mock(SharedTokenFile.class);
+    auth2Client = mock(Client.class);
+    when(auth2Client.getAccessToken(any(GetAccessTokenRequest.class))).thenAnswer(invocation -> {
+      String appKey = invocation.<GetAccessTokenRequest>getArgument(0).getAppKey();
+      int n = fetched.computeIfAbsent(appKey, k -> new AtomicInteger()).incrementAndGet();
+      if (appKey.equals("app-a") && n == 1) {
+        release.await(2, TimeUnit.SECONDS);
+      }
+      return response(appKey + "-" + n);
+    });
+
+    accessTokenCache = new AccessTokenCache();
+    ReflectionTestUtils.setField(accessTokenCache, "sharedTokenFile", sharedTokenFile);
+    ReflectionTestUtils.setField(accessTokenCache, "refreshAheadSeconds", 600L);
+    ReflectionTestUtils.setField(accessTokenCache, "refreshJitterSeconds", 60L);
+    ReflectionTestUtils.setField(accessTokenCache, "retryDelayMillis", 1000L);
+    ReflectionTestUtils.setField(accessTokenCache, "maxRetryDelayMillis", 30000L);
+    ReflectionTestUtils.setField(accessTokenCache, "maxTenants", 64);
+    ReflectionTestUtils.setField(accessTokenCache, "idleEvictMinutes", 30L);
+    ReflectionTestUtils.setField(accessTokenCache, "refresherThreads", 2);
+    accessTokenCache.init();
+    ReflectionTestUtils.setField(accessTokenCache, "auth2Client", auth2Client);
+    accessTokenCache.registerApp("app-a", "secret");
+    accessTokenCache.registerApp("app-b", "secret");
+  }
+
+  @AfterEach
+  void tearDown() {
+    release.countDown();
+    accessTokenCache.shutdown();
+  }
+
+  private static GetAccessTokenResponse response(String accessToken) {
+    GetAccessTokenResponse response = new GetAccessTokenResponse();
+    response.body = new GetAccessTokenResponseBody();
+    response.body.accessToken = accessToken;
+    response.body.expireIn = 7200L;
+    return response;
+  }
+
+  @Test
+  void concurrentLoadsShareOneRemoteCall() throws Exception {
+    CompletableFuture<String> first = accessTokenCache.getAccessTokenAsync(APP_A);
+    CompletableFuture<String> second = accessTokenCache.getAccessTokenAsync(APP_A);
+
+    // 首次获取时不阻塞调用线程
+    assertThat(first).isNotDone();
+    assertThat(second).isNotDone();
+
+    release.countDown();
+    assertThat(first).succeedsWithin(Duration.ofSeconds(2)).isEqualTo("app-a-1");
+    assertThat(second).succeedsWithin(Duration.ofSeconds(2)).isEqualTo("app-a-1");
+    assertThat(accessTokenCache.getAccessToken(APP_A)).isEqualTo("app-a-1");
+    verify(auth2Client, times(1)).getAccessToken(any(GetAccessTokenRequest.class));
+  }
+
+  @Test
+  void slowTenantDoesNotBlockOthers() {
+    CompletableFuture<String> slow = accessTokenCache.getAccessTokenAsync(APP_A);
+    CompletableFuture<String> fast = accessTokenCache.getAccessTokenAsync(APP_B);
+
+    // app-a 的远程调用还没有返回，app-b 在另一个线程上刷新完成
+    assertThat(fast).succeedsWithin(Duration.ofSeconds(2)).isEqualTo("app-b-1");
+    assertThat(slow).isNotDone();
+
+    release.countDown();
+    assertThat(slow).succeedsWithin(Duration.ofSeconds(2)).isEqualTo("app-a-1");
+  }
+
+  @Test
+  void getAccessTokenDoesNotWaitForFirstLoad() {
+    // 还没有 Token 时不阻塞也不抛异常，在后台开始获取
+    assertThat(accessTokenCache.getAccessToken(APP_A)).isNull();
+    CompletableFuture<String> loading = accessTokenCache.getAccessTokenAsync(APP_A);
+    assertThat(loading).isNotDone();
+
+    release.countDown();
+    assertThat(loading).succeedsWithin(Duration.ofSeconds(2)).isEqualTo("app-a-1");
+    assertThat(accessTokenCache.getAccessToken(APP_A)).isEqualTo("app-a-1");
+  }
+
+  @Test
+  void invalidateSharesRefreshForStaleToken() throws Exception {
+    release.countDown();
+    assertThat(accessTokenCache.getAccessTokenAsync(APP_A).join()).isEqualTo("app-a-1");
+
+    CompletableFuture<AccessTokenCache.AccessToken> first = accessTokenCache.invalidate(APP_A, "app-a-1");
+    CompletableFuture<AccessTokenCache.AccessToken> second = accessTokenCache.invalidate(APP_A, "app-a-1");
+    assertThat(first.join().getAccessToken()).isEqualTo("app-a-2");
+    assertThat(second.join().getAccessToken()).isEqualTo("app-a-2");
+
+    // 其他调用方已经刷新过，不再发起远程调用
+    assertThat(accessTokenCache.invalidate(APP_A, "app-a-1").join().getAccessToken()).isEqualTo("app-a-2");
+    verify(auth2Client, times(2)).getAccessToken(any(GetAccessTokenRequest.class));
+  }
+
+  @Test
+  void concurrentInvalidateRefreshesOncePerStaleToken() throws Exception {
+    release.countDown();
+    String current = accessTokenCache.getAccessTokenAsync(APP_A).join();
+    for (int round = 2; round <= 20; round++) {
+      // 多个调用方同时发现同一个 Token 失效，先完成的刷新之后才调用 invalidate 的也不能再刷新一次
+      String stale = current;
+      CountDownLatch start = new CountDownLatch(1);
+      List<CompletableFuture<AccessTokenCache.AccessToken>> refreshed = new CopyOnWriteArrayList<>();
+      Thread[] callers = new Thread[8];
+      for (int i = 0; i < callers.length; i++) {
+        callers[i] = new Thread(() -> {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          refreshed.add(accessTokenCache.invalidate(APP_A, stale));
+        });
+        callers[i].start();
+      }
+      start.countDown();
+      for (Thread caller : callers) {
+        caller.join();
+      }
+
+      current = "app-a-" + round;
+      for (CompletableFuture<AccessTokenCache.AccessToken> future : refreshed) {
+        assertThat(future.join().getAccessToken()).isEqualTo(current);
+      }
+    }
+    assertThat(fetched.get("app-a").get()).isEqualTo(20);
+  }
+
+  @Test
+  void failedLoadCompletesWithNull() throws Exception {
+    when(auth2Client.getAccessToken(any(GetAccessTokenRequest.class))).thenReturn(null);
+    assertThat(accessTokenCache.getAccessTokenAsync(APP_A)).succeedsWithin(Duration.ofSeconds(2)).isNull();
+  }
+}
@@ -0,0 +1,103 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONObject;
+import com.aliyun.dingtalkoauth2_1_0.Client;
+import com.dingtalk.open.app.api.message.GenericOpenDingTalkEvent;
+import com.dingtalk.open.app.stream.protocol.event.EventAckStatus;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class AccessTokenServiceTest {
+
+  private AccessTokenCache accessTokenCache;
+
+  private AccessTokenService accessTokenService;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    accessTokenCache = new AccessTokenCache();
+    ReflectionTestUtils.setField(accessTokenCache, "sharedTokenFile", mock(SharedTokenFile.class));
+    ReflectionTestUtils.setField(accessTokenCache, "refreshAheadSeconds", 600L);
+    ReflectionTestUtils.setField(accessTokenCache, "refreshJitterSeconds", 60L);
+    ReflectionTestUtils.setField(accessTokenCache, "retryDelayMillis", 1000L);
+    ReflectionTestUtils.setField(accessTokenCache, "maxRetryDelayMillis", 30000L);
+    ReflectionTestUtils.setField(accessTokenCache, "maxTenants", 64);
+    ReflectionTestUtils.setField(accessTokenCache, "idleEvictMinutes", 30L);
+    ReflectionTestUtils.setField(accessTokenCache, "refresherThreads", 1);
+    accessTokenCache.init();
+    // 远程调用都返回 null，测试中不会拿到 Token
+    ReflectionTestUtils.setField(accessTokenCache, "auth2Client", mock(Client.class));
+
+    accessTokenService = new AccessTokenService();
+    ReflectionTestUtils.setField(accessTokenService, "accessTokenCache", accessTokenCache);
+    ReflectionTestUtils.setField(accessTokenService, "clientId", "app");
+    ReflectionTestUtils.setField(accessTokenService, "clientSecret", "secret");
+    ReflectionTestUtils.setField(accessTokenService, "appType", "app");
+    ReflectionTestUtils.setField(accessTokenService, "extraApps", "");
+    ReflectionTestUtils.setField(accessTokenService, "extraSuites", "");
+    ReflectionTestUtils.setField(accessTokenService, "retryDelayMillis", 60000L);
+    ReflectionTestUtils.setField(accessTokenService, "maxRetryDelayMillis", 60000L);
+  }
+
+  @AfterEach
+  void tearDown() {
+    accessTokenCache.shutdown();
+  }
+
+  private static GenericOpenDingTalkEvent event(String eventType, JSONObject data) {
+    GenericOpenDingTalkEvent event = new GenericOpenDingTalkEvent();
+    event.setEventId("event");
+    event.setEventType(eventType);
+    event.setData(data);
+    return event;
+  }
+
+  @Test
+  void registersExtraAppsAndSuitesFromConfig() {
+    ReflectionTestUtils.setField(accessTokenService, "extraApps", "app-b:secret-b, app-c:secret-c");
+    ReflectionTestUtils.setField(accessTokenService, "extraSuites", "suite-x:secret-x");
+    accessTokenService.init();
+
+    assertThat(accessTokenCache.keyOf("app", "corp")).isEqualTo(AccessTokenCache.TokenKey.of("app"));
+    assertThat(accessTokenCache.keyOf("app-c", "corp")).isEqualTo(AccessTokenCache.TokenKey.of("app-c"));
+    // 套件按授权企业区分 Token
+    assertThat(accessTokenCache.keyOf("suite-x", "corp")).isEqualTo(AccessTokenCache.TokenKey.of("suite-x", "corp"));
+    accessTokenService.updateSuiteTicket("suite-x", "ticket");
+    assertThatThrownBy(() -> accessTokenService.updateSuiteTicket("app-b", "ticket"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void rejectsMalformedCredential() {
+    ReflectionTestUtils.setField(accessTokenService, "extraApps", "app-b");
+    assertThatThrownBy(() -> accessTokenService.init())
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("key:secret");
+  }
+
+  @Test
+  void suiteIsReadyAfterFirstSuiteTicket() {
+    ReflectionTestUtils.setField(accessTokenService, "appType", "suite");
+    accessTokenService.init();
+    SuiteTicketListener suiteTicketListener = new SuiteTicketListener();
+    ReflectionTestUtils.setField(suiteTicketListener, "accessTokenService", accessTokenService);
+
+    // 当前应用是套件时，消息按所属的授权企业取 Token
+    assertThat(accessTokenCache.keyOf("app", "corp-a")).isEqualTo(AccessTokenCache.TokenKey.of("app", "corp-a"));
+    assertThat(accessTokenService.isReady()).isFalse();
+
+    assertThat(suiteTicketListener.onEvent(event("other_event", new JSONObject()))).isEqualTo(EventAckStatus.SUCCESS);
+    assertThat(accessTokenService.isReady()).isFalse();
+
+    assertThat(suiteTicketListener.onEvent(event(SuiteTicketListener.SUITE_TICKET_EVENT,
+        new JSONObject().fluentPut("suiteTicket", "ticket")))).isEqualTo(EventAckStatus.SUCCESS);
+    assertThat(accessTokenService.isReady()).isTrue();
+  }
+}
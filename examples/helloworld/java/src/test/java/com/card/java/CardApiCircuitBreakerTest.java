@@ -0,0 +1,171 @@
+package com.card.java;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CardApiCircuitBreakerTest {
+
+  private static final CardApiEndpoint ENDPOINT = CardApiEndpoint.UPDATE;
+
+  private static final CardApiResult SUCCESS = CardApiResult.ofResponse(ENDPOINT, "card", 200, "{}", 1);
+
+  private static final CardApiResult FAILURE =
+      CardApiResult.ofException(ENDPOINT, "card", new IOException("reset"), 1);
+
+  private static final CardApiResult FATAL = CardApiResult.ofResponse(ENDPOINT, "card", 400, "{}", 1);
+
+  private static final CardApiResult REJECTED = CardApiResult.ofRejected(ENDPOINT, "card", "interrupted");
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private CardApiCircuitBreaker circuitBreaker;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    circuitBreaker = new CardApiCircuitBreaker();
+    ReflectionTestUtils.setField(circuitBreaker, "meterRegistry", meterRegistry);
+    ReflectionTestUtils.setField(circuitBreaker, "windowSize", 4);
+    ReflectionTestUtils.setField(circuitBreaker, "minimumCalls", 2);
+    ReflectionTestUtils.setField(circuitBreaker, "failureRateThreshold", 0.5);
+    ReflectionTestUtils.setField(circuitBreaker, "openMillis", 50L);
+    ReflectionTestUtils.setField(circuitBreaker, "halfOpenProbes", 1);
+    ReflectionTestUtils.setField(circuitBreaker, "maxQueued", 2);
+    circuitBreaker.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    circuitBreaker.shutdown();
+  }
+
+  private CardApiCircuitBreaker.State state() {
+    return circuitBreaker.getState(ENDPOINT);
+  }
+
+  private void open() {
+    circuitBreaker.onResult(FAILURE);
+    circuitBreaker.onResult(FAILURE);
+    assertThat(state()).isEqualTo(CardApiCircuitBreaker.State.OPEN);
+  }
+
+  private void halfOpen() throws InterruptedException {
+    open();
+    Thread.sleep(60);
+    assertThat(circuitBreaker.tryAcquire(ENDPOINT)).isTrue();
+    assertThat(state()).isEqualTo(CardApiCircuitBreaker.State.HALF_OPEN);
+  }
+
+  private double rejectedCount(String action) {
+    return meterRegistry.get("card.api.circuit.rejected")
+        .tag("endpoint", ENDPOINT.name())
+        .tag("action", action)
+        .counter()
+        .count();
+  }
+
+  private static void await(List<?> list, int size) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (list.size() < size && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  void opensWhenFailureRateReachesThreshold() {
+    // 参数错误、限流不是接口故障
+    circuitBreaker.onResult(FATAL);
+    circuitBreaker.onResult(CardApiResult.ofResponse(ENDPOINT, "card", 429, null, 1));
+    circuitBreaker.onResult(FAILURE);
+    assertThat(state()).isEqualTo(CardApiCircuitBreaker.State.CLOSED);
+
+    // 窗口内 4 次调用 2 次失败
+    circuitBreaker.onResult(FAILURE);
+    assertThat(state()).isEqualTo(CardApiCircuitBreaker.State.OPEN);
+    assertThat(circuitBreaker.tryAcquire(ENDPOINT)).isFalse();
+    // 其他接口独立统计
+    assertThat(circuitBreaker.tryAcquire(CardApiEndpoint.STREAMING)).isTrue();
+  }
+
+  @Test
+  void halfOpenAllowsLimitedProbes() throws InterruptedException {
+    halfOpen();
+    assertThat(circuitBreaker.tryAcquire(ENDPOINT)).isFalse();
+
+    circuitBreaker.onResult(SUCCESS);
+    assertThat(state()).isEqualTo(CardApiCircuitBreaker.State.CLOSED);
+    assertThat(circuitBreaker.tryAcquire(ENDPOINT)).isTrue();
+  }
+
+  @Test
+  void failedProbeReopens() throws InterruptedException {
+    halfOpen();
+    circuitBreaker.onResult(FAILURE);
+    assertThat(state()).isEqualTo(CardApiCircuitBreaker.State.OPEN);
+    assertThat(circuitBreaker.tryAcquire(ENDPOINT)).isFalse();
+  }
+
+  @Test
+  void rejectedProbeReleasesSlotWithoutClosing() throws InterruptedException {
+    halfOpen();
+
+    // 被中断或超过截止时间的探测没有得到响应，不能关闭熔断，名额让给下一个调用
+    circuitBreaker.onResult(REJECTED);
+    assertThat(state()).isEqualTo(CardApiCircuitBreaker.State.HALF_OPEN);
+    assertThat(circuitBreaker.tryAcquire(ENDPOINT)).isTrue();
+    assertThat(circuitBreaker.tryAcquire(ENDPOINT)).isFalse();
+  }
+
+  @Test
+  void replaysDeferredCallsInOrderAfterClosing() throws InterruptedException {
+    open();
+    List<String> replayed = new CopyOnWriteArrayList<>();
+    assertThat(circuitBreaker.defer(ENDPOINT, () -> replayed.add("first"))).isTrue();
+    assertThat(circuitBreaker.defer(ENDPOINT, () -> replayed.add("second"))).isTrue();
+    assertThat(circuitBreaker.defer(ENDPOINT, () -> replayed.add("third"))).isFalse();
+
+    // 没有新调用时，排队的第一个调用在熔断到期后作为探测重放
+    await(replayed, 1);
+    assertThat(replayed).containsExactly("first");
+
+    circuitBreaker.tryAcquire(ENDPOINT);
+    circuitBreaker.onResult(SUCCESS);
+    assertThat(state()).isEqualTo(CardApiCircuitBreaker.State.CLOSED);
+    assertThat(replayed).containsExactly("first", "second");
+
+    assertThat(rejectedCount("queued")).isEqualTo(2);
+    assertThat(rejectedCount("overflow")).isEqualTo(1);
+  }
+
+  @Test
+  void requeuedReplayKeepsItsPlaceAtTheHead() throws InterruptedException {
+    halfOpen();
+    List<String> replayed = new CopyOnWriteArrayList<>();
+    circuitBreaker.defer(ENDPOINT, () -> replayed.add("second"));
+    circuitBreaker.defer(ENDPOINT, () -> replayed.add("third"));
+    // 探测名额被占用，取出的第一个重放没有拿到名额，放回队首
+    circuitBreaker.requeue(ENDPOINT, () -> replayed.add("first"));
+
+    circuitBreaker.onResult(SUCCESS);
+    assertThat(replayed).containsExactly("first", "second", "third");
+    assertThat(rejectedCount("queued")).isEqualTo(2);
+  }
+
+  @Test
+  void deferRunsImmediatelyWhenClosed() {
+    List<String> replayed = new CopyOnWriteArrayList<>();
+    assertThat(circuitBreaker.defer(ENDPOINT, () -> replayed.add("now"))).isTrue();
+    assertThat(replayed).containsExactly("now");
+  }
+}
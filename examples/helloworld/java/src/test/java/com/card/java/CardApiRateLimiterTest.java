@@ -0,0 +1,107 @@
+package com.card.java;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CardApiRateLimiterTest {
+
+  private static final long NO_DEADLINE = Long.MAX_VALUE / 2;
+
+  private static final long INTERVAL_100MS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private CardApiRateLimiter rateLimiter;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    rateLimiter = new CardApiRateLimiter();
+    ReflectionTestUtils.setField(rateLimiter, "meterRegistry", meterRegistry);
+    ReflectionTestUtils.setField(rateLimiter, "createAndDeliverQps", 1000.0);
+    ReflectionTestUtils.setField(rateLimiter, "updateQps", 10.0);
+    ReflectionTestUtils.setField(rateLimiter, "streamingQps", 1000.0);
+    ReflectionTestUtils.setField(rateLimiter, "userGetQps", 1000.0);
+    ReflectionTestUtils.setField(rateLimiter, "appQps", 1000.0);
+    ReflectionTestUtils.setField(rateLimiter, "cardQps", 1000.0);
+    ReflectionTestUtils.setField(rateLimiter, "burstSeconds", 1.0);
+    rateLimiter.init();
+  }
+
+  @Test
+  void queuesCallsInOrderAfterBurst() {
+    // update 10 QPS，攒满的 10 个令牌加上预支的 1 个立即放行
+    for (int i = 0; i < 11; i++) {
+      assertThat(rateLimiter.reserve(CardApiEndpoint.UPDATE, null, null, NO_DEADLINE)).isZero();
+    }
+    long second = rateLimiter.reserve(CardApiEndpoint.UPDATE, null, null, NO_DEADLINE);
+    long third = rateLimiter.reserve(CardApiEndpoint.UPDATE, null, null, NO_DEADLINE);
+    assertThat(second).isBetween(INTERVAL_100MS - TimeUnit.MILLISECONDS.toNanos(20), INTERVAL_100MS);
+    assertThat(third - second).isBetween(INTERVAL_100MS - TimeUnit.MILLISECONDS.toNanos(5), INTERVAL_100MS);
+
+    // 其他接口的令牌桶互不影响
+    assertThat(rateLimiter.reserve(CardApiEndpoint.STREAMING, null, null, NO_DEADLINE)).isZero();
+    assertThat(meterRegistry.get("card.api.ratelimit.wait").tag("endpoint", "UPDATE").timer().count())
+        .isEqualTo(13);
+  }
+
+  @Test
+  void limitsEachCardAndApp() {
+    ReflectionTestUtils.setField(rateLimiter, "cardQps", 1.0);
+    assertThat(rateLimiter.reserve(CardApiEndpoint.STREAMING, "app", "card-a", NO_DEADLINE)).isZero();
+    assertThat(rateLimiter.reserve(CardApiEndpoint.STREAMING, "app", "card-a", NO_DEADLINE)).isZero();
+    assertThat(rateLimiter.reserve(CardApiEndpoint.STREAMING, "app", "card-a", NO_DEADLINE))
+        .isGreaterThan(TimeUnit.MILLISECONDS.toNanos(900));
+    assertThat(rateLimiter.reserve(CardApiEndpoint.STREAMING, "app", "card-b", NO_DEADLINE)).isZero();
+
+    ReflectionTestUtils.setField(rateLimiter, "appQps", 1.0);
+    assertThat(rateLimiter.reserve(CardApiEndpoint.STREAMING, "slow-app", "card-c", NO_DEADLINE)).isZero();
+    assertThat(rateLimiter.reserve(CardApiEndpoint.STREAMING, "slow-app", "card-d", NO_DEADLINE)).isZero();
+    assertThat(rateLimiter.reserve(CardApiEndpoint.STREAMING, "slow-app", "card-e", NO_DEADLINE))
+        .isGreaterThan(TimeUnit.MILLISECONDS.toNanos(900));
+  }
+
+  @Test
+  void doesNotReserveTokensPastDeadline() {
+    long lastReleaseAt = 0;
+    for (int i = 0; i < 12; i++) {
+      lastReleaseAt = System.nanoTime() + rateLimiter.reserve(CardApiEndpoint.UPDATE, null, null, NO_DEADLINE);
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+    for (int i = 0; i < 5; i++) {
+      assertThat(rateLimiter.reserve(CardApiEndpoint.UPDATE, null, null, deadline)).isEqualTo(-1);
+    }
+    assertThat(meterRegistry.get("card.api.ratelimit.rejected").tag("endpoint", "UPDATE").counter().count())
+        .isEqualTo(5);
+
+    // 放弃的调用没有占用令牌，下一个调用紧接着排在之前的调用之后
+    long releaseAt = System.nanoTime() + rateLimiter.reserve(CardApiEndpoint.UPDATE, null, null, NO_DEADLINE);
+    assertThat(releaseAt - lastReleaseAt)
+        .isBetween(INTERVAL_100MS - TimeUnit.MILLISECONDS.toNanos(5), INTERVAL_100MS + TimeUnit.MILLISECONDS.toNanos(5));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void evictsIdleCardBuckets() throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      rateLimiter.reserve(CardApiEndpoint.STREAMING, null, "card-" + i, NO_DEADLINE);
+    }
+    Map<String, ?> cardBuckets = (Map<String, ?>) ReflectionTestUtils.getField(rateLimiter, "cardBuckets");
+    assertThat(cardBuckets).hasSize(100);
+
+    // 令牌桶重新攒满后视为空闲，每 1024 次预约清理一次
+    Thread.sleep(20);
+    for (int i = 100; i < 1024; i++) {
+      rateLimiter.reserve(CardApiEndpoint.CREATE_AND_DELIVER, null, null, NO_DEADLINE);
+    }
+    assertThat(cardBuckets).isEmpty();
+  }
+}
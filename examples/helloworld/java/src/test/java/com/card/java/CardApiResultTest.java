@@ -0,0 +1,78 @@
+package com.card.java;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CardApiResultTest {
+
+  @Test
+  void classifiesOpenApiResponses() {
+    assertThat(CardApiResult.ofResponse(CardApiEndpoint.UPDATE, "card", 200, "{\"success\":true}", 1).getOutcome())
+        .isEqualTo(CardApiResult.Outcome.SUCCESS);
+    assertThat(CardApiResult.ofResponse(CardApiEndpoint.UPDATE, "card", 429, null, 1).getOutcome())
+        .isEqualTo(CardApiResult.Outcome.THROTTLED);
+    assertThat(CardApiResult.ofResponse(CardApiEndpoint.UPDATE, "card", 503, "", 1).getOutcome())
+        .isEqualTo(CardApiResult.Outcome.RETRYABLE);
+    assertThat(CardApiResult.ofResponse(CardApiEndpoint.UPDATE, "card", 408, null, 1).getOutcome())
+        .isEqualTo(CardApiResult.Outcome.RETRYABLE);
+    assertThat(CardApiResult.ofResponse(CardApiEndpoint.UPDATE, "card", 401, null, 1).getOutcome())
+        .isEqualTo(CardApiResult.Outcome.TOKEN_INVALID);
+  }
+
+  @Test
+  void readsOpenApiErrorBody() {
+    CardApiResult result = CardApiResult.ofResponse(CardApiEndpoint.STREAMING, "card", 403,
+        "{\"code\":\"Forbidden.AccessDenied.QpsLimitForApi\",\"message\":\"qps limit\",\"requestid\":\"r-1\"}", 12);
+
+    assertThat(result.getOutcome()).isEqualTo(CardApiResult.Outcome.THROTTLED);
+    assertThat(result.isRetryable()).isTrue();
+    assertThat(result.getErrorCode()).isEqualTo("Forbidden.AccessDenied.QpsLimitForApi");
+    assertThat(result.getErrorMessage()).isEqualTo("qps limit");
+    assertThat(result.getRequestId()).isEqualTo("r-1");
+    assertThat(result.getLatencyMillis()).isEqualTo(12);
+
+    CardApiResult invalidParam = CardApiResult.ofResponse(CardApiEndpoint.UPDATE, "card", 400,
+        "{\"code\":\"InvalidParameter\",\"message\":\"bad\"}", 1);
+    assertThat(invalidParam.getOutcome()).isEqualTo(CardApiResult.Outcome.FATAL);
+    assertThat(invalidParam.isRetryable()).isFalse();
+  }
+
+  @Test
+  void classifiesLegacyErrcode() {
+    assertThat(legacy("{\"errcode\":0,\"errmsg\":\"ok\"}").getOutcome()).isEqualTo(CardApiResult.Outcome.SUCCESS);
+    assertThat(legacy("{\"errcode\":-1,\"errmsg\":\"busy\"}").getOutcome())
+        .isEqualTo(CardApiResult.Outcome.RETRYABLE);
+    assertThat(legacy("{\"errcode\":90018,\"errmsg\":\"limit\"}").getOutcome())
+        .isEqualTo(CardApiResult.Outcome.THROTTLED);
+    assertThat(legacy("{\"errcode\":42001,\"errmsg\":\"expired\"}").getOutcome())
+        .isEqualTo(CardApiResult.Outcome.TOKEN_INVALID);
+    assertThat(legacy("{\"errcode\":60121,\"errmsg\":\"no user\"}").getOutcome())
+        .isEqualTo(CardApiResult.Outcome.FATAL);
+    // 响应体不是 JSON
+    assertThat(legacy("<html>").getOutcome()).isEqualTo(CardApiResult.Outcome.FATAL);
+
+    CardApiResult result = legacy("{\"errcode\":60121,\"errmsg\":\"no user\",\"request_id\":\"r-2\"}");
+    assertThat(result.getErrorCode()).isEqualTo("60121");
+    assertThat(result.getErrorMessage()).isEqualTo("no user");
+    assertThat(result.getRequestId()).isEqualTo("r-2");
+  }
+
+  @Test
+  void classifiesExceptions() {
+    assertThat(CardApiResult.ofException(CardApiEndpoint.UPDATE, "card", new SocketTimeoutException("timeout"), 1)
+        .getOutcome()).isEqualTo(CardApiResult.Outcome.RETRYABLE);
+    assertThat(CardApiResult.ofException(CardApiEndpoint.UPDATE, "card", new IOException("reset"), 1)
+        .getOutcome()).isEqualTo(CardApiResult.Outcome.RETRYABLE);
+    assertThat(CardApiResult.ofException(CardApiEndpoint.UPDATE, "card", new IllegalStateException("bug"), 1)
+        .getOutcome()).isEqualTo(CardApiResult.Outcome.FATAL);
+    assertThat(CardApiResult.ofRejected(CardApiEndpoint.UPDATE, "card", "circuit open").isRejected()).isTrue();
+  }
+
+  private static CardApiResult legacy(String body) {
+    return CardApiResult.ofResponse(CardApiEndpoint.USER_GET, null, 200, body, 1);
+  }
+}
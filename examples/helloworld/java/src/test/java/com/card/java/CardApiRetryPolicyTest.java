@@ -0,0 +1,87 @@
+package com.card.java;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CardApiRetryPolicyTest {
+
+  private static final CardApiResult RETRYABLE =
+      CardApiResult.ofException(CardApiEndpoint.UPDATE, "card", new IOException("reset"), 1);
+
+  private static final CardApiResult THROTTLED =
+      CardApiResult.ofResponse(CardApiEndpoint.UPDATE, "card", 429, null, 1);
+
+  private CardApiRetryPolicy policy;
+
+  @BeforeEach
+  void setUp() {
+    policy = new CardApiRetryPolicy();
+    ReflectionTestUtils.setField(policy, "maxAttempts", 3);
+    ReflectionTestUtils.setField(policy, "baseDelayMillis", 100L);
+    ReflectionTestUtils.setField(policy, "throttledBaseDelayMillis", 500L);
+    ReflectionTestUtils.setField(policy, "maxDelayMillis", 2000L);
+    ReflectionTestUtils.setField(policy, "deadlineMillis", 10000L);
+    ReflectionTestUtils.setField(policy, "budgetRatio", 0.5);
+    // 不按时间充值，预算只来自 onRequest 和测试中的设置
+    ReflectionTestUtils.setField(policy, "minRetriesPerSecond", 0.0);
+    ReflectionTestUtils.setField(policy, "maxBudget", 1000.0);
+    ReflectionTestUtils.setField(policy, "budget", 1000.0);
+  }
+
+  private long farDeadline() {
+    return System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+  }
+
+  @Test
+  void doesNotRetryFatalOrRejectedResults() {
+    CardApiResult fatal = CardApiResult.ofResponse(CardApiEndpoint.UPDATE, "card", 400, null, 1);
+    CardApiResult rejected = CardApiResult.ofRejected(CardApiEndpoint.UPDATE, "card", "circuit open");
+
+    assertThat(policy.nextDelayMillis(fatal, 1, farDeadline())).isEqualTo(-1);
+    assertThat(policy.nextDelayMillis(rejected, 1, farDeadline())).isEqualTo(-1);
+  }
+
+  @Test
+  void stopsAtMaxAttempts() {
+    assertThat(policy.nextDelayMillis(RETRYABLE, 2, farDeadline())).isGreaterThanOrEqualTo(0);
+    assertThat(policy.nextDelayMillis(RETRYABLE, 3, farDeadline())).isEqualTo(-1);
+  }
+
+  @Test
+  void backoffIsFullJitterUpToCappedExponent() {
+    ReflectionTestUtils.setField(policy, "maxAttempts", 20);
+    for (int i = 0; i < 200; i++) {
+      assertThat(policy.nextDelayMillis(RETRYABLE, 1, farDeadline())).isBetween(0L, 100L);
+      assertThat(policy.nextDelayMillis(RETRYABLE, 3, farDeadline())).isBetween(0L, 400L);
+      assertThat(policy.nextDelayMillis(THROTTLED, 1, farDeadline())).isBetween(0L, 500L);
+      assertThat(policy.nextDelayMillis(RETRYABLE, 15, farDeadline())).isBetween(0L, 2000L);
+    }
+  }
+
+  @Test
+  void givesUpWhenBackoffPassesDeadline() {
+    assertThat(policy.nextDelayMillis(RETRYABLE, 1, System.nanoTime())).isEqualTo(-1);
+
+    long deadline = policy.newDeadlineNanos();
+    assertThat(deadline - System.nanoTime()).isBetween(TimeUnit.SECONDS.toNanos(9), TimeUnit.SECONDS.toNanos(10));
+    assertThat(policy.nextDelayMillis(RETRYABLE, 1, deadline)).isGreaterThanOrEqualTo(0);
+  }
+
+  @Test
+  void retriesAreLimitedByBudget() {
+    ReflectionTestUtils.setField(policy, "budget", 0.0);
+    assertThat(policy.nextDelayMillis(RETRYABLE, 1, farDeadline())).isEqualTo(-1);
+
+    // budgetRatio=0.5，两次首次请求充值一次重试
+    policy.onRequest();
+    policy.onRequest();
+    assertThat(policy.nextDelayMillis(RETRYABLE, 1, farDeadline())).isGreaterThanOrEqualTo(0);
+    assertThat(policy.nextDelayMillis(RETRYABLE, 1, farDeadline())).isEqualTo(-1);
+  }
+}
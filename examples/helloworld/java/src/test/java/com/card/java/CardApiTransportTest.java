@@ -0,0 +1,250 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONObject;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CardApiTransportTest {
+
+  private static final AccessTokenCache.TokenKey APP = AccessTokenCache.TokenKey.of("app");
+
+  private HttpServer server;
+
+  // 按顺序返回的响应，用完后返回 200
+  private final Queue<Object[]> responses = new ConcurrentLinkedQueue<>();
+
+  private final AtomicInteger requests = new AtomicInteger();
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private CardApiRetryPolicy retryPolicy;
+
+  private CardApiRateLimiter rateLimiter;
+
+  private CardApiCircuitBreaker circuitBreaker;
+
+  private AccessTokenCache accessTokenCache;
+
+  private CardApiTransport transport;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", exchange -> {
+      requests.incrementAndGet();
+      exchange.getRequestBody().readAllBytes();
+      Object[] response = responses.poll();
+      int status = response == null ? 200 : (int) response[0];
+      byte[] body = (response == null ? "{}" : (String) response[1]).getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+
+    meterRegistry = new SimpleMeterRegistry();
+
+    retryPolicy = new CardApiRetryPolicy();
+    ReflectionTestUtils.setField(retryPolicy, "maxAttempts", 3);
+    ReflectionTestUtils.setField(retryPolicy, "baseDelayMillis", 1L);
+    ReflectionTestUtils.setField(retryPolicy, "throttledBaseDelayMillis", 1L);
+    ReflectionTestUtils.setField(retryPolicy, "maxDelayMillis", 5L);
+    ReflectionTestUtils.setField(retryPolicy, "deadlineMillis", 2000L);
+    ReflectionTestUtils.setField(retryPolicy, "budgetRatio", 0.1);
+    ReflectionTestUtils.setField(retryPolicy, "minRetriesPerSecond", 5.0);
+    ReflectionTestUtils.setField(retryPolicy, "maxBudget", 50.0);
+    ReflectionTestUtils.setField(retryPolicy, "budget", 10.0);
+
+    rateLimiter = new CardApiRateLimiter();
+    ReflectionTestUtils.setField(rateLimiter, "meterRegistry", meterRegistry);
+    ReflectionTestUtils.setField(rateLimiter, "createAndDeliverQps", 1000.0);
+    ReflectionTestUtils.setField(rateLimiter, "updateQps", 1000.0);
+    ReflectionTestUtils.setField(rateLimiter, "streamingQps", 1000.0);
+    ReflectionTestUtils.setField(rateLimiter, "userGetQps", 1000.0);
+    ReflectionTestUtils.setField(rateLimiter, "appQps", 1000.0);
+    ReflectionTestUtils.setField(rateLimiter, "cardQps", 1000.0);
+    ReflectionTestUtils.setField(rateLimiter, "burstSeconds", 1.0);
+    rateLimiter.init();
+
+    circuitBreaker = new CardApiCircuitBreaker();
+    ReflectionTestUtils.setField(circuitBreaker, "meterRegistry", meterRegistry);
+    ReflectionTestUtils.setField(circuitBreaker, "windowSize", 4);
+    ReflectionTestUtils.setField(circuitBreaker, "minimumCalls", 2);
+    ReflectionTestUtils.setField(circuitBreaker, "failureRateThreshold", 0.5);
+    ReflectionTestUtils.setField(circuitBreaker, "openMillis", 100L);
+    ReflectionTestUtils.setField(circuitBreaker, "halfOpenProbes", 1);
+    ReflectionTestUtils.setField(circuitBreaker, "maxQueued", 10);
+    circuitBreaker.init();
+
+    AccessTokenService accessTokenService = mock(AccessTokenService.class);
+    when(accessTokenService.getDefaultKey()).thenReturn(APP);
+    accessTokenCache = mock(AccessTokenCache.class);
+    when(accessTokenCache.getAccessToken(any())).thenReturn("token");
+    when(accessTokenCache.getAccessTokenAsync(any())).thenReturn(CompletableFuture.completedFuture("token"));
+
+    transport = new CardApiTransport();
+    ReflectionTestUtils.setField(transport, "accessTokenService", accessTokenService);
+    ReflectionTestUtils.setField(transport, "accessTokenCache", accessTokenCache);
+    ReflectionTestUtils.setField(transport, "retryPolicy", retryPolicy);
+    ReflectionTestUtils.setField(transport, "rateLimiter", rateLimiter);
+    ReflectionTestUtils.setField(transport, "circuitBreaker", circuitBreaker);
+    ReflectionTestUtils.setField(transport, "openApiHost", "http://127.0.0.1:" + server.getAddress().getPort());
+    ReflectionTestUtils.setField(transport, "maxIdleConnections", 4);
+    ReflectionTestUtils.setField(transport, "keepAliveSeconds", 60L);
+    ReflectionTestUtils.setField(transport, "maxRequests", 16);
+    ReflectionTestUtils.setField(transport, "maxRequestsPerHost", 16);
+    ReflectionTestUtils.setField(transport, "connectTimeoutMillis", 1000L);
+    ReflectionTestUtils.setField(transport, "readTimeoutMillis", 1000L);
+    ReflectionTestUtils.setField(transport, "pingIntervalSeconds", 30L);
+    transport.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    transport.shutdown();
+    circuitBreaker.shutdown();
+    server.stop(0);
+  }
+
+  private void respond(int status, String body) {
+    responses.add(new Object[] { status, body });
+  }
+
+  private static JSONObject card(String outTrackId) {
+    return new JSONObject().fluentPut("outTrackId", outTrackId);
+  }
+
+  @Test
+  void releasesConnectionAfterEveryResponse() {
+    respond(400, "{\"code\":\"InvalidParameter\",\"message\":\"bad\"}");
+    respond(200, "{\"success\":true}");
+    respond(400, "{\"code\":\"InvalidParameter\",\"message\":\"bad\"}");
+
+    assertThat(transport.execute(CardApiEndpoint.UPDATE, card("a")).getOutcome())
+        .isEqualTo(CardApiResult.Outcome.FATAL);
+    assertThat(transport.execute(CardApiEndpoint.UPDATE, card("a")).isSuccess()).isTrue();
+    assertThat(transport.executeAsync(CardApiEndpoint.UPDATE, card("a")).join().getOutcome())
+        .isEqualTo(CardApiResult.Outcome.FATAL);
+
+    // 响应体都已读完并关闭，三次调用复用同一个连接
+    assertThat(requests.get()).isEqualTo(3);
+    assertThat(transport.getConnectionCount()).isEqualTo(1);
+    assertThat(transport.getIdleConnectionCount()).isEqualTo(1);
+  }
+
+  @Test
+  void retriesRetryableFailuresUpToMaxAttempts() {
+    respond(503, "");
+    respond(200, "{}");
+    assertThat(transport.execute(CardApiEndpoint.UPDATE, card("a")).isSuccess()).isTrue();
+    assertThat(requests.get()).isEqualTo(2);
+
+    respond(503, "");
+    respond(503, "");
+    respond(503, "");
+    assertThat(transport.executeAsync(CardApiEndpoint.UPDATE, card("b")).join().getOutcome())
+        .isEqualTo(CardApiResult.Outcome.RETRYABLE);
+    assertThat(requests.get()).isEqualTo(5);
+  }
+
+  @Test
+  void givesUpWithoutSendingWhenRateLimitWaitPassesDeadline() {
+    // 每张卡片每 10 秒一个令牌：前两次调用用掉积攒的令牌和预支的令牌，之后要等的时间超过截止时间
+    ReflectionTestUtils.setField(rateLimiter, "cardQps", 0.1);
+    assertThat(transport.execute(CardApiEndpoint.UPDATE, card("slow")).isSuccess()).isTrue();
+    assertThat(transport.execute(CardApiEndpoint.UPDATE, card("slow")).isSuccess()).isTrue();
+    ReflectionTestUtils.setField(retryPolicy, "deadlineMillis", 200L);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      assertThat(transport.execute(CardApiEndpoint.UPDATE, card("slow")).getOutcome())
+          .isEqualTo(CardApiResult.Outcome.REJECTED);
+      assertThat(transport.executeAsync(CardApiEndpoint.UPDATE, card("slow"), true).join().getOutcome())
+          .isEqualTo(CardApiResult.Outcome.REJECTED);
+    }
+
+    // 没有等待、没有发出请求，本地限流也不会打开熔断
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(200);
+    assertThat(requests.get()).isEqualTo(2);
+    assertThat(circuitBreaker.getState(CardApiEndpoint.UPDATE)).isEqualTo(CardApiCircuitBreaker.State.CLOSED);
+    // 其他卡片不受影响
+    assertThat(transport.execute(CardApiEndpoint.UPDATE, card("other")).isSuccess()).isTrue();
+  }
+
+  @Test
+  void interruptedWaitIsRejectedWithoutSending() {
+    // 第三次调用要等 1 秒才有令牌，调用线程在等待中被中断
+    ReflectionTestUtils.setField(rateLimiter, "cardQps", 1.0);
+    transport.execute(CardApiEndpoint.UPDATE, card("slow"));
+    transport.execute(CardApiEndpoint.UPDATE, card("slow"));
+
+    Thread.currentThread().interrupt();
+    CardApiResult result = transport.execute(CardApiEndpoint.UPDATE, card("slow"));
+    assertThat(Thread.interrupted()).isTrue();
+
+    // 没有得到响应的调用不计入熔断器，半开状态下也不会作为探测结果
+    assertThat(result.getOutcome()).isEqualTo(CardApiResult.Outcome.REJECTED);
+    assertThat(result.getErrorMessage()).isEqualTo("interrupted");
+    assertThat(requests.get()).isEqualTo(2);
+  }
+
+  @Test
+  void rejectsWithoutSendingWhenNoAccessToken() {
+    // 首次获取 Token 还没完成时，同步调用等到截止时间后返回 REJECTED，不抛异常
+    ReflectionTestUtils.setField(retryPolicy, "deadlineMillis", 100L);
+    when(accessTokenCache.getAccessTokenAsync(any())).thenReturn(new CompletableFuture<>());
+    CardApiResult result = transport.execute(CardApiEndpoint.UPDATE, card("a"));
+    assertThat(result.getOutcome()).isEqualTo(CardApiResult.Outcome.REJECTED);
+    assertThat(result.getErrorMessage()).isEqualTo("fail to get access token");
+
+    // 获取失败
+    when(accessTokenCache.getAccessTokenAsync(any())).thenReturn(CompletableFuture.completedFuture(null));
+    assertThat(transport.execute(CardApiEndpoint.UPDATE, card("a")).getOutcome())
+        .isEqualTo(CardApiResult.Outcome.REJECTED);
+    assertThat(transport.executeAsync(CardApiEndpoint.UPDATE, card("a")).join().getOutcome())
+        .isEqualTo(CardApiResult.Outcome.REJECTED);
+    assertThat(requests.get()).isZero();
+  }
+
+  @Test
+  void queriesAreShedInsteadOfQueuedWhileOpen() {
+    CardApiResult failure = CardApiResult.ofException(CardApiEndpoint.USER_GET, null, new IOException("reset"), 1);
+    circuitBreaker.onResult(failure);
+    circuitBreaker.onResult(failure);
+
+    // 同步查询的结果在熔断期间没有人读取，不排队重放
+    assertThat(transport.execute(CardApiEndpoint.USER_GET, new JSONObject().fluentPut("userid", "u")).getOutcome())
+        .isEqualTo(CardApiResult.Outcome.REJECTED);
+    assertThat(meterRegistry.get("card.api.circuit.rejected")
+        .tag("endpoint", "USER_GET")
+        .tag("action", "shed")
+        .counter()
+        .count()).isEqualTo(1);
+    assertThat(meterRegistry.get("card.api.circuit.rejected")
+        .tag("endpoint", "USER_GET")
+        .tag("action", "queued")
+        .counter()
+        .count()).isZero();
+  }
+}
@@ -0,0 +1,106 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.card.java.models.CardCallback;
+import com.card.java.models.CardPrivateData;
+import com.card.java.models.LocalInputParams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lombok.Data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 卡片回传请求解析的基准测试，对比原来先解析消息、再解析 content 的两步解析。
+ * 使用 gc profiler 输出每次解析分配的内存（gc.alloc.rate.norm）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardCallbackDecoderBenchmark {
+  private static final String MESSAGE_STRING;
+
+  static {
+    JSONObject params = new JSONObject();
+    params.put("local_input", "这是一段用户在卡片输入框中提交的文本");
+    JSONObject content = new JSONObject().fluentPut("cardPrivateData",
+        new JSONObject().fluentPut("actionIds", new String[] { "submit" }).fluentPut("params", params));
+
+    JSONObject message = new JSONObject();
+    message.put("extension", "{}");
+    message.put("corpId", "ding9f50b15bccd16741");
+    message.put("spaceType", "im");
+    message.put("userIdType", 1);
+    message.put("type", "actionCallback");
+    message.put("userId", "manager1234");
+    message.put("content", content.toJSONString());
+    message.put("spaceId", "cidAbCdEfGhIjKlMnOpQrStUvWx==");
+    message.put("outTrackId", "8f3c2b0e4a5d6c7b8a9f0e1d2c3b4a5f6e7d8c9b0a1f2e3d4c5b6a7f8e9d0c1b");
+    MESSAGE_STRING = message.toJSONString();
+  }
+
+  // 原来两步解析使用的消息和 content 对象
+  @Data
+  public static class TwoStepMessage {
+    private String extension;
+    private String corpId;
+    private String spaceType;
+    private Integer userIdType;
+    private String type;
+    private String userId;
+    private String content;
+    private String spaceId;
+    private String outTrackId;
+    private String value;
+  }
+
+  @Data
+  public static class TwoStepContent {
+    private CardPrivateData cardPrivateData;
+  }
+
+  private final CardCallbackDecoder decoder = new CardCallbackDecoder();
+
+  @Benchmark
+  public String twoStep() {
+    TwoStepMessage message = JSON.parseObject(MESSAGE_STRING, TwoStepMessage.class);
+    TwoStepContent content = JSON.parseObject(message.getContent(), TwoStepContent.class);
+    CardPrivateData cardPrivateData = content.getCardPrivateData();
+    return cardPrivateData.getParams().getString("local_input");
+  }
+
+  @Benchmark
+  public String decodeJSONObject() {
+    CardCallback<JSONObject> callback = decoder.decode(MESSAGE_STRING);
+    return callback.getParams().getString("local_input");
+  }
+
+  @Benchmark
+  public String decodeTyped() {
+    CardCallback<LocalInputParams> callback = decoder.decode(MESSAGE_STRING, LocalInputParams.class);
+    return callback.getParams().getLocalInput();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(CardCallbackDecoderBenchmark.class.getSimpleName())
+        .addProfiler("gc")
+        .build()).run();
+  }
+}
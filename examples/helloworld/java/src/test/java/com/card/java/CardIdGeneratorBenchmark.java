@@ -0,0 +1,87 @@
+package com.card.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 卡片实例 ID 生成的基准测试，对比原来 ChatBotHandler.genCardId 的实现。
+ * 运行：mvn test-compile exec:java -Dexec.mainClass=com.card.java.CardIdGeneratorBenchmark
+ * -Dexec.classpathScope=test，或在 IDE 中直接运行 main 方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class CardIdGeneratorBenchmark {
+  private static final String SENDER_ID = "$:LWCP_v1:$Ab1cDefGh2iJklMn3oPqr==";
+  private static final String SENDER_CORP_ID = "ding9f50b15bccd16741";
+  private static final String CONVERSATION_ID = "cidAbCdEfGhIjKlMnOpQrStUvWx==";
+  private static final String MSG_ID = "msgAbCdEfGhIjKlMnOpQrStUv==";
+
+  private final CardIdGenerator random = new CardIdGenerator(CardIdGenerator.Mode.RANDOM);
+  private final CardIdGenerator timeOrdered = new CardIdGenerator(CardIdGenerator.Mode.TIME_ORDERED);
+  private final CardIdGenerator deterministic = new CardIdGenerator(CardIdGenerator.Mode.DETERMINISTIC);
+
+  // 原 genCardId 的实现
+  private static String legacyGenCardId(String senderId, String senderCorpId, String conversationId, String msgId)
+      throws NoSuchAlgorithmException {
+    String factor = senderId + '_' + senderCorpId + '_' + conversationId + '_' + msgId + '_'
+        + UUID.randomUUID().toString();
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    byte[] hash = digest.digest(factor.getBytes(StandardCharsets.UTF_8));
+    StringBuilder hexString = new StringBuilder();
+    for (byte b : hash) {
+      String hex = Integer.toHexString(0xff & b);
+      if (hex.length() == 1)
+        hexString.append('0');
+      hexString.append(hex);
+    }
+    return hexString.toString();
+  }
+
+  @Benchmark
+  public String legacy() throws NoSuchAlgorithmException {
+    return legacyGenCardId(SENDER_ID, SENDER_CORP_ID, CONVERSATION_ID, MSG_ID);
+  }
+
+  @Benchmark
+  public String random() {
+    return random.generate(SENDER_ID, SENDER_CORP_ID, CONVERSATION_ID, MSG_ID);
+  }
+
+  @Benchmark
+  public String timeOrdered() {
+    return timeOrdered.generate(SENDER_ID, SENDER_CORP_ID, CONVERSATION_ID, MSG_ID);
+  }
+
+  @Benchmark
+  public String deterministic() {
+    return deterministic.generate(SENDER_ID, SENDER_CORP_ID, CONVERSATION_ID, MSG_ID);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(CardIdGeneratorBenchmark.class.getSimpleName())
+        .addProfiler("gc")
+        .build()).run();
+  }
+}
@@ -0,0 +1,130 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cardParamMap 编码的基准测试，对比原来 JSONObjectUtils.convertJSONValuesToString 后再序列化的做法。
+ * 卡片数据模拟表单卡片的 form 和 AI 卡片的图表数组；Setup 中先校验各种方式的输出与原实现完全相同
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardParamMapEncoderBenchmark {
+
+  public record ChartCardData(String title, Boolean finished, Integer progress, JSONObject form, JSONArray charts) {
+  }
+
+  private final CardParamMapEncoder encoder = new CardParamMapEncoder();
+
+  private JSONObject cardData;
+
+  private ChartCardData chartCardData;
+
+  // 原 JSONObjectUtils.convertJSONValuesToString 的实现
+  private static JSONObject legacyConvertJSONValuesToString(JSONObject obj) {
+    JSONObject result = new JSONObject();
+    for (String key : obj.keySet()) {
+      Object value = obj.get(key);
+      if (value instanceof String) {
+        result.put(key, value);
+      } else {
+        result.put(key, JSON.toJSONString(value));
+      }
+    }
+    return result;
+  }
+
+  @Setup
+  public void setup() {
+    JSONObject form = new JSONObject();
+    form.put("fields", new JSONArray());
+    for (int i = 0; i < 8; i++) {
+      form.getJSONArray("fields").add(new JSONObject()
+          .fluentPut("name", "field" + i)
+          .fluentPut("label", "表单项 " + i)
+          .fluentPut("type", i % 2 == 0 ? "TEXT" : "SELECT")
+          .fluentPut("required", i % 3 == 0)
+          .fluentPut("options", new JSONArray().fluentAdd("选项 A").fluentAdd("选项 B")));
+    }
+    JSONArray charts = new JSONArray();
+    for (String type : new String[] { "line", "bar", "pie" }) {
+      JSONArray data = new JSONArray();
+      for (int i = 0; i < 12; i++) {
+        data.add(new JSONObject().fluentPut("x", (i + 1) + "月").fluentPut("y", i * 37 % 100).fluentPut("type", type));
+      }
+      charts.add(new JSONObject().fluentPut("type", type).fluentPut("chart", new JSONObject().fluentPut("data", data)));
+    }
+
+    cardData = new JSONObject();
+    cardData.put("title", "本周销售数据");
+    cardData.put("finished", true);
+    cardData.put("progress", 60);
+    cardData.put("form", form);
+    cardData.put("charts", charts);
+    chartCardData = new ChartCardData("本周销售数据", true, 60, form, charts);
+
+    String expected = JSON.toJSONString(legacyConvertJSONValuesToString(cardData));
+    check(expected, JSON.toJSONString(encoder.encode(cardData)));
+    check(expected, encoder.toJSONString(cardData));
+    check(expected, JSON.toJSONString(encoder.encode(chartCardData)));
+  }
+
+  private static void check(String expected, String actual) {
+    if (!expected.equals(actual)) {
+      throw new IllegalStateException("encoded cardParamMap differs:\n" + expected + "\n" + actual);
+    }
+  }
+
+  @Benchmark
+  public String legacy() {
+    return JSON.toJSONString(legacyConvertJSONValuesToString(cardData));
+  }
+
+  @Benchmark
+  public JSONObject legacyConvertOnly() {
+    return legacyConvertJSONValuesToString(cardData);
+  }
+
+  @Benchmark
+  public JSONObject encode() {
+    return encoder.encode(cardData);
+  }
+
+  @Benchmark
+  public String toJSONString() {
+    return encoder.toJSONString(cardData);
+  }
+
+  @Benchmark
+  public String toJSONStringRecord() {
+    return encoder.toJSONString(chartCardData);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(CardParamMapEncoderBenchmark.class.getSimpleName())
+        .addProfiler("gc")
+        .build()).run();
+  }
+}
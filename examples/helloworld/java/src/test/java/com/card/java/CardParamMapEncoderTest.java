@@ -0,0 +1,111 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CardParamMapEncoderTest {
+
+  private final CardParamMapEncoder encoder = new CardParamMapEncoder();
+
+  public record ProgressCardData(String title, Boolean finished, Integer progress, JSONObject form,
+      JSONArray steps) {
+  }
+
+  // 原 JSONObjectUtils.convertJSONValuesToString 的实现
+  private static JSONObject legacyConvertJSONValuesToString(JSONObject obj) {
+    JSONObject result = new JSONObject();
+    for (String key : obj.keySet()) {
+      Object value = obj.get(key);
+      if (value instanceof String) {
+        result.put(key, value);
+      } else {
+        result.put(key, JSON.toJSONString(value));
+      }
+    }
+    return result;
+  }
+
+  private void assertSameAsLegacy(JSONObject cardData) {
+    JSONObject expected = legacyConvertJSONValuesToString(cardData);
+    assertThat(encoder.encode(cardData)).isEqualTo(expected);
+    assertThat(encoder.toJSONString(cardData)).isEqualTo(JSON.toJSONString(expected));
+  }
+
+  private static JSONObject form() {
+    return new JSONObject()
+        .fluentPut("name", "请假申请")
+        .fluentPut("required", true)
+        .fluentPut("fields", new JSONArray()
+            .fluentAdd(new JSONObject().fluentPut("label", "天数").fluentPut("value", 2))
+            .fluentAdd(new JSONObject().fluentPut("label", "备注").fluentPut("value", null)));
+  }
+
+  @Test
+  void encodesStringsAsIs() {
+    assertSameAsLegacy(new JSONObject()
+        .fluentPut("title", "钉钉互动卡片")
+        .fluentPut("empty", "")
+        .fluentPut("quoted", "他说：\"好\"\n")
+        .fluentPut("json", "{\"a\":1}"));
+  }
+
+  @Test
+  void encodesBooleansAndNumbers() {
+    assertSameAsLegacy(new JSONObject()
+        .fluentPut("submitted", false)
+        .fluentPut("finished", Boolean.TRUE)
+        .fluentPut("progress", 60)
+        .fluentPut("total", 1234567890123L)
+        .fluentPut("short", (short) -3)
+        .fluentPut("byte", (byte) 7)
+        .fluentPut("ratio", 0.25)
+        .fluentPut("amount", new BigDecimal("12.50")));
+  }
+
+  @Test
+  void encodesNullAsNullString() {
+    JSONObject cardData = new JSONObject().fluentPut("tag", null);
+    assertSameAsLegacy(cardData);
+    assertThat(encoder.encode(cardData).getString("tag")).isEqualTo("null");
+  }
+
+  @Test
+  void encodesNestedObjectsAndArrays() {
+    assertSameAsLegacy(new JSONObject()
+        .fluentPut("form", form())
+        .fluentPut("selectIndexes", new JSONArray().fluentAdd(0).fluentAdd(2))
+        .fluentPut("options", new JSONArray().fluentAdd("选项 A").fluentAdd(new JSONArray()))
+        .fluentPut("emptyObject", new JSONObject()));
+  }
+
+  @Test
+  void encodesRecordLikeEquivalentJSONObject() {
+    JSONArray steps = new JSONArray().fluentAdd(new JSONObject().fluentPut("name", "审批").fluentPut("done", true));
+    ProgressCardData record = new ProgressCardData("本周进度", true, 60, form(), steps);
+    JSONObject cardData = new JSONObject()
+        .fluentPut("title", "本周进度")
+        .fluentPut("finished", true)
+        .fluentPut("progress", 60)
+        .fluentPut("form", form())
+        .fluentPut("steps", steps);
+
+    JSONObject expected = legacyConvertJSONValuesToString(cardData);
+    assertThat(encoder.encode(record)).isEqualTo(expected);
+    // record 的字段按名称排序输出，顺序与 JSONObject 不同，比较解析后的结果
+    assertThat(JSON.parseObject(encoder.toJSONString(record))).isEqualTo(expected);
+  }
+
+  @Test
+  void skipsNullFieldsOfRecord() {
+    ProgressCardData record = new ProgressCardData("本周进度", null, 0, null, null);
+    assertThat(encoder.encode(record))
+        .isEqualTo(new JSONObject().fluentPut("title", "本周进度").fluentPut("progress", "0"));
+  }
+}
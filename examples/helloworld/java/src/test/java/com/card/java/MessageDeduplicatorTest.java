@@ -0,0 +1,112 @@
+package com.card.java;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageDeduplicatorTest {
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private MessageDeduplicator deduplicator;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    deduplicator = new MessageDeduplicator();
+    ReflectionTestUtils.setField(deduplicator, "meterRegistry", meterRegistry);
+    // 1 秒一个桶，3 个桶循环使用，去重窗口约 2 秒
+    ReflectionTestUtils.setField(deduplicator, "bucketSeconds", 1L);
+    ReflectionTestUtils.setField(deduplicator, "bucketCount", 3);
+    deduplicator.init();
+  }
+
+  private double duplicates() {
+    return meterRegistry.get("card.message.duplicate").counter().count();
+  }
+
+  @Test
+  void skipsRedeliveredMessage() {
+    assertThat(deduplicator.markIfFirst("msg-1")).isTrue();
+    assertThat(deduplicator.markIfFirst("msg-1")).isFalse();
+    assertThat(deduplicator.markIfFirst("msg-2")).isTrue();
+    assertThat(duplicates()).isEqualTo(1);
+  }
+
+  @Test
+  void unmarkedMessageCanBeProcessedAgain() throws InterruptedException {
+    assertThat(deduplicator.markIfFirst("msg-1")).isTrue();
+    Thread.sleep(1100);
+    assertThat(deduplicator.markIfFirst("msg-2")).isTrue();
+
+    // 处理失败后撤销，记录在之前的桶里也能撤销
+    deduplicator.unmark("msg-1");
+    deduplicator.unmark("msg-2");
+    assertThat(deduplicator.markIfFirst("msg-1")).isTrue();
+    assertThat(deduplicator.markIfFirst("msg-2")).isTrue();
+    assertThat(deduplicator.markIfFirst("msg-1")).isFalse();
+    assertThat(duplicates()).isEqualTo(1);
+  }
+
+  @Test
+  void doesNotDedupMessagesWithoutMsgId() {
+    assertThat(deduplicator.markIfFirst(null)).isTrue();
+    assertThat(deduplicator.markIfFirst("")).isTrue();
+    assertThat(deduplicator.markIfFirst("")).isTrue();
+    assertThat(duplicates()).isZero();
+  }
+
+  @Test
+  void concurrentRedeliveriesPassOnlyOnce() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          return deduplicator.markIfFirst("msg-1");
+        }));
+      }
+      start.countDown();
+      int first = 0;
+      for (Future<Boolean> result : results) {
+        first += result.get() ? 1 : 0;
+      }
+      assertThat(first).isEqualTo(1);
+      assertThat(duplicates()).isEqualTo(7);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void remembersMessagesInEarlierBuckets() throws InterruptedException {
+    assertThat(deduplicator.markIfFirst("msg-1")).isTrue();
+
+    // 当前桶已经切换，上一个桶仍在去重窗口内
+    Thread.sleep(1100);
+    assertThat(deduplicator.markIfFirst("msg-1")).isFalse();
+  }
+
+  @Test
+  void forgetsMessagesAfterWindow() throws InterruptedException {
+    assertThat(deduplicator.markIfFirst("msg-1")).isTrue();
+
+    // 超过 bucketCount 个桶后，记录所在的桶被整体丢弃
+    Thread.sleep(3100);
+    assertThat(deduplicator.markIfFirst("msg-1")).isTrue();
+    assertThat(deduplicator.markIfFirst("msg-1")).isFalse();
+  }
+}
@@ -0,0 +1,148 @@
+package com.card.java;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SharedTokenFileTest {
+
+  private static final AccessTokenCache.TokenKey APP = AccessTokenCache.TokenKey.of("app");
+
+  @TempDir
+  Path dir;
+
+  // 两个实例打开同一个目录，模拟同一台机器上的两个进程
+  private SharedTokenFile first;
+
+  private SharedTokenFile second;
+
+  private final AtomicInteger fetched = new AtomicInteger();
+
+  @BeforeEach
+  void setUp() {
+    first = newSharedTokenFile();
+    second = newSharedTokenFile();
+  }
+
+  @AfterEach
+  void tearDown() {
+    first.shutdown();
+    second.shutdown();
+  }
+
+  private SharedTokenFile newSharedTokenFile() {
+    SharedTokenFile sharedTokenFile = new SharedTokenFile();
+    ReflectionTestUtils.setField(sharedTokenFile, "sharedFileDir", dir.toString());
+    return sharedTokenFile;
+  }
+
+  private static AccessTokenCache.AccessToken token(String accessToken, long expireInMillis) {
+    AccessTokenCache.AccessToken token = new AccessTokenCache.AccessToken();
+    token.setAccessToken(accessToken);
+    token.setExpireTimestamp(System.currentTimeMillis() + expireInMillis);
+    return token;
+  }
+
+  private Supplier<AccessTokenCache.AccessToken> fetcher(String accessToken, long expireInMillis) {
+    return () -> {
+      fetched.incrementAndGet();
+      return token(accessToken, expireInMillis);
+    };
+  }
+
+  @Test
+  void reusesTokenRefreshedByAnotherProcess() {
+    long twoHours = TimeUnit.HOURS.toMillis(2);
+    assertThat(first.refresh(APP, null, fetcher("token-1", twoHours)).getAccessToken()).isEqualTo("token-1");
+
+    // 另一个进程启动或刷新时直接复用文件中更新的 Token，不再调用远程接口
+    AccessTokenCache.AccessToken reused = second.refresh(APP, null, fetcher("token-2", twoHours));
+    assertThat(reused.getAccessToken()).isEqualTo("token-1");
+    assertThat(fetched).hasValue(1);
+  }
+
+  @Test
+  void fetchesWhenSharedTokenIsNotNewer() {
+    long twoHours = TimeUnit.HOURS.toMillis(2);
+    AccessTokenCache.AccessToken current = first.refresh(APP, null, fetcher("token-1", twoHours));
+
+    // 文件中的 Token 就是当前进程正在使用的 Token，说明还没有其他进程刷新过
+    assertThat(second.refresh(APP, current, fetcher("token-2", twoHours)).getAccessToken()).isEqualTo("token-2");
+    assertThat(first.refresh(APP, null, fetcher("token-3", twoHours)).getAccessToken()).isEqualTo("token-2");
+    assertThat(fetched).hasValue(2);
+  }
+
+  @Test
+  void doesNotReuseNearlyExpiredToken() {
+    first.refresh(APP, null, fetcher("token-1", 1000));
+    assertThat(second.refresh(APP, null, fetcher("token-2", 1000)).getAccessToken()).isEqualTo("token-2");
+    assertThat(fetched).hasValue(2);
+  }
+
+  @Test
+  void failedFetchDoesNotOverwriteSharedToken() {
+    long twoHours = TimeUnit.HOURS.toMillis(2);
+    first.refresh(APP, null, fetcher("token-1", twoHours));
+    AccessTokenCache.AccessToken current = second.refresh(APP, null, fetcher("token-2", twoHours));
+
+    assertThat(first.refresh(APP, current, () -> null)).isNull();
+    assertThat(second.refresh(APP, null, fetcher("token-3", twoHours)).getAccessToken()).isEqualTo("token-1");
+  }
+
+  @Test
+  void keysThatLookAlikeDoNotShareAFile() {
+    long twoHours = TimeUnit.HOURS.toMillis(2);
+    first.refresh(AccessTokenCache.TokenKey.of("a", "b-c"), null, fetcher("token-1", twoHours));
+
+    // 只替换非法字符再拼接时，这两个 key 对应同一个文件
+    AccessTokenCache.TokenKey other = AccessTokenCache.TokenKey.of("a-b", "c");
+    assertThat(second.refresh(other, null, fetcher("token-2", twoHours)).getAccessToken()).isEqualTo("token-2");
+    assertThat(fetched).hasValue(2);
+  }
+
+  @Test
+  void fallsBackToFetchWhenLockIsHeldInSameProcess() throws Exception {
+    long twoHours = TimeUnit.HOURS.toMillis(2);
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<AccessTokenCache.AccessToken> holding = CompletableFuture.supplyAsync(() ->
+        first.refresh(APP, null, () -> {
+          locked.countDown();
+          try {
+            release.await(2, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return token("token-1", twoHours);
+        }));
+    assertThat(locked.await(2, TimeUnit.SECONDS)).isTrue();
+
+    // 文件锁属于整个 JVM，同一进程中的另一个实例加锁时抛出 OverlappingFileLockException
+    assertThat(second.refresh(APP, null, fetcher("token-2", twoHours)).getAccessToken()).isEqualTo("token-2");
+    release.countDown();
+    assertThat(holding.get(2, TimeUnit.SECONDS).getAccessToken()).isEqualTo("token-1");
+  }
+
+  @Test
+  void eachCorpHasItsOwnFile() {
+    long twoHours = TimeUnit.HOURS.toMillis(2);
+    AccessTokenCache.TokenKey corpA = AccessTokenCache.TokenKey.of("suite", "corp-a");
+    AccessTokenCache.TokenKey corpB = AccessTokenCache.TokenKey.of("suite", "corp-b");
+    first.refresh(corpA, null, fetcher("token-a", twoHours));
+
+    assertThat(second.refresh(corpB, null, fetcher("token-b", twoHours)).getAccessToken()).isEqualTo("token-b");
+    assertThat(second.refresh(corpA, null, fetcher("token-c", twoHours)).getAccessToken()).isEqualTo("token-a");
+    assertThat(fetched).hasValue(2);
+  }
+}
@@ -1,11 +1,10 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import lombok.extern.slf4j.Slf4j;
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
-import com.card.java.models.CardCallbackMessage;
-import com.card.java.models.CardPrivateData;
-import com.card.java.models.CardPrivateDataWrapper;
+import com.card.java.models.CardCallback;
+import com.card.java.models.EventChainParams;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import com.dingtalk.open.app.api.callback.OpenDingTalkCallbackListener;
@@ -16,64 +15,67 @@ import java.util.Random;
 
 @Slf4j
 @Component
-public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, JSONObject> {
+public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, CardCallbackResponse> {
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardTrafficLogger cardTrafficLogger;
+
+  @Autowired
+  private CardCallbackResponseWriter cardCallbackResponseWriter;
+
+  @Autowired
+  private CardActionRouter cardActionRouter;
 
   @Override
-  public JSONObject execute(String messageString) {
+  public CardCallbackResponse execute(String messageString) {
     /**
      * 卡片事件回调文档：https://open.dingtalk.com/document/orgapp/event-callback-card
      */
-    log.info("card callback message: " + messageString);
-    JSONObject updateCardData = new JSONObject();
-    JSONObject userPrivateData = new JSONObject();
+    cardTrafficLogger.info(Category.CALLBACK, "card callback message", () -> messageString);
+    CardCallbackResponse response = cardActionRouter.dispatch(messageString);
+    if (response == null) {
+      response = buildResponse(new JSONObject(), new JSONObject());
+    }
 
-    CardCallbackMessage message = JSON.parseObject(messageString, CardCallbackMessage.class);
-    CardPrivateDataWrapper content = JSON.parseObject(message.getContent(), CardPrivateDataWrapper.class);
-    CardPrivateData cardPrivateData = content.getCardPrivateData();
-    JSONObject params = cardPrivateData.getParams();
-    String variable = params.getString("var");
+    cardTrafficLogger.info(Category.CALLBACK, "card callback response", response::toString);
+    return response;
+  }
 
-    if (variable.equals("pub_url")) {
-      updateCardData.put("pub_url", "");
-      updateCardData.put("pub_url_msg", "");
-      Random rand = new Random();
-      int status = rand.nextInt(2);
-      if (status == 0) {
-        updateCardData.put("pub_url_status", "failed");
-        updateCardData.put("pub_url_msg", String.format("更新失败%s", (int)rand.nextInt(101)));
-      } else {
-        updateCardData.put("pub_url_status", "success");
-        updateCardData.put("pub_url", "dingtalk://dingtalkclient/page/link?web_wnd=workbench&pc_slide=true&hide_bar=true&url=https://www.dingtalk.com");
-      }
-    } else if (variable.equals("pri_url")) {
-      userPrivateData.put("pri_url", "");
-      userPrivateData.put("pri_url_msg", "");
-      Random rand = new Random();
-      int status = rand.nextInt(2);
-      if (status == 0) {
-        userPrivateData.put("pri_url_status", "failed");
-        userPrivateData.put("pri_url_msg", String.format("更新失败%s", (int)rand.nextInt(101)));
-      } else {
-        userPrivateData.put("pri_url_status", "success");
-        userPrivateData.put("pri_url", "dingtalk://dingtalkclient/page/link?web_wnd=workbench&pc_slide=true&hide_bar=true&url=https://github.com/open-dingtalk/dingtalk-card-examples");
-      }
+  @CardAction(param = "var", value = "pub_url")
+  public CardCallbackResponse updatePublicUrl(CardCallback<EventChainParams> callback) {
+    JSONObject updateCardData = new JSONObject();
+    updateCardData.put("pub_url", "");
+    updateCardData.put("pub_url_msg", "");
+    Random rand = new Random();
+    int status = rand.nextInt(2);
+    if (status == 0) {
+      updateCardData.put("pub_url_status", "failed");
+      updateCardData.put("pub_url_msg", String.format("更新失败%s", (int)rand.nextInt(101)));
+    } else {
+      updateCardData.put("pub_url_status", "success");
+      updateCardData.put("pub_url", "dingtalk://dingtalkclient/page/link?web_wnd=workbench&pc_slide=true&hide_bar=true&url=https://www.dingtalk.com");
     }
+    return buildResponse(updateCardData, new JSONObject());
+  }
 
-    JSONObject cardUpdateOptions = new JSONObject();
-    cardUpdateOptions.put("updateCardDataByKey", true);
-    cardUpdateOptions.put("updatePrivateDataByKey", true);
-
-    JSONObject response = new JSONObject();
-    response.put("cardUpdateOptions", cardUpdateOptions);
-    response.put("cardData",
-        new JSONObject().fluentPut("cardParamMap", jsonObjectUtils.convertJSONValuesToString(updateCardData)));
-    response.put("userPrivateData",
-        new JSONObject().fluentPut("cardParamMap", jsonObjectUtils.convertJSONValuesToString(userPrivateData)));
+  @CardAction(param = "var", value = "pri_url")
+  public CardCallbackResponse updatePrivateUrl(CardCallback<EventChainParams> callback) {
+    JSONObject userPrivateData = new JSONObject();
+    userPrivateData.put("pri_url", "");
+    userPrivateData.put("pri_url_msg", "");
+    Random rand = new Random();
+    int status = rand.nextInt(2);
+    if (status == 0) {
+      userPrivateData.put("pri_url_status", "failed");
+      userPrivateData.put("pri_url_msg", String.format("更新失败%s", (int)rand.nextInt(101)));
+    } else {
+      userPrivateData.put("pri_url_status", "success");
+      userPrivateData.put("pri_url", "dingtalk://dingtalkclient/page/link?web_wnd=workbench&pc_slide=true&hide_bar=true&url=https://github.com/open-dingtalk/dingtalk-card-examples");
+    }
+    return buildResponse(new JSONObject(), userPrivateData);
+  }
 
-    log.info("card callback response: " + JSON.toJSONString(response));
-    return response;
+  private CardCallbackResponse buildResponse(JSONObject updateCardData, JSONObject userPrivateData) {
+    return cardCallbackResponseWriter.write(updateCardData, userPrivateData);
   }
 }
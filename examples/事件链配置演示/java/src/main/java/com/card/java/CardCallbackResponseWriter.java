@@ -0,0 +1,84 @@
+package com.card.java;
+
+import com.alibaba.fastjson.serializer.SerializeConfig;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONWriter;
+import com.alibaba.fastjson2.writer.ObjectWriter;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 卡片回传请求响应的编码。原来的做法是先把 cardParamMap 复制出一份字符串值的
+ * JSONObject，再组装嵌套的 JSONObject，最后由 Stream SDK 序列化，打日志时还要再序列化一次；
+ * 这里把 cardUpdateOptions、cardData.cardParamMap、userPrivateData.cardParamMap 直接写入同一个缓冲区，
+ * 非字符串的值在写入时转成 JSON 字符串，整个响应只编码一次
+ */
+@Component
+public class CardCallbackResponseWriter {
+
+  @Autowired
+  private CardParamMapEncoder cardParamMapEncoder;
+
+  private static final ObjectWriter<CardCallbackResponse> RAW_WRITER =
+      (jsonWriter, object, fieldName, fieldType, features) ->
+          jsonWriter.writeRaw(((CardCallbackResponse) object).toJSONString());
+
+  static {
+    // fastjson 1.x 兼容层和 fastjson2 各有一个 ObjectWriterProvider，都注册上，SDK 序列化响应时原样输出编码好的文本
+    JSON.register(CardCallbackResponse.class, RAW_WRITER);
+    SerializeConfig.getGlobalInstance().getProvider().register(CardCallbackResponse.class, RAW_WRITER);
+  }
+
+  /**
+   * 生成只更新触发回传请求的人的私有数据的响应
+   */
+  public CardCallbackResponse write(Object userPrivateData) {
+    return write(null, userPrivateData);
+  }
+
+  /**
+   * 生成响应，cardData 为更新的公有数据，userPrivateData 为更新的触发回传请求的人的私有数据，为 null 时不输出该字段。
+   * 可以是 Map，也可以是 POJO 或 record，编码规则见 CardParamMapEncoder
+   */
+  public CardCallbackResponse write(Object cardData, Object userPrivateData) {
+    // 先编码好 cardParamMap 的值再打开 writer，见 CardParamMapEncoder.encodeEntries
+    CardParamMapEncoder.Encoded cardParams = cardData == null ? null : cardParamMapEncoder.encodeEntries(cardData);
+    CardParamMapEncoder.Encoded privateParams =
+        userPrivateData == null ? null : cardParamMapEncoder.encodeEntries(userPrivateData);
+    try (JSONWriter writer = JSONWriter.of()) {
+      writer.startObject();
+
+      writer.writeName("cardUpdateOptions");
+      writer.writeColon();
+      writer.startObject();
+      writer.writeName("updateCardDataByKey");
+      writer.writeColon();
+      writer.writeBool(true);
+      writer.writeName("updatePrivateDataByKey");
+      writer.writeColon();
+      writer.writeBool(true);
+      writer.endObject();
+
+      if (cardParams != null) {
+        writeCardParamMap(writer, "cardData", cardParams);
+      }
+      if (privateParams != null) {
+        writeCardParamMap(writer, "userPrivateData", privateParams);
+      }
+
+      writer.endObject();
+      return new CardCallbackResponse(writer.toString());
+    }
+  }
+
+  private static void writeCardParamMap(JSONWriter writer, String name, CardParamMapEncoder.Encoded params) {
+    writer.writeName(name);
+    writer.writeColon();
+    writer.startObject();
+    writer.writeName("cardParamMap");
+    writer.writeColon();
+    params.writeTo(writer);
+    writer.endObject();
+  }
+}
@@ -0,0 +1,130 @@
+package com.card.java;
+
+import com.dingtalk.open.app.api.models.bot.ChatbotMessage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 卡片实例 ID（outTrackId）生成器。每个线程复用自己的 MessageDigest，随机数使用 ThreadLocalRandom，
+ * 十六进制编码查表完成，不再为每张卡片创建 UUID、MessageDigest 和拼接字符串。
+ * card.id.mode 可选：RANDOM（默认，消息信息加随机数的 SHA-256，64 位十六进制），
+ * TIME_ORDERED（毫秒时间戳加随机数，32 位十六进制，按创建时间有序，适合作为存储的主键），
+ * DETERMINISTIC（只由消息信息计算 SHA-256，同一条消息重复投递时得到相同的卡片实例 ID，创建卡片是幂等的）
+ */
+@Component
+public class CardIdGenerator {
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  });
+
+  public enum Mode {
+    RANDOM,
+    TIME_ORDERED,
+    DETERMINISTIC
+  }
+
+  @Value("${card.id.mode:RANDOM}")
+  private Mode mode = Mode.RANDOM;
+
+  public CardIdGenerator() {
+  }
+
+  CardIdGenerator(Mode mode) {
+    this.mode = mode;
+  }
+
+  public String generate(ChatbotMessage message) {
+    return generate(message.getSenderId(), message.getSenderCorpId(), message.getConversationId(),
+        message.getMsgId());
+  }
+
+  /**
+   * 不对应某条机器人消息的卡片（如批量投放）使用，没有可用于去重的消息信息，DETERMINISTIC 模式下按 RANDOM 生成
+   */
+  public String generate() {
+    return mode == Mode.TIME_ORDERED ? timeOrdered() : random(null, null, null, null);
+  }
+
+  public String generate(String senderId, String senderCorpId, String conversationId, String msgId) {
+    switch (mode) {
+      case TIME_ORDERED:
+        return timeOrdered();
+      case DETERMINISTIC:
+        return toHex(digest(senderId, senderCorpId, conversationId, msgId).digest());
+      default:
+        return random(senderId, senderCorpId, conversationId, msgId);
+    }
+  }
+
+  private static MessageDigest digest(String senderId, String senderCorpId, String conversationId, String msgId) {
+    MessageDigest digest = SHA256.get();
+    update(digest, senderId);
+    update(digest, senderCorpId);
+    update(digest, conversationId);
+    update(digest, msgId);
+    return digest;
+  }
+
+  private static String random(String senderId, String senderCorpId, String conversationId, String msgId) {
+    MessageDigest digest = digest(senderId, senderCorpId, conversationId, msgId);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    byte[] salt = new byte[16];
+    putLong(salt, 0, random.nextLong());
+    putLong(salt, 8, random.nextLong());
+    digest.update(salt);
+    // digest() 会重置 MessageDigest，可以直接复用
+    return toHex(digest.digest());
+  }
+
+  private static String timeOrdered() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    char[] chars = new char[32];
+    // 高 48 位为毫秒时间戳，保证按时间有序；其余 80 位为随机数
+    appendHex(chars, 0, System.currentTimeMillis(), 12);
+    appendHex(chars, 12, random.nextLong(), 16);
+    appendHex(chars, 28, random.nextInt(), 4);
+    return new String(chars);
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    if (value != null) {
+      digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+    digest.update((byte) '_');
+  }
+
+  private static void putLong(byte[] bytes, int offset, long value) {
+    for (int i = 7; i >= 0; i--) {
+      bytes[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  private static void appendHex(char[] chars, int offset, long value, int digits) {
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      chars[i] = HEX[(int) (value & 0xf)];
+      value >>>= 4;
+    }
+  }
+
+  static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+}
@@ -1,5 +1,6 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import com.alibaba.fastjson.JSONObject;
 import com.dingtalk.open.app.api.callback.OpenDingTalkCallbackListener;
 import com.dingtalk.open.app.api.models.bot.ChatbotMessage;
@@ -10,54 +11,40 @@ import org.springframework.stereotype.Component;
 
 import lombok.extern.slf4j.Slf4j;
 
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Component
 public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessage, Void> {
 
   @Autowired
-  private AccessTokenService accessTokenService;
+  private CardTrafficLogger cardTrafficLogger;
+
+  @Autowired
+  private CardParamMapEncoder cardParamMapEncoder;
+
+  @Autowired
+  private CardApiTransport cardApiTransport;
+
+  @Autowired
+  private AccessTokenCache accessTokenCache;
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardIdGenerator cardIdGenerator;
 
-  @Value("${openApiHost}")
-  private String openApiHost;
+  @Autowired
+  private MessageDeduplicator messageDeduplicator;
 
   @Value("${dingtalk.app.client-id}")
   private String clientId;
 
-  public static String genCardId(ChatbotMessage message) throws NoSuchAlgorithmException {
-    String factor = message.getSenderId() + '_' + message.getSenderCorpId() + '_' + message.getConversationId() + '_'
-        + message.getMsgId() + '_' + UUID.randomUUID().toString();
-    MessageDigest digest = MessageDigest.getInstance("SHA-256");
-    byte[] hash = digest.digest(factor.getBytes(StandardCharsets.UTF_8));
-    StringBuilder hexString = new StringBuilder();
-    for (byte b : hash) {
-      String hex = Integer.toHexString(0xff & b);
-      if (hex.length() == 1)
-        hexString.append('0');
-      hexString.append(hex);
-    }
-    return hexString.toString();
+  // ISV 套件按消息所属的授权企业取 Token，企业内部应用使用本应用的 Token
+  private AccessTokenCache.TokenKey tenantOf(ChatbotMessage message) {
+    return accessTokenCache.keyOf(clientId, message.getChatbotCorpId());
   }
 
-  public String createAndDeliverCard(ChatbotMessage message, String cardTemplateId, JSONObject cardData,
-      JSONObject options)
-      throws IOException, InterruptedException, NoSuchAlgorithmException {
-    String cardInstanceId = genCardId(message);
-
+  private JSONObject buildCreateAndDeliverData(ChatbotMessage message, String cardInstanceId,
+      String cardTemplateId, JSONObject cardData, JSONObject options) {
     boolean supportForward = (boolean) options.getOrDefault("supportForward", true);
     boolean atAll = (boolean) options.getOrDefault("alAll", false);
     boolean atSender = (boolean) options.getOrDefault("atSender", false);
@@ -113,60 +100,64 @@ public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessa
     for (String key : restOptions.keySet()) {
       data.put(key, restOptions.get(key));
     }
+    return data;
+  }
 
-    String url = openApiHost + "/v1.0/card/instances/createAndDeliver";
-
-    OkHttpClient client = new OkHttpClient();
-    MediaType JSON = MediaType.get("application/json; charset=utf-8");
-    RequestBody body = RequestBody.create(data.toJSONString(), JSON);
-
-    Request request = new Request.Builder()
-        .url(url)
-        .addHeader("Content-Type", "application/json")
-        .addHeader("Accept", "*/*")
-        .addHeader("x-acs-dingtalk-access-token", accessTokenService.getAccessToken())
-        .post(body)
-        .build();
-
-    try {
-      Response response = client.newCall(request).execute();
-      log.info("reply card: " + data.toJSONString());
-      if (response.code() != 200) {
-        log.error("reply card failed: " + response.code() + " " + response.body().string());
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
+  public String createAndDeliverCard(ChatbotMessage message, String cardTemplateId, JSONObject cardData,
+      JSONObject options) {
+    String cardInstanceId = cardIdGenerator.generate(message);
+    JSONObject data = buildCreateAndDeliverData(message, cardInstanceId, cardTemplateId, cardData, options);
+
+    CardApiResult result = cardApiTransport.execute(tenantOf(message), CardApiEndpoint.CREATE_AND_DELIVER, data,
+        true);
+    cardTrafficLogger.info(Category.OPEN_API, "reply card", data::toJSONString);
+    if (!result.isSuccess()) {
+      log.error("reply card failed: " + result);
     }
     return cardInstanceId;
   }
 
+  /**
+   * 异步创建并投放卡片，不阻塞 Stream 回调线程，结果中的 outTrackId 即卡片实例 ID
+   */
+  public CompletableFuture<CardApiResult> createAndDeliverCardAsync(ChatbotMessage message, String cardTemplateId,
+      JSONObject cardData, JSONObject options) {
+    String cardInstanceId = cardIdGenerator.generate(message);
+    JSONObject data = buildCreateAndDeliverData(message, cardInstanceId, cardTemplateId, cardData, options);
+    return cardApiTransport.executeAsync(tenantOf(message), CardApiEndpoint.CREATE_AND_DELIVER, data, true);
+  }
+
   @Override
   public Void execute(ChatbotMessage message) {
-
-    String receivedMessage = message.getText().getContent().trim();
-    log.info("received message: " + receivedMessage);
-
+    String msgId = message.getMsgId();
+    // Stream 重复投递的同一条消息直接跳过，不再创建卡片
+    if (!messageDeduplicator.markIfFirst(msgId)) {
+      return null;
+    }
     try {
-      // 卡片模板 ID
-      String cardTemplateId = "fcc1df51-17bb-403f-aca9-65f1c6919129.schema"; // 该模板只用于测试使用，如需投入线上使用，请导入卡片模板 json 到自己的应用下
-      // 卡片公有数据，非字符串类型的卡片数据参考文档：https://open.dingtalk.com/document/orgapp/instructions-for-filling-in-api-card-data
-      JSONObject cardData = new JSONObject();
-      cardData.put("last_message", "事件链演示");
-      cardData.put("markdown", "<font colorTokenV2=common_green1_color>动态显示的 markdown 内容</font>");
-
-      // 创建并投放卡片: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
-      JSONObject options = new JSONObject();
-      String cardInstanceId = createAndDeliverCard(message, cardTemplateId,
-          jsonObjectUtils.convertJSONValuesToString(cardData), options);
-    } catch (NoSuchAlgorithmException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
-    } catch (InterruptedException e) {
-      e.printStackTrace();
-      Thread.currentThread().interrupt();
+      reply(message);
+    } catch (RuntimeException e) {
+      // 处理失败时撤销标记，Stream 重新投递这条消息时可以再处理一次
+      messageDeduplicator.unmark(msgId);
+      throw e;
     }
-
     return null;
   }
+
+  private void reply(ChatbotMessage message) {
+    String receivedMessage = message.getText().getContent().trim();
+    cardTrafficLogger.info(Category.MESSAGE, "received message", () -> receivedMessage);
+
+    // 卡片模板 ID
+    String cardTemplateId = "fcc1df51-17bb-403f-aca9-65f1c6919129.schema"; // 该模板只用于测试使用，如需投入线上使用，请导入卡片模板 json 到自己的应用下
+    // 卡片公有数据，非字符串类型的卡片数据参考文档：https://open.dingtalk.com/document/orgapp/instructions-for-filling-in-api-card-data
+    JSONObject cardData = new JSONObject();
+    cardData.put("last_message", "事件链演示");
+    cardData.put("markdown", "<font colorTokenV2=common_green1_color>动态显示的 markdown 内容</font>");
+
+    // 创建并投放卡片: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
+    JSONObject options = new JSONObject();
+    String cardInstanceId = createAndDeliverCard(message, cardTemplateId,
+        cardParamMapEncoder.encode(cardData), options);
+  }
 }
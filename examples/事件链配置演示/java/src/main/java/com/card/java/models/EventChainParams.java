@@ -0,0 +1,13 @@
+package com.card.java.models;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import lombok.Data;
+
+/**
+ * 事件链卡片的回传参数，var 为触发回传的变量名
+ */
+@Data
+public class EventChainParams {
+  @JSONField(name = "var")
+  private String variable;
+}
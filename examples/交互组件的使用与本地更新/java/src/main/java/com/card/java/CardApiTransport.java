@@ -0,0 +1,486 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONObject;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 卡片 OpenAPI 共享的 HTTP 传输层，所有 handler 复用同一个连接池和调度线程池
+ */
+@Slf4j
+@Component
+public class CardApiTransport implements MeterBinder {
+  private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+  @Autowired
+  private AccessTokenService accessTokenService;
+
+  @Autowired
+  private AccessTokenCache accessTokenCache;
+
+  @Autowired
+  private CardApiRetryPolicy retryPolicy;
+
+  @Autowired
+  private CardApiRateLimiter rateLimiter;
+
+  @Autowired
+  private CardApiCircuitBreaker circuitBreaker;
+
+  @Value("${openApiHost}")
+  private String openApiHost;
+
+  @Value("${card.api.transport.max-idle-connections:32}")
+  private int maxIdleConnections;
+
+  @Value("${card.api.transport.keep-alive-seconds:300}")
+  private long keepAliveSeconds;
+
+  @Value("${card.api.transport.max-requests:128}")
+  private int maxRequests;
+
+  @Value("${card.api.transport.max-requests-per-host:64}")
+  private int maxRequestsPerHost;
+
+  @Value("${card.api.transport.connect-timeout-millis:3000}")
+  private long connectTimeoutMillis;
+
+  @Value("${card.api.transport.read-timeout-millis:10000}")
+  private long readTimeoutMillis;
+
+  @Value("${card.api.transport.ping-interval-seconds:30}")
+  private long pingIntervalSeconds;
+
+  @Getter
+  private OkHttpClient client;
+
+  @PostConstruct
+  public void init() {
+    ConnectionPool connectionPool = new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS);
+
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(maxRequests);
+    dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+    // 优先协商 HTTP/2，同一个连接上多路复用；ping 用于保活长连接并及时发现失效连接
+    client = new OkHttpClient.Builder()
+        .connectionPool(connectionPool)
+        .dispatcher(dispatcher)
+        .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+        .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+        .readTimeout(Duration.ofMillis(readTimeoutMillis))
+        .writeTimeout(Duration.ofMillis(readTimeoutMillis))
+        .pingInterval(Duration.ofSeconds(pingIntervalSeconds))
+        .build();
+    log.info("card api transport started, maxIdleConnections={}, keepAliveSeconds={}, maxRequests={}, " +
+        "maxRequestsPerHost={}", maxIdleConnections, keepAliveSeconds, maxRequests, maxRequestsPerHost);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    client.dispatcher().executorService().shutdown();
+    client.connectionPool().evictAll();
+  }
+
+  private Request newRequest(CardApiEndpoint endpoint, JSONObject data, String accessToken) {
+    RequestBody body = RequestBody.create(data.toJSONString(), JSON);
+    Request.Builder builder = new Request.Builder()
+        .addHeader("Content-Type", "application/json")
+        .addHeader("Accept", "*/*")
+        .method(endpoint.getMethod(), body);
+    if (endpoint.isLegacyApi()) {
+      builder.url(endpoint.getHost() + endpoint.getPath() + "?access_token=" + accessToken);
+    } else {
+      builder.url(openApiHost + endpoint.getPath())
+          .addHeader("x-acs-dingtalk-access-token", accessToken);
+    }
+    return builder.build();
+  }
+
+  /**
+   * 同步调用卡片接口，可重试的失败按 {@link CardApiRetryPolicy} 退避重试。
+   * 响应体读取后立即关闭，保证连接总是归还给连接池。查询接口是非关键调用，其余接口是关键调用
+   */
+  public CardApiResult execute(CardApiEndpoint endpoint, JSONObject data) {
+    return execute(endpoint, data, !endpoint.isQuery());
+  }
+
+  /**
+   * 同 {@link #execute(CardApiEndpoint, JSONObject)}。熔断打开时不阻塞调用线程：
+   * critical=false 的调用直接丢弃，critical=true 的调用排队等熔断恢复后异步重放，两者都立即返回 REJECTED 结果
+   */
+  public CardApiResult execute(CardApiEndpoint endpoint, JSONObject data, boolean critical) {
+    return execute(accessTokenService.getDefaultKey(), endpoint, data, critical);
+  }
+
+  /**
+   * 使用指定应用（ISV 为授权企业）的 accessToken 调用卡片接口
+   */
+  public CardApiResult execute(AccessTokenCache.TokenKey tenant, CardApiEndpoint endpoint, JSONObject data,
+      boolean critical) {
+    if (!circuitBreaker.tryAcquire(endpoint)) {
+      CompletableFuture<CardApiResult> replayed = deferOrShed(tenant, endpoint, data, critical);
+      return replayed.isDone()
+          ? replayed.join()
+          : CardApiResult.ofRejected(endpoint, data.getString("outTrackId"), "circuit open, queued for replay");
+    }
+
+    long deadlineNanos = retryPolicy.newDeadlineNanos();
+    retryPolicy.onRequest();
+    for (int attempt = 1; ; attempt++) {
+      CardApiResult result = executeOnce(tenant, endpoint, data, deadlineNanos);
+      long delayMillis = retryPolicy.nextDelayMillis(result, attempt, deadlineNanos);
+      if (delayMillis < 0) {
+        return complete(result);
+      }
+      logRetry(result, attempt, delayMillis);
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return complete(result);
+      }
+    }
+  }
+
+  /**
+   * 非阻塞地调用卡片接口，请求由 OkHttp 的调度线程池发出，调用线程不会等待响应，重试也不会占用线程等待。
+   * 返回的 future 在 OkHttp 的回调线程上完成，耗时的后续处理请使用 thenXxxAsync
+   */
+  public CompletableFuture<CardApiResult> executeAsync(CardApiEndpoint endpoint, JSONObject data) {
+    return executeAsync(endpoint, data, !endpoint.isQuery());
+  }
+
+  /**
+   * 同 {@link #executeAsync(CardApiEndpoint, JSONObject)}。熔断打开时 critical=false 的调用立即以 REJECTED 完成，
+   * critical=true 的调用排队，返回的 future 在熔断恢复、重放完成后完成
+   */
+  public CompletableFuture<CardApiResult> executeAsync(CardApiEndpoint endpoint, JSONObject data, boolean critical) {
+    return executeAsync(accessTokenService.getDefaultKey(), endpoint, data, critical);
+  }
+
+  /**
+   * 使用指定应用（ISV 为授权企业）的 accessToken 异步调用卡片接口
+   */
+  public CompletableFuture<CardApiResult> executeAsync(AccessTokenCache.TokenKey tenant, CardApiEndpoint endpoint,
+      JSONObject data, boolean critical) {
+    if (!circuitBreaker.tryAcquire(endpoint)) {
+      return deferOrShed(tenant, endpoint, data, critical);
+    }
+    long deadlineNanos = retryPolicy.newDeadlineNanos();
+    retryPolicy.onRequest();
+    return executeAsync(tenant, endpoint, data, 1, deadlineNanos);
+  }
+
+  private CompletableFuture<CardApiResult> deferOrShed(AccessTokenCache.TokenKey tenant, CardApiEndpoint endpoint,
+      JSONObject data, boolean critical) {
+    String outTrackId = data.getString("outTrackId");
+    if (!critical) {
+      circuitBreaker.shed(endpoint);
+      return CompletableFuture.completedFuture(CardApiResult.ofRejected(endpoint, outTrackId, "circuit open, shed"));
+    }
+    CompletableFuture<CardApiResult> future = new CompletableFuture<>();
+    Runnable replay = new Runnable() {
+      @Override
+      public void run() {
+        if (!circuitBreaker.tryAcquire(endpoint)) {
+          circuitBreaker.requeue(endpoint, this);
+          return;
+        }
+        long deadlineNanos = retryPolicy.newDeadlineNanos();
+        retryPolicy.onRequest();
+        executeAsync(tenant, endpoint, data, 1, deadlineNanos).whenComplete((result, e) -> {
+          if (e != null) {
+            future.completeExceptionally(e);
+          } else {
+            future.complete(result);
+          }
+        });
+      }
+    };
+    boolean queued = circuitBreaker.defer(endpoint, replay);
+    if (!queued) {
+      log.error("card api replay queue of {} is full, drop {}", endpoint, outTrackId);
+      future.complete(CardApiResult.ofRejected(endpoint, outTrackId, "circuit open, replay queue full"));
+    }
+    return future;
+  }
+
+  private CardApiResult complete(CardApiResult result) {
+    circuitBreaker.onResult(result);
+    logResult(result);
+    return result;
+  }
+
+  private CompletableFuture<CardApiResult> executeAsync(AccessTokenCache.TokenKey tenant, CardApiEndpoint endpoint,
+      JSONObject data, int attempt, long deadlineNanos) {
+    return executeOnceAsync(tenant, endpoint, data, deadlineNanos).thenCompose(result -> {
+      long delayMillis = retryPolicy.nextDelayMillis(result, attempt, deadlineNanos);
+      if (delayMillis < 0) {
+        return CompletableFuture.completedFuture(complete(result));
+      }
+      logRetry(result, attempt, delayMillis);
+      Executor delayed = CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS);
+      return CompletableFuture.runAsync(() -> {
+      }, delayed).thenCompose(v -> executeAsync(tenant, endpoint, data, attempt + 1, deadlineNanos));
+    });
+  }
+
+  private Call newCall(CardApiEndpoint endpoint, JSONObject data, String accessToken, long remainingNanos) {
+    Call call = client.newCall(newRequest(endpoint, data, accessToken));
+    // 单次调用不能超过整个调用的截止时间
+    call.timeout().timeout(remainingNanos, TimeUnit.NANOSECONDS);
+    return call;
+  }
+
+  // 本地限流或刷新 Token 已经用完了截止时间，请求不再发出；REJECTED 不会重试，也不计入熔断器的失败率
+  private static CardApiResult ofDeadlineExceeded(CardApiEndpoint endpoint, String outTrackId) {
+    return CardApiResult.ofRejected(endpoint, outTrackId, "deadline exceeded before sending");
+  }
+
+  // 调用线程被中断，没有得到接口的响应，不能作为熔断器的探测结果
+  private static CardApiResult ofInterrupted(CardApiEndpoint endpoint, String outTrackId) {
+    return CardApiResult.ofRejected(endpoint, outTrackId, "interrupted");
+  }
+
+  // 截止时间前没有拿到 Token（首次获取还没完成或获取失败），请求不再发出
+  private static CardApiResult ofNoAccessToken(CardApiEndpoint endpoint, String outTrackId) {
+    return CardApiResult.ofRejected(endpoint, outTrackId, "fail to get access token");
+  }
+
+  // 同步调用等待 Token 时不超过整个调用的截止时间，没有等到时返回 null
+  private static <T> T await(CompletableFuture<T> future, long deadlineNanos) {
+    try {
+      return future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException | TimeoutException e) {
+      return null;
+    }
+  }
+
+  private CardApiResult executeOnce(AccessTokenCache.TokenKey tenant, CardApiEndpoint endpoint, JSONObject data,
+      long deadlineNanos) {
+    String outTrackId = data.getString("outTrackId");
+    long waitNanos = rateLimiter.reserve(endpoint, tenant.getAppKey(), outTrackId, deadlineNanos);
+    if (waitNanos < 0) {
+      return ofDeadlineExceeded(endpoint, outTrackId);
+    }
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return ofInterrupted(endpoint, outTrackId);
+      }
+    }
+
+    // 已有 Token 时立即返回；首次获取时等待共享的那次刷新
+    String accessToken = await(accessTokenCache.getAccessTokenAsync(tenant), deadlineNanos);
+    if (accessToken == null) {
+      return Thread.currentThread().isInterrupted()
+          ? ofInterrupted(endpoint, outTrackId)
+          : ofNoAccessToken(endpoint, outTrackId);
+    }
+    CardApiResult result = send(endpoint, data, outTrackId, accessToken, deadlineNanos);
+    if (result.isTokenInvalid()) {
+      // Token 被吊销或提前过期：并发的调用方共享一次刷新，然后用新 Token 重放一次
+      AccessTokenCache.AccessToken refreshed = await(accessTokenCache.invalidate(tenant, accessToken), deadlineNanos);
+      if (refreshed != null) {
+        logReplay(result);
+        result = send(endpoint, data, outTrackId, refreshed.getAccessToken(), deadlineNanos);
+      }
+    }
+    return result;
+  }
+
+  private CardApiResult send(CardApiEndpoint endpoint, JSONObject data, String outTrackId, String accessToken,
+      long deadlineNanos) {
+    long startNanos = System.nanoTime();
+    long remainingNanos = deadlineNanos - startNanos;
+    if (remainingNanos <= 0) {
+      return ofDeadlineExceeded(endpoint, outTrackId);
+    }
+    try (Response response = newCall(endpoint, data, accessToken, remainingNanos).execute()) {
+      return toResult(endpoint, outTrackId, response, startNanos);
+    } catch (IOException e) {
+      if (Thread.currentThread().isInterrupted()) {
+        return ofInterrupted(endpoint, outTrackId);
+      }
+      return CardApiResult.ofException(endpoint, outTrackId, e, elapsedMillis(startNanos));
+    }
+  }
+
+  private CompletableFuture<CardApiResult> executeOnceAsync(AccessTokenCache.TokenKey tenant,
+      CardApiEndpoint endpoint, JSONObject data, long deadlineNanos) {
+    String outTrackId = data.getString("outTrackId");
+    long waitNanos = rateLimiter.reserve(endpoint, tenant.getAppKey(), outTrackId, deadlineNanos);
+    if (waitNanos < 0) {
+      return CompletableFuture.completedFuture(ofDeadlineExceeded(endpoint, outTrackId));
+    }
+    if (waitNanos == 0) {
+      return enqueue(tenant, endpoint, data, outTrackId, deadlineNanos);
+    }
+    // 排队等待令牌时不占用线程
+    Executor delayed = CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS);
+    return CompletableFuture.runAsync(() -> {
+    }, delayed).thenCompose(v -> enqueue(tenant, endpoint, data, outTrackId, deadlineNanos));
+  }
+
+  private CompletableFuture<CardApiResult> enqueue(AccessTokenCache.TokenKey tenant, CardApiEndpoint endpoint,
+      JSONObject data, String outTrackId, long deadlineNanos) {
+    // 首次获取 Token 时等待刷新完成再发送，不阻塞 OkHttp 回调线程或 Stream 线程
+    return accessTokenCache.getAccessTokenAsync(tenant).thenCompose(accessToken -> {
+      if (accessToken == null) {
+        return CompletableFuture.completedFuture(ofNoAccessToken(endpoint, outTrackId));
+      }
+      return enqueue(tenant, endpoint, data, outTrackId, accessToken, deadlineNanos);
+    });
+  }
+
+  private CompletableFuture<CardApiResult> enqueue(AccessTokenCache.TokenKey tenant, CardApiEndpoint endpoint,
+      JSONObject data, String outTrackId, String accessToken, long deadlineNanos) {
+    return enqueue(endpoint, data, outTrackId, accessToken, deadlineNanos).thenCompose(result -> {
+      if (!result.isTokenInvalid()) {
+        return CompletableFuture.completedFuture(result);
+      }
+      // Token 被吊销或提前过期：并发的调用方共享一次刷新，然后用新 Token 重放一次
+      return accessTokenCache.invalidate(tenant, accessToken).thenCompose(refreshed -> {
+        if (refreshed == null) {
+          return CompletableFuture.completedFuture(result);
+        }
+        logReplay(result);
+        return enqueue(endpoint, data, outTrackId, refreshed.getAccessToken(), deadlineNanos);
+      });
+    });
+  }
+
+  private CompletableFuture<CardApiResult> enqueue(CardApiEndpoint endpoint, JSONObject data, String outTrackId,
+      String accessToken, long deadlineNanos) {
+    long startNanos = System.nanoTime();
+    long remainingNanos = deadlineNanos - startNanos;
+    if (remainingNanos <= 0) {
+      return CompletableFuture.completedFuture(ofDeadlineExceeded(endpoint, outTrackId));
+    }
+    CompletableFuture<CardApiResult> future = new CompletableFuture<>();
+    newCall(endpoint, data, accessToken, remainingNanos).enqueue(new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        future.complete(CardApiResult.ofException(endpoint, outTrackId, e, elapsedMillis(startNanos)));
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) {
+        // 先关闭响应归还连接，再执行 future 的后续处理
+        CardApiResult result;
+        try (response) {
+          result = toResult(endpoint, outTrackId, response, startNanos);
+        } catch (IOException e) {
+          result = CardApiResult.ofException(endpoint, outTrackId, e, elapsedMillis(startNanos));
+        }
+        future.complete(result);
+      }
+    });
+    return future;
+  }
+
+  private static CardApiResult toResult(CardApiEndpoint endpoint, String outTrackId, Response response,
+      long startNanos) throws IOException {
+    ResponseBody body = response.body();
+    return CardApiResult.ofResponse(endpoint, outTrackId, response.code(), body == null ? null : body.string(),
+        elapsedMillis(startNanos));
+  }
+
+  private static void logResult(CardApiResult result) {
+    if (result.isSuccess()) {
+      return;
+    }
+    if (result.getOutcome() == CardApiResult.Outcome.FATAL) {
+      log.error("card api call failed: {} body={}", result, result.getBody(), result.getException());
+    } else {
+      log.warn("card api call failed: {}", result, result.getException());
+    }
+  }
+
+  private static void logReplay(CardApiResult result) {
+    log.warn("card api access token invalid, replay with refreshed token: {}", result);
+  }
+
+  private static void logRetry(CardApiResult result, int attempt, long delayMillis) {
+    log.warn("card api call attempt {} failed, retry in {}ms: {}", attempt, delayMillis, result);
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  public int getConnectionCount() {
+    return client.connectionPool().connectionCount();
+  }
+
+  public int getIdleConnectionCount() {
+    return client.connectionPool().idleConnectionCount();
+  }
+
+  public int getRunningCallsCount() {
+    return client.dispatcher().runningCallsCount();
+  }
+
+  public int getQueuedCallsCount() {
+    return client.dispatcher().queuedCallsCount();
+  }
+
+  /**
+   * 连接池统计通过 actuator 的 /actuator/metrics/card.api.* 暴露
+   */
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("card.api.connections", this, CardApiTransport::getConnectionCount)
+        .tag("state", "total")
+        .description("Connections held by the card api connection pool")
+        .register(registry);
+    Gauge.builder("card.api.connections", this, CardApiTransport::getIdleConnectionCount)
+        .tag("state", "idle")
+        .description("Connections held by the card api connection pool")
+        .register(registry);
+    Gauge.builder("card.api.calls", this, CardApiTransport::getRunningCallsCount)
+        .tag("state", "running")
+        .description("Card api calls handled by the dispatcher")
+        .register(registry);
+    Gauge.builder("card.api.calls", this, CardApiTransport::getQueuedCallsCount)
+        .tag("state", "queued")
+        .description("Card api calls handled by the dispatcher")
+        .register(registry);
+  }
+}
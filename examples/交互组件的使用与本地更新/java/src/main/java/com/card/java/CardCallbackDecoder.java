@@ -0,0 +1,168 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson2.JSONFactory;
+import com.alibaba.fastjson2.JSONReader;
+import com.alibaba.fastjson2.reader.ObjectReader;
+import com.alibaba.fastjson2.util.Fnv;
+import com.card.java.models.CardCallback;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 卡片回传请求解析。用 JSONReader 顺序读取一遍消息，读到 content 字符串时直接解析其中的 cardPrivateData，
+ * params 按调用方给出的类型绑定，不再先把整个消息和 content 分别解析为中间对象
+ */
+@Component
+public class CardCallbackDecoder {
+  private static final JSONReader.Context CONTEXT = JSONFactory.createReadContext();
+
+  // 按字段名的哈希值匹配，读取字段名时不创建字符串
+  private static final long EXTENSION = Fnv.hashCode64("extension");
+  private static final long CORP_ID = Fnv.hashCode64("corpId");
+  private static final long SPACE_TYPE = Fnv.hashCode64("spaceType");
+  private static final long USER_ID_TYPE = Fnv.hashCode64("userIdType");
+  private static final long TYPE = Fnv.hashCode64("type");
+  private static final long USER_ID = Fnv.hashCode64("userId");
+  private static final long SPACE_ID = Fnv.hashCode64("spaceId");
+  private static final long OUT_TRACK_ID = Fnv.hashCode64("outTrackId");
+  private static final long VALUE = Fnv.hashCode64("value");
+  private static final long CONTENT = Fnv.hashCode64("content");
+  private static final long CARD_PRIVATE_DATA = Fnv.hashCode64("cardPrivateData");
+  private static final long ACTION_IDS = Fnv.hashCode64("actionIds");
+  private static final long PARAMS = Fnv.hashCode64("params");
+
+  static {
+    // 与 com.alibaba.fastjson.JSON.parseObject 一致，动态结构使用 fastjson 1.x 兼容的 JSONObject、JSONArray
+    CONTEXT.setObjectSupplier(JSONObject::new);
+    CONTEXT.setArraySupplier(JSONArray::new);
+  }
+
+  public CardCallback<JSONObject> decode(String messageString) {
+    return decode(messageString, JSONObject.class);
+  }
+
+  /**
+   * 把已经按 JSONObject 解析的回传请求转换为具体的参数类型，只转换 params，不再重新读取原始消息
+   */
+  public <P> CardCallback<P> bind(CardCallback<JSONObject> callback, Class<P> paramsType) {
+    CardCallback<P> bound = new CardCallback<>();
+    bound.setExtension(callback.getExtension());
+    bound.setCorpId(callback.getCorpId());
+    bound.setSpaceType(callback.getSpaceType());
+    bound.setUserIdType(callback.getUserIdType());
+    bound.setType(callback.getType());
+    bound.setUserId(callback.getUserId());
+    bound.setSpaceId(callback.getSpaceId());
+    bound.setOutTrackId(callback.getOutTrackId());
+    bound.setValue(callback.getValue());
+    bound.setActionIds(callback.getActionIds());
+    JSONObject params = callback.getParams();
+    bound.setParams(params == null ? null : params.toJavaObject(paramsType));
+    return bound;
+  }
+
+  public <P> CardCallback<P> decode(String messageString, Class<P> paramsType) {
+    CardCallback<P> callback = new CardCallback<>();
+    try (JSONReader reader = JSONReader.of(messageString, CONTEXT)) {
+      if (!reader.nextIfObjectStart()) {
+        throw new IllegalArgumentException("card callback message is not a json object");
+      }
+      while (!reader.nextIfObjectEnd()) {
+        long name = reader.readFieldNameHashCode();
+        if (name == EXTENSION) {
+          callback.setExtension(reader.readString());
+        } else if (name == CORP_ID) {
+          callback.setCorpId(reader.readString());
+        } else if (name == SPACE_TYPE) {
+          callback.setSpaceType(reader.readString());
+        } else if (name == USER_ID_TYPE) {
+          callback.setUserIdType(reader.readInt32());
+        } else if (name == TYPE) {
+          callback.setType(reader.readString());
+        } else if (name == USER_ID) {
+          callback.setUserId(reader.readString());
+        } else if (name == SPACE_ID) {
+          callback.setSpaceId(reader.readString());
+        } else if (name == OUT_TRACK_ID) {
+          callback.setOutTrackId(reader.readString());
+        } else if (name == VALUE) {
+          callback.setValue(reader.readString());
+        } else if (name == CONTENT) {
+          readContent(reader, callback, paramsType);
+        } else {
+          reader.skipValue();
+        }
+      }
+    }
+    return callback;
+  }
+
+  private static <P> void readContent(JSONReader reader, CardCallback<P> callback, Class<P> paramsType) {
+    if (reader.isString()) {
+      // content 是序列化后的 JSON 字符串，取出后就地解析
+      String content = reader.readString();
+      if (content != null && !content.isEmpty()) {
+        try (JSONReader contentReader = JSONReader.of(content, CONTEXT)) {
+          readContentObject(contentReader, callback, paramsType);
+        }
+      }
+    } else {
+      readContentObject(reader, callback, paramsType);
+    }
+  }
+
+  private static <P> void readContentObject(JSONReader reader, CardCallback<P> callback, Class<P> paramsType) {
+    if (reader.nextIfNull()) {
+      return;
+    }
+    if (!reader.nextIfObjectStart()) {
+      reader.skipValue();
+      return;
+    }
+    while (!reader.nextIfObjectEnd()) {
+      if (reader.readFieldNameHashCode() == CARD_PRIVATE_DATA) {
+        readCardPrivateData(reader, callback, paramsType);
+      } else {
+        reader.skipValue();
+      }
+    }
+  }
+
+  private static <P> void readCardPrivateData(JSONReader reader, CardCallback<P> callback, Class<P> paramsType) {
+    if (reader.nextIfNull()) {
+      return;
+    }
+    if (!reader.nextIfObjectStart()) {
+      reader.skipValue();
+      return;
+    }
+    while (!reader.nextIfObjectEnd()) {
+      long name = reader.readFieldNameHashCode();
+      if (name == ACTION_IDS) {
+        callback.setActionIds(readStrings(reader));
+      } else if (name == PARAMS) {
+        ObjectReader<P> paramsReader = CONTEXT.getObjectReader(paramsType);
+        callback.setParams(paramsReader.readObject(reader, paramsType, null, 0));
+      } else {
+        reader.skipValue();
+      }
+    }
+  }
+
+  private static List<String> readStrings(JSONReader reader) {
+    if (!reader.nextIfArrayStart()) {
+      reader.skipValue();
+      return null;
+    }
+    List<String> values = new ArrayList<>();
+    while (!reader.nextIfArrayEnd()) {
+      values.add(reader.readString());
+    }
+    return values;
+  }
+}
@@ -1,12 +1,10 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import lombok.extern.slf4j.Slf4j;
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
-import com.card.java.models.CardCallbackMessage;
-import com.card.java.models.CardPrivateData;
-import com.card.java.models.CardPrivateDataWrapper;
+import com.card.java.models.CardCallback;
 
 import java.util.HashMap;
 import java.util.List;
@@ -19,23 +17,27 @@ import org.springframework.stereotype.Component;
 
 @Slf4j
 @Component
-public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, JSONObject> {
+public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, CardCallbackResponse> {
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardTrafficLogger cardTrafficLogger;
+
+  @Autowired
+  private CardCallbackResponseWriter cardCallbackResponseWriter;
+
+  @Autowired
+  private CardCallbackDecoder cardCallbackDecoder;
 
   @Override
-  public JSONObject execute(String messageString) {
+  public CardCallbackResponse execute(String messageString) {
     /**
      * 卡片事件回调文档：https://open.dingtalk.com/document/orgapp/event-callback-card
      */
-    log.info("card callback message: " + messageString);
+    cardTrafficLogger.info(Category.CALLBACK, "card callback message", () -> messageString);
     JSONObject userPrivateData = new JSONObject();
 
-    CardCallbackMessage message = JSON.parseObject(messageString, CardCallbackMessage.class);
-    CardPrivateDataWrapper content = JSON.parseObject(message.getContent(), CardPrivateDataWrapper.class);
-    CardPrivateData cardPrivateData = content.getCardPrivateData();
-    JSONObject params = cardPrivateData.getParams();
+    CardCallback<JSONObject> callback = cardCallbackDecoder.decode(messageString);
+    JSONObject params = callback.getParams();
 
     Map<String, String> requiredFields = new HashMap<>();
     requiredFields.put("input", "文本输入");
@@ -156,16 +158,9 @@ public class CardCallbackHandler implements OpenDingTalkCallbackListener<String,
       userPrivateData.put("submitBtnStatus", "disabled");
     }
 
-    JSONObject cardUpdateOptions = new JSONObject();
-    cardUpdateOptions.put("updateCardDataByKey", true);
-    cardUpdateOptions.put("updatePrivateDataByKey", true);
-
-    JSONObject response = new JSONObject();
-    response.put("cardUpdateOptions", cardUpdateOptions);
-    response.put("userPrivateData",
-        new JSONObject().fluentPut("cardParamMap", jsonObjectUtils.convertJSONValuesToString(userPrivateData)));
+    CardCallbackResponse response = cardCallbackResponseWriter.write(userPrivateData);
 
-    log.info("card callback response: " + JSON.toJSONString(response));
+    cardTrafficLogger.info(Category.CALLBACK, "card callback response", response::toString);
     return response;
   }
 }
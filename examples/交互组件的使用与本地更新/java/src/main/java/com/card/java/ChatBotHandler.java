@@ -1,5 +1,6 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.JSONArray;
 import com.dingtalk.open.app.api.callback.OpenDingTalkCallbackListener;
@@ -11,54 +12,40 @@ import org.springframework.stereotype.Component;
 
 import lombok.extern.slf4j.Slf4j;
 
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Component
 public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessage, Void> {
 
   @Autowired
-  private AccessTokenService accessTokenService;
+  private CardTrafficLogger cardTrafficLogger;
+
+  @Autowired
+  private CardParamMapEncoder cardParamMapEncoder;
+
+  @Autowired
+  private CardApiTransport cardApiTransport;
+
+  @Autowired
+  private AccessTokenCache accessTokenCache;
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardIdGenerator cardIdGenerator;
 
-  @Value("${openApiHost}")
-  private String openApiHost;
+  @Autowired
+  private MessageDeduplicator messageDeduplicator;
 
   @Value("${dingtalk.app.client-id}")
   private String clientId;
 
-  public static String genCardId(ChatbotMessage message) throws NoSuchAlgorithmException {
-    String factor = message.getSenderId() + '_' + message.getSenderCorpId() + '_' + message.getConversationId() + '_'
-        + message.getMsgId() + '_' + UUID.randomUUID().toString();
-    MessageDigest digest = MessageDigest.getInstance("SHA-256");
-    byte[] hash = digest.digest(factor.getBytes(StandardCharsets.UTF_8));
-    StringBuilder hexString = new StringBuilder();
-    for (byte b : hash) {
-      String hex = Integer.toHexString(0xff & b);
-      if (hex.length() == 1)
-        hexString.append('0');
-      hexString.append(hex);
-    }
-    return hexString.toString();
+  // ISV 套件按消息所属的授权企业取 Token，企业内部应用使用本应用的 Token
+  private AccessTokenCache.TokenKey tenantOf(ChatbotMessage message) {
+    return accessTokenCache.keyOf(clientId, message.getChatbotCorpId());
   }
 
-  public String createAndDeliverCard(ChatbotMessage message, String cardTemplateId, JSONObject cardData,
-      JSONObject options)
-      throws IOException, InterruptedException, NoSuchAlgorithmException {
-    String cardInstanceId = genCardId(message);
-
+  private JSONObject buildCreateAndDeliverData(ChatbotMessage message, String cardInstanceId,
+      String cardTemplateId, JSONObject cardData, JSONObject options) {
     boolean supportForward = (boolean) options.getOrDefault("supportForward", true);
     boolean atAll = (boolean) options.getOrDefault("alAll", false);
     boolean atSender = (boolean) options.getOrDefault("atSender", false);
@@ -114,33 +101,33 @@ public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessa
     for (String key : restOptions.keySet()) {
       data.put(key, restOptions.get(key));
     }
+    return data;
+  }
 
-    String url = openApiHost + "/v1.0/card/instances/createAndDeliver";
-
-    OkHttpClient client = new OkHttpClient();
-    MediaType JSON = MediaType.get("application/json; charset=utf-8");
-    RequestBody body = RequestBody.create(data.toJSONString(), JSON);
-
-    Request request = new Request.Builder()
-        .url(url)
-        .addHeader("Content-Type", "application/json")
-        .addHeader("Accept", "*/*")
-        .addHeader("x-acs-dingtalk-access-token", accessTokenService.getAccessToken())
-        .post(body)
-        .build();
-
-    try {
-      Response response = client.newCall(request).execute();
-      log.info("reply card: " + data.toJSONString());
-      if (response.code() != 200) {
-        log.error("reply card failed: " + response.code() + " " + response.body().string());
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
+  public String createAndDeliverCard(ChatbotMessage message, String cardTemplateId, JSONObject cardData,
+      JSONObject options) {
+    String cardInstanceId = cardIdGenerator.generate(message);
+    JSONObject data = buildCreateAndDeliverData(message, cardInstanceId, cardTemplateId, cardData, options);
+
+    CardApiResult result = cardApiTransport.execute(tenantOf(message), CardApiEndpoint.CREATE_AND_DELIVER, data,
+        true);
+    cardTrafficLogger.info(Category.OPEN_API, "reply card", data::toJSONString);
+    if (!result.isSuccess()) {
+      log.error("reply card failed: " + result);
     }
     return cardInstanceId;
   }
 
+  /**
+   * 异步创建并投放卡片，不阻塞 Stream 回调线程，结果中的 outTrackId 即卡片实例 ID
+   */
+  public CompletableFuture<CardApiResult> createAndDeliverCardAsync(ChatbotMessage message, String cardTemplateId,
+      JSONObject cardData, JSONObject options) {
+    String cardInstanceId = cardIdGenerator.generate(message);
+    JSONObject data = buildCreateAndDeliverData(message, cardInstanceId, cardTemplateId, cardData, options);
+    return cardApiTransport.executeAsync(tenantOf(message), CardApiEndpoint.CREATE_AND_DELIVER, data, true);
+  }
+
   private static JSONObject createCheckboxItem(int value, String text) {
     JSONObject item = new JSONObject();
     item.put("value", value);
@@ -150,52 +137,56 @@ public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessa
 
   @Override
   public Void execute(ChatbotMessage message) {
-
-    String receivedMessage = message.getText().getContent().trim();
-    log.info("received message: " + receivedMessage);
-
+    String msgId = message.getMsgId();
+    // Stream 重复投递的同一条消息直接跳过，不再创建卡片
+    if (!messageDeduplicator.markIfFirst(msgId)) {
+      return null;
+    }
     try {
-      // 卡片模板 ID
-      String cardTemplateId = "737cda86-7a7f-4d83-ba07-321e6933be12.schema"; // 该模板只用于测试使用，如需投入线上使用，请导入卡片模板 json 到自己的应用下
-      // 卡片公有数据，非字符串类型的卡片数据参考文档：https://open.dingtalk.com/document/orgapp/instructions-for-filling-in-api-card-data
-      JSONObject cardData = new JSONObject();
-      cardData.put("lastMessage", "交互组件本地更新卡片");
-      cardData.put("submitBtnStatus", "normal");
-      cardData.put("submitBtnText", "提交");
-      cardData.put("input", "");
-      cardData.put("selectIndex", -1);
-      cardData.put("multiSelectIndexes", new JSONArray());
-      cardData.put("date", "");
-      cardData.put("datetime", "");
-      cardData.put("checkbox", false);
-
-      JSONArray singleCheckboxItems = new JSONArray();
-      singleCheckboxItems.add(createCheckboxItem(0, "单选复选框选项 1"));
-      singleCheckboxItems.add(createCheckboxItem(1, "单选复选框选项 2"));
-      singleCheckboxItems.add(createCheckboxItem(2, "单选复选框选项 3"));
-      singleCheckboxItems.add(createCheckboxItem(3, "单选复选框选项 4"));
-      cardData.put("singleCheckboxItems", singleCheckboxItems);
-
-      JSONArray multiCheckboxItems = new JSONArray();
-      multiCheckboxItems.add(createCheckboxItem(0, "多选复选框选项 1"));
-      multiCheckboxItems.add(createCheckboxItem(1, "多选复选框选项 2"));
-      multiCheckboxItems.add(createCheckboxItem(2, "多选复选框选项 3"));
-      multiCheckboxItems.add(createCheckboxItem(3, "多选复选框选项 4"));
-      cardData.put("multiCheckboxItems", multiCheckboxItems);
-
-      // 创建并投放卡片: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
-      JSONObject options = new JSONObject();
-      createAndDeliverCard(message, cardTemplateId,
-          jsonObjectUtils.convertJSONValuesToString(cardData), options);
-    } catch (NoSuchAlgorithmException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
-    } catch (InterruptedException e) {
-      e.printStackTrace();
-      Thread.currentThread().interrupt();
+      reply(message);
+    } catch (RuntimeException e) {
+      // 处理失败时撤销标记，Stream 重新投递这条消息时可以再处理一次
+      messageDeduplicator.unmark(msgId);
+      throw e;
     }
-
     return null;
   }
+
+  private void reply(ChatbotMessage message) {
+    String receivedMessage = message.getText().getContent().trim();
+    cardTrafficLogger.info(Category.MESSAGE, "received message", () -> receivedMessage);
+
+    // 卡片模板 ID
+    String cardTemplateId = "737cda86-7a7f-4d83-ba07-321e6933be12.schema"; // 该模板只用于测试使用，如需投入线上使用，请导入卡片模板 json 到自己的应用下
+    // 卡片公有数据，非字符串类型的卡片数据参考文档：https://open.dingtalk.com/document/orgapp/instructions-for-filling-in-api-card-data
+    JSONObject cardData = new JSONObject();
+    cardData.put("lastMessage", "交互组件本地更新卡片");
+    cardData.put("submitBtnStatus", "normal");
+    cardData.put("submitBtnText", "提交");
+    cardData.put("input", "");
+    cardData.put("selectIndex", -1);
+    cardData.put("multiSelectIndexes", new JSONArray());
+    cardData.put("date", "");
+    cardData.put("datetime", "");
+    cardData.put("checkbox", false);
+
+    JSONArray singleCheckboxItems = new JSONArray();
+    singleCheckboxItems.add(createCheckboxItem(0, "单选复选框选项 1"));
+    singleCheckboxItems.add(createCheckboxItem(1, "单选复选框选项 2"));
+    singleCheckboxItems.add(createCheckboxItem(2, "单选复选框选项 3"));
+    singleCheckboxItems.add(createCheckboxItem(3, "单选复选框选项 4"));
+    cardData.put("singleCheckboxItems", singleCheckboxItems);
+
+    JSONArray multiCheckboxItems = new JSONArray();
+    multiCheckboxItems.add(createCheckboxItem(0, "多选复选框选项 1"));
+    multiCheckboxItems.add(createCheckboxItem(1, "多选复选框选项 2"));
+    multiCheckboxItems.add(createCheckboxItem(2, "多选复选框选项 3"));
+    multiCheckboxItems.add(createCheckboxItem(3, "多选复选框选项 4"));
+    cardData.put("multiCheckboxItems", multiCheckboxItems);
+
+    // 创建并投放卡片: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
+    JSONObject options = new JSONObject();
+    createAndDeliverCard(message, cardTemplateId,
+        cardParamMapEncoder.encode(cardData), options);
+  }
 }
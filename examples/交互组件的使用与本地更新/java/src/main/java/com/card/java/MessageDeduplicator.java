@@ -0,0 +1,113 @@
+package com.card.java;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 记录最近处理过的机器人消息 msgId，Stream 重复投递同一条消息时直接跳过，避免重复创建卡片和调用大模型。
+ * msgId 按到达时间放入 bucket-seconds 秒一个的时间桶中，共 buckets 个桶循环使用，
+ * 过期的桶在下次使用时整体丢弃，不需要逐条清理，去重窗口约为 bucket-seconds * (buckets - 1) 秒
+ */
+@Slf4j
+@Component
+public class MessageDeduplicator {
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${card.dedup.bucket-seconds:60}")
+  private long bucketSeconds;
+
+  @Value("${card.dedup.buckets:6}")
+  private int bucketCount;
+
+  private AtomicReferenceArray<Bucket> buckets;
+
+  private Counter duplicates;
+
+  private static class Bucket {
+    final long epoch;
+    final Set<String> msgIds = ConcurrentHashMap.newKeySet();
+
+    Bucket(long epoch) {
+      this.epoch = epoch;
+    }
+  }
+
+  @PostConstruct
+  public void init() {
+    buckets = new AtomicReferenceArray<>(bucketCount);
+    duplicates = Counter.builder("card.message.duplicate")
+        .description("Redelivered bot messages skipped by msgId")
+        .register(meterRegistry);
+  }
+
+  /**
+   * 第一次见到该 msgId 时记录并返回 true，去重窗口内再次出现时返回 false。msgId 为空时不去重
+   */
+  public boolean markIfFirst(String msgId) {
+    if (msgId == null || msgId.isEmpty()) {
+      return true;
+    }
+    long epoch = System.currentTimeMillis() / 1000 / bucketSeconds;
+    for (int i = 1; i < bucketCount; i++) {
+      Bucket bucket = buckets.get(indexOf(epoch - i));
+      if (bucket != null && bucket.epoch == epoch - i && bucket.msgIds.contains(msgId)) {
+        return duplicate(msgId);
+      }
+    }
+    // 当前桶的 add 是原子的，并发到达的同一条消息只有一个能加入成功
+    if (!current(epoch).msgIds.add(msgId)) {
+      return duplicate(msgId);
+    }
+    return true;
+  }
+
+  /**
+   * 撤销 markIfFirst 的记录，用于处理失败的消息：Stream 重新投递时按第一次到达处理。
+   * card.id.mode=DETERMINISTIC 时卡片实例 ID 由消息确定，重新处理不会投放出第二张卡片
+   */
+  public void unmark(String msgId) {
+    if (msgId == null || msgId.isEmpty()) {
+      return;
+    }
+    for (int i = 0; i < bucketCount; i++) {
+      Bucket bucket = buckets.get(i);
+      if (bucket != null) {
+        bucket.msgIds.remove(msgId);
+      }
+    }
+  }
+
+  private Bucket current(long epoch) {
+    int index = indexOf(epoch);
+    while (true) {
+      Bucket bucket = buckets.get(index);
+      if (bucket != null && bucket.epoch >= epoch) {
+        return bucket;
+      }
+      Bucket fresh = new Bucket(epoch);
+      if (buckets.compareAndSet(index, bucket, fresh)) {
+        return fresh;
+      }
+    }
+  }
+
+  private int indexOf(long epoch) {
+    return (int) Math.floorMod(epoch, (long) bucketCount);
+  }
+
+  private boolean duplicate(String msgId) {
+    duplicates.increment();
+    log.info("skip redelivered message, msgId={}", msgId);
+    return false;
+  }
+}
@@ -0,0 +1,306 @@
+package com.card.java;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 卡片接口的熔断器，每个接口独立统计。最近的调用中网络异常、超时和 5xx 的比例超过阈值时打开熔断，
+ * 打开期间调用直接返回不再等待超时；经过一段时间后进入半开状态放行少量探测请求，探测成功则关闭熔断。
+ * 熔断期间非关键调用（流式更新的中间帧、进度更新）直接丢弃，关键调用（最终状态）排队，熔断恢复后按顺序重放
+ */
+@Slf4j
+@Component
+public class CardApiCircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  // 统计最近多少次调用的失败率
+  @Value("${card.api.circuit-breaker.window-size:20}")
+  private int windowSize;
+
+  // 窗口内至少有多少次调用才计算失败率
+  @Value("${card.api.circuit-breaker.minimum-calls:10}")
+  private int minimumCalls;
+
+  @Value("${card.api.circuit-breaker.failure-rate-threshold:0.5}")
+  private double failureRateThreshold;
+
+  @Value("${card.api.circuit-breaker.open-millis:5000}")
+  private long openMillis;
+
+  @Value("${card.api.circuit-breaker.half-open-probes:1}")
+  private int halfOpenProbes;
+
+  // 每个接口最多排队等待重放的关键调用数
+  @Value("${card.api.circuit-breaker.max-queued:1000}")
+  private int maxQueued;
+
+  private final Map<CardApiEndpoint, Circuit> circuits = new EnumMap<>(CardApiEndpoint.class);
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "card-api-circuit-breaker");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  @PostConstruct
+  public void init() {
+    for (CardApiEndpoint endpoint : CardApiEndpoint.values()) {
+      Circuit circuit = new Circuit(endpoint);
+      circuits.put(endpoint, circuit);
+      Gauge.builder("card.api.circuit.state", circuit, c -> c.getState().ordinal())
+          .tag("endpoint", endpoint.name())
+          .description("Circuit breaker state of the card api, 0=closed, 1=open, 2=half-open")
+          .register(meterRegistry);
+      circuit.shed = rejectedCounter(endpoint, "shed");
+      circuit.queued = rejectedCounter(endpoint, "queued");
+      circuit.overflow = rejectedCounter(endpoint, "overflow");
+    }
+  }
+
+  private Counter rejectedCounter(CardApiEndpoint endpoint, String action) {
+    return Counter.builder("card.api.circuit.rejected")
+        .tag("endpoint", endpoint.name())
+        .tag("action", action)
+        .description("Card api calls rejected while the circuit was open")
+        .register(meterRegistry);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  public State getState(CardApiEndpoint endpoint) {
+    return circuits.get(endpoint).getState();
+  }
+
+  /**
+   * 调用前检查熔断器，返回 false 表示熔断打开，本次调用不应发出
+   */
+  public boolean tryAcquire(CardApiEndpoint endpoint) {
+    Circuit circuit = circuits.get(endpoint);
+    synchronized (circuit) {
+      switch (circuit.state) {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (System.nanoTime() - circuit.openedAtNanos < TimeUnit.MILLISECONDS.toNanos(openMillis)) {
+            return false;
+          }
+          circuit.transitionTo(State.HALF_OPEN);
+          circuit.probes = 0;
+          // fall through
+        default:
+          if (circuit.probes >= halfOpenProbes) {
+            return false;
+          }
+          circuit.probes++;
+          return true;
+      }
+    }
+  }
+
+  /**
+   * 记录一次调用（含重试）的最终结果。只有网络异常、超时和 5xx 视为接口故障，
+   * 参数错误和限流说明接口本身可用，不计入失败率
+   */
+  public void onResult(CardApiResult result) {
+    if (result.getOutcome() == CardApiResult.Outcome.REJECTED) {
+      releaseProbe(result.getEndpoint());
+      return;
+    }
+    boolean failure = result.getOutcome() == CardApiResult.Outcome.RETRYABLE;
+    Circuit circuit = circuits.get(result.getEndpoint());
+    List<Runnable> replays = null;
+    synchronized (circuit) {
+      if (circuit.state == State.HALF_OPEN) {
+        if (failure) {
+          circuit.open();
+        } else {
+          circuit.close();
+          replays = new ArrayList<>(circuit.deferred);
+          circuit.deferred.clear();
+        }
+      } else if (circuit.state == State.CLOSED) {
+        circuit.record(failure);
+        if (circuit.count >= minimumCalls && circuit.failures >= circuit.count * failureRateThreshold) {
+          circuit.open();
+        }
+      }
+    }
+    if (replays != null) {
+      replays.forEach(Runnable::run);
+    }
+  }
+
+  /**
+   * 获得了探测名额的调用没有得到接口的响应（如本地限流超过截止时间、调用线程被中断），不能作为探测结果，
+   * 让出名额给下一个调用
+   */
+  private void releaseProbe(CardApiEndpoint endpoint) {
+    Circuit circuit = circuits.get(endpoint);
+    Runnable replay;
+    synchronized (circuit) {
+      if (circuit.state != State.HALF_OPEN || circuit.probes == 0) {
+        return;
+      }
+      circuit.probes--;
+      replay = circuit.deferred.pollFirst();
+    }
+    if (replay != null) {
+      scheduler.execute(replay);
+    }
+  }
+
+  /**
+   * 熔断期间丢弃一次非关键调用
+   */
+  public void shed(CardApiEndpoint endpoint) {
+    circuits.get(endpoint).shed.increment();
+  }
+
+  /**
+   * 熔断期间将关键调用排队，熔断恢复后重放。返回 false 表示队列已满
+   */
+  public boolean defer(CardApiEndpoint endpoint, Runnable replay) {
+    Circuit circuit = circuits.get(endpoint);
+    synchronized (circuit) {
+      if (circuit.state != State.CLOSED) {
+        if (circuit.deferred.size() >= maxQueued) {
+          circuit.overflow.increment();
+          return false;
+        }
+        circuit.deferred.addLast(replay);
+        circuit.queued.increment();
+        circuit.scheduleProbe();
+        return true;
+      }
+    }
+    // 排队前熔断已经恢复，直接重放
+    replay.run();
+    return true;
+  }
+
+  /**
+   * 重放时熔断仍未恢复（如半开状态的探测名额已被占用），放回队首，保持按顺序重放
+   */
+  public void requeue(CardApiEndpoint endpoint, Runnable replay) {
+    Circuit circuit = circuits.get(endpoint);
+    synchronized (circuit) {
+      if (circuit.state != State.CLOSED) {
+        circuit.deferred.addFirst(replay);
+        circuit.scheduleProbe();
+        return;
+      }
+    }
+    replay.run();
+  }
+
+  private class Circuit {
+    final CardApiEndpoint endpoint;
+    final boolean[] window = new boolean[windowSize];
+    final Deque<Runnable> deferred = new ArrayDeque<>();
+    State state = State.CLOSED;
+    int index;
+    int count;
+    int failures;
+    int probes;
+    long openedAtNanos;
+    boolean probeScheduled;
+    Counter shed;
+    Counter queued;
+    Counter overflow;
+
+    Circuit(CardApiEndpoint endpoint) {
+      this.endpoint = endpoint;
+    }
+
+    synchronized State getState() {
+      return state;
+    }
+
+    void record(boolean failure) {
+      if (count == window.length) {
+        if (window[index]) {
+          failures--;
+        }
+      } else {
+        count++;
+      }
+      window[index] = failure;
+      if (failure) {
+        failures++;
+      }
+      index = (index + 1) % window.length;
+    }
+
+    void open() {
+      transitionTo(State.OPEN);
+      openedAtNanos = System.nanoTime();
+      if (!deferred.isEmpty()) {
+        scheduleProbe();
+      }
+    }
+
+    void close() {
+      transitionTo(State.CLOSED);
+      index = 0;
+      count = 0;
+      failures = 0;
+    }
+
+    void transitionTo(State next) {
+      log.warn("card api circuit of {} changed from {} to {}, failures={}/{}", endpoint, state, next, failures, count);
+      state = next;
+    }
+
+    /**
+     * 熔断打开期间没有新调用时，由排队的第一个关键调用作为半开探测
+     */
+    void scheduleProbe() {
+      if (probeScheduled || state != State.OPEN) {
+        return;
+      }
+      probeScheduled = true;
+      long delayNanos = Math.max(0, openedAtNanos + TimeUnit.MILLISECONDS.toNanos(openMillis) - System.nanoTime());
+      scheduler.schedule(this::probe, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void probe() {
+      Runnable replay;
+      synchronized (this) {
+        probeScheduled = false;
+        replay = deferred.pollFirst();
+      }
+      if (replay != null) {
+        replay.run();
+      }
+    }
+  }
+}
@@ -1,10 +1,12 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import lombok.extern.slf4j.Slf4j;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.JSONArray;
 import com.card.java.models.CardCallbackMessage;
+import com.card.java.models.DynamicDataProgress;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import com.dingtalk.open.app.api.callback.OpenDingTalkCallbackListener;
@@ -19,27 +21,34 @@ import java.time.format.DateTimeFormatter;
 public class CardDynamicDataCallbackHandler implements OpenDingTalkCallbackListener<String, JSONObject> {
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardTrafficLogger cardTrafficLogger;
+
+  @Autowired
+  private CardParamMapEncoder cardParamMapEncoder;
+
+  @Autowired
+  private CardStateStore cardStateStore;
 
   @Override
   public JSONObject execute(String messageString) {
     /**
      * 卡片动态数据源回调文档：https://open.dingtalk.com/document/isvapp/dynamic-data-source
      */
-    log.info("card callback message: " + messageString);
+    cardTrafficLogger.info(Category.CALLBACK, "card callback message", () -> messageString);
 
     CardCallbackMessage message = JSON.parseObject(messageString, CardCallbackMessage.class);
     String cardInstanceId = message.getOutTrackId();
 
     JSONObject response = new JSONObject();
 
-    if (!ChatBotHandler.totalByCardInstanceId.containsKey(cardInstanceId)) {
+    DynamicDataProgress progress = cardStateStore.compute(cardInstanceId, DynamicDataProgress.class,
+        current -> current == null ? null : new DynamicDataProgress(current.getTotal(), current.getFinished() + 1));
+    if (progress == null) {
       return response;
     }
 
-    Integer total = ChatBotHandler.totalByCardInstanceId.get(cardInstanceId);
-    Integer finished = ChatBotHandler.finishedByCardInstanceId.get(cardInstanceId) + 1;
-    ChatBotHandler.finishedByCardInstanceId.put(cardInstanceId, finished);
+    int total = progress.getTotal();
+    int finished = progress.getFinished();
 
     if (finished > total) {
       return response;
@@ -56,11 +65,11 @@ public class CardDynamicDataCallbackHandler implements OpenDingTalkCallbackListe
 
     response.put("dataSourceQueryResponses",
         new JSONArray().fluentAdd(new JSONObject()
-            .fluentPut("data", JSON.toJSONString(jsonObjectUtils.convertJSONValuesToString(cardData)))
+            .fluentPut("data", cardParamMapEncoder.toJSONString(cardData))
             .fluentPut("dynamicDataSourceId", ChatBotHandler.demoDynamicDataSourceId)
             .fluentPut("dynamicDataValueType", "OBJECT")));
 
-    log.info("card callback response: " + JSON.toJSONString(response));
+    cardTrafficLogger.info(Category.CALLBACK, "card callback response", () -> JSON.toJSONString(response));
     return response;
   }
 }
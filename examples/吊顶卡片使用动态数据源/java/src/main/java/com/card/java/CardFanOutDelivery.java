@@ -0,0 +1,180 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 将同一个卡片模板和公有数据批量投放到多个会话（群聊、单聊、吊顶等 openSpaceId），用于公告类场景。
+ * 同一时间最多 max-concurrency 个请求在发送中，一个请求完成后再发出下一个，不占用线程等待；
+ * 每个投放目标生成独立的卡片实例 ID，结果按输入顺序返回
+ */
+@Slf4j
+@Component
+public class CardFanOutDelivery {
+
+  @Autowired
+  private CardApiTransport cardApiTransport;
+
+  @Autowired
+  private CardIdGenerator cardIdGenerator;
+
+  @Value("${dingtalk.app.client-id}")
+  private String clientId;
+
+  @Value("${card.fan-out.max-concurrency:16}")
+  private int maxConcurrency;
+
+  @Getter
+  public static class Report {
+    private final List<String> openSpaceIds;
+    // 与 openSpaceIds 一一对应，outTrackId 即该目标的卡片实例 ID
+    private final List<CardApiResult> results;
+    private final int succeeded;
+    private final int failed;
+    private final long elapsedMillis;
+
+    private Report(List<String> openSpaceIds, List<CardApiResult> results, long elapsedMillis) {
+      this.openSpaceIds = openSpaceIds;
+      this.results = results;
+      this.succeeded = (int) results.stream().filter(CardApiResult::isSuccess).count();
+      this.failed = results.size() - succeeded;
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * 每秒完成的投放数
+     */
+    public double getThroughput() {
+      return elapsedMillis == 0 ? results.size() : results.size() * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+      return "CardFanOutDelivery.Report{targets=" + results.size() + ", succeeded=" + succeeded + ", failed=" + failed
+          + ", elapsedMillis=" + elapsedMillis + ", throughput=" + String.format("%.1f/s", getThroughput()) + "}";
+    }
+  }
+
+  /**
+   * 使用指定应用（ISV 为授权企业）的 accessToken 批量投放卡片。openSpaceId 格式参考
+   * https://open.dingtalk.com/document/orgapp/create-and-deliver-cards ，
+   * 如 dtv1.card//IM_GROUP.{openConversationId}、dtv1.card//IM_ROBOT.{userId}；
+   * options 中的字段会原样合并到每个请求体中，如吊顶卡片的 topOpenSpaceModel、topOpenDeliverModel。
+   * critical 同 {@link CardApiTransport#executeAsync(CardApiEndpoint, JSONObject, boolean)}：熔断期间 true 排队重放，
+   * false 直接丢弃，目标很多时排队的请求受 card.api.circuit-breaker.max-queued 限制
+   */
+  public CompletableFuture<Report> deliver(AccessTokenCache.TokenKey tenant, String cardTemplateId,
+      JSONObject cardData, List<String> openSpaceIds, JSONObject options, boolean critical) {
+    FanOut fanOut = new FanOut(tenant, cardTemplateId, cardData, Collections.unmodifiableList(openSpaceIds),
+        options, critical);
+    if (openSpaceIds.isEmpty()) {
+      fanOut.report.complete(new Report(fanOut.targets, Collections.emptyList(), 0));
+      return fanOut.report;
+    }
+    for (int i = 0; i < Math.min(maxConcurrency, openSpaceIds.size()); i++) {
+      deliverNext(fanOut);
+    }
+    return fanOut.report;
+  }
+
+  private class FanOut {
+    final AccessTokenCache.TokenKey tenant;
+    final String cardTemplateId;
+    final JSONObject cardData;
+    final List<String> targets;
+    final JSONObject options;
+    final boolean critical;
+    final CardApiResult[] results;
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicInteger remaining;
+    final long startNanos = System.nanoTime();
+    final CompletableFuture<Report> report = new CompletableFuture<>();
+
+    FanOut(AccessTokenCache.TokenKey tenant, String cardTemplateId, JSONObject cardData, List<String> targets,
+        JSONObject options, boolean critical) {
+      this.tenant = tenant;
+      this.cardTemplateId = cardTemplateId;
+      this.cardData = cardData;
+      this.targets = targets;
+      this.options = options;
+      this.critical = critical;
+      this.results = new CardApiResult[targets.size()];
+      this.remaining = new AtomicInteger(targets.size());
+    }
+
+    void onDelivered(int index, CardApiResult result) {
+      results[index] = result;
+      if (remaining.decrementAndGet() == 0) {
+        Report done = new Report(targets, Arrays.asList(results),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        log.info("fan out card {} finished: {}", cardTemplateId, done);
+        report.complete(done);
+      }
+    }
+  }
+
+  private void deliverNext(FanOut fanOut) {
+    // 已经完成的请求（如熔断时被拒绝）在循环中处理，避免回调递归过深
+    int index;
+    while ((index = fanOut.next.getAndIncrement()) < fanOut.targets.size()) {
+      String cardInstanceId = cardIdGenerator.generate();
+      JSONObject data = buildDeliverData(fanOut.cardTemplateId, cardInstanceId, fanOut.cardData,
+          fanOut.targets.get(index), fanOut.options);
+      CompletableFuture<CardApiResult> future =
+          cardApiTransport.executeAsync(fanOut.tenant, CardApiEndpoint.CREATE_AND_DELIVER, data, fanOut.critical);
+      if (!future.isDone()) {
+        int current = index;
+        future.whenComplete((result, e) -> {
+          fanOut.onDelivered(current, result != null ? result : failed(cardInstanceId, e));
+          deliverNext(fanOut);
+        });
+        return;
+      }
+      fanOut.onDelivered(index, future.exceptionally(e -> failed(cardInstanceId, e)).join());
+    }
+  }
+
+  private static CardApiResult failed(String cardInstanceId, Throwable e) {
+    Exception exception = e instanceof Exception ? (Exception) e : new RuntimeException(e);
+    return CardApiResult.ofException(CardApiEndpoint.CREATE_AND_DELIVER, cardInstanceId, exception, 0);
+  }
+
+  private JSONObject buildDeliverData(String cardTemplateId, String cardInstanceId, JSONObject cardData,
+      String openSpaceId, JSONObject options) {
+    JSONObject data = new JSONObject();
+    data.put("cardTemplateId", cardTemplateId);
+    data.put("outTrackId", cardInstanceId);
+    data.put("callbackType", "STREAM");
+    data.put("cardData", new JSONObject().fluentPut("cardParamMap", cardData));
+    data.put("openSpaceId", openSpaceId);
+
+    // 按 openSpaceId 的场域类型构造 Model
+    if (openSpaceId.startsWith("dtv1.card//IM_GROUP.")) {
+      data.put("imGroupOpenSpaceModel", new JSONObject().fluentPut("supportForward", true));
+      data.put("imGroupOpenDeliverModel", new JSONObject().fluentPut("robotCode", clientId));
+    } else if (openSpaceId.startsWith("dtv1.card//IM_ROBOT.")) {
+      data.put("imRobotOpenSpaceModel", new JSONObject().fluentPut("supportForward", true));
+      data.put("imRobotOpenDeliverModel", new JSONObject().fluentPut("spaceType", "IM_ROBOT"));
+    }
+
+    // 其余自定义参数
+    if (options != null) {
+      for (String key : options.keySet()) {
+        data.put(key, options.get(key));
+      }
+    }
+    return data;
+  }
+}
@@ -0,0 +1,236 @@
+package com.card.java;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 卡片状态的过期清理。每张卡片有一个过期时间：指定了过期时间的（如吊顶卡片的 expiredTimeMillis）到期删除，
+ * 其他卡片在 card.state.ttl.idle-seconds 秒内没有访问后删除。
+ * 过期时间放在时间轮上，每 card.state.ttl.tick-millis 毫秒走一格，只处理当前格中的卡片，不需要遍历所有卡片；
+ * 访问卡片时只更新过期时间，不移动卡片在时间轮上的位置，到格时发现还没过期再放到新的位置，每个过期周期最多移动一次。
+ * 删除的卡片数记在 card.state.evicted 指标中，reason=ttl 为过期删除，reason=capacity 为超出容量被丢弃
+ */
+@Slf4j
+@Component
+public class CardStateSweeper {
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${card.state.ttl.idle-seconds:86400}")
+  private long idleSeconds;
+
+  @Value("${card.state.ttl.tick-millis:1000}")
+  private long tickMillis;
+
+  @Value("${card.state.ttl.wheel-slots:512}")
+  private int wheelSlots;
+
+  private final ConcurrentHashMap<String, Deadline> deadlines = new ConcurrentHashMap<>();
+
+  private Slot[] wheel;
+
+  private volatile long sweptTick;
+
+  private volatile Consumer<String> onExpired = outTrackId -> {
+  };
+
+  private ScheduledExecutorService sweeper;
+
+  private Counter expired;
+
+  private Counter overCapacity;
+
+  private static class Deadline {
+    final boolean fixed;
+    volatile long expireAt;
+    volatile long scheduledTick;
+
+    Deadline(long expireAt, boolean fixed) {
+      this.expireAt = expireAt;
+      this.fixed = fixed;
+    }
+  }
+
+  private static class Slot {
+    List<String> outTrackIds = new ArrayList<>();
+  }
+
+  @PostConstruct
+  public void init() {
+    wheel = new Slot[wheelSlots];
+    for (int i = 0; i < wheelSlots; i++) {
+      wheel[i] = new Slot();
+    }
+    sweptTick = System.currentTimeMillis() / tickMillis;
+    expired = Counter.builder("card.state.evicted").tag("reason", "ttl")
+        .description("Card states removed by the expiry sweeper")
+        .register(meterRegistry);
+    overCapacity = Counter.builder("card.state.evicted").tag("reason", "capacity")
+        .description("Card states dropped because the store was full")
+        .register(meterRegistry);
+    sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "card-state-sweeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    sweeper.scheduleAtFixedRate(this::sweep, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void close() {
+    sweeper.shutdownNow();
+  }
+
+  /**
+   * 由 CardStateStore 的实现注册，卡片过期时回调删除状态。
+   * 回调前卡片已从时间轮上移除，回调中应在加锁后用 scheduled 确认期间没有新的写入或访问，再删除状态
+   */
+  public void onExpired(Consumer<String> onExpired) {
+    this.onExpired = onExpired;
+  }
+
+  /**
+   * 访问了卡片的状态，按空闲过期时间重新计时；指定了过期时间的卡片不受影响
+   */
+  public void touch(String outTrackId) {
+    touch(outTrackId, System.currentTimeMillis());
+  }
+
+  /**
+   * 按最后一次访问的时间计算空闲过期时间，用于恢复从文件中读出的卡片
+   */
+  public void touch(String outTrackId, long accessedAtMillis) {
+    long expireAt = accessedAtMillis + idleSeconds * 1000;
+    // 与到期删除在同一个 compute 中互斥：已被删除的重新登记，否则只延长过期时间
+    deadlines.compute(outTrackId, (id, deadline) -> {
+      if (deadline == null) {
+        deadline = new Deadline(expireAt, false);
+        schedule(id, deadline);
+      } else if (!deadline.fixed && deadline.expireAt < expireAt) {
+        deadline.expireAt = expireAt;
+      }
+      return deadline;
+    });
+  }
+
+  /**
+   * 指定卡片的过期时间（毫秒时间戳），之后的访问不再延长
+   */
+  public void expireAt(String outTrackId, long expireAtMillis) {
+    Deadline deadline = new Deadline(expireAtMillis, true);
+    deadlines.put(outTrackId, deadline);
+    schedule(outTrackId, deadline);
+  }
+
+  /**
+   * 指定的过期时间，没有指定时返回 0
+   */
+  public long fixedExpireAt(String outTrackId) {
+    Deadline deadline = deadlines.get(outTrackId);
+    return deadline != null && deadline.fixed ? deadline.expireAt : 0;
+  }
+
+  /**
+   * 卡片是否在等待过期
+   */
+  public boolean scheduled(String outTrackId) {
+    return deadlines.containsKey(outTrackId);
+  }
+
+  /**
+   * 卡片的状态已被删除，不再需要过期
+   */
+  public void cancel(String outTrackId) {
+    deadlines.remove(outTrackId);
+  }
+
+  /**
+   * 卡片的状态因存储已满被丢弃
+   */
+  public void evictedOverCapacity(String outTrackId) {
+    deadlines.remove(outTrackId);
+    overCapacity.increment();
+  }
+
+  private void schedule(String outTrackId, Deadline deadline) {
+    long earliest = sweptTick + 1;
+    // 最多放到一圈之后，更远的到格时再往后放
+    long tick = Math.min(Math.max(Math.floorDiv(deadline.expireAt + tickMillis - 1, tickMillis), earliest),
+        earliest + wheelSlots - 1);
+    deadline.scheduledTick = tick;
+    Slot slot = wheel[(int) Math.floorMod(tick, (long) wheelSlots)];
+    synchronized (slot) {
+      slot.outTrackIds.add(outTrackId);
+    }
+  }
+
+  void sweep() {
+    try {
+      long now = System.currentTimeMillis();
+      long currentTick = now / tickMillis;
+      // 停顿超过一圈时每格只需要处理一次
+      long from = Math.max(sweptTick + 1, currentTick - wheelSlots + 1);
+      int evicted = 0;
+      for (long tick = from; tick <= currentTick; tick++) {
+        sweptTick = tick;
+        evicted += sweepSlot(tick, now);
+      }
+      sweptTick = currentTick;
+      if (evicted > 0) {
+        expired.increment(evicted);
+        log.info("evicted {} expired card states", evicted);
+      }
+    } catch (RuntimeException e) {
+      log.error("sweep card states failed", e);
+    }
+  }
+
+  private int sweepSlot(long tick, long now) {
+    Slot slot = wheel[(int) Math.floorMod(tick, (long) wheelSlots)];
+    List<String> due;
+    synchronized (slot) {
+      due = slot.outTrackIds;
+      slot.outTrackIds = new ArrayList<>();
+    }
+    int evicted = 0;
+    for (String outTrackId : due) {
+      Deadline deadline = deadlines.get(outTrackId);
+      // 已删除，或已重新放到后面的格中
+      if (deadline == null || deadline.scheduledTick > tick) {
+        continue;
+      }
+      // 在 compute 中确认到期后再删除，同时发生的访问要么延长了过期时间，要么在删除后重新登记
+      boolean[] expiredNow = new boolean[1];
+      deadlines.computeIfPresent(outTrackId, (id, current) -> {
+        if (current != deadline) {
+          return current;
+        }
+        if (current.expireAt > now) {
+          schedule(id, current);
+          return current;
+        }
+        expiredNow[0] = true;
+        return null;
+      });
+      if (expiredNow[0]) {
+        onExpired.accept(outTrackId);
+        evicted++;
+      }
+    }
+    return evicted;
+  }
+}
@@ -1,7 +1,9 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.JSONArray;
+import com.card.java.models.DynamicDataProgress;
 import com.dingtalk.open.app.api.callback.OpenDingTalkCallbackListener;
 import com.dingtalk.open.app.api.models.bot.ChatbotMessage;
 
@@ -11,61 +13,54 @@ import org.springframework.stereotype.Component;
 
 import lombok.extern.slf4j.Slf4j;
 
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.UUID;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Component
 public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessage, Void> {
 
   @Autowired
-  private AccessTokenService accessTokenService;
+  private CardTrafficLogger cardTrafficLogger;
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardParamMapEncoder cardParamMapEncoder;
 
-  @Value("${openApiHost}")
-  private String openApiHost;
+  @Autowired
+  private CardApiTransport cardApiTransport;
+
+  @Autowired
+  private CardStateStore cardStateStore;
+
+  @Autowired
+  private AccessTokenCache accessTokenCache;
+
+  @Autowired
+  private CardIdGenerator cardIdGenerator;
+
+  @Autowired
+  private MessageDeduplicator messageDeduplicator;
+
+  @Autowired
+  private CardFanOutDelivery cardFanOutDelivery;
 
   @Value("${dingtalk.app.client-id}")
   private String clientId;
 
+  // 吊顶卡片同时投放到的群，如 dtv1.card//ONE_BOX.{openConversationId}，为空时只投放到当前会话
+  @Value("${card.fan-out.announce-open-space-ids:}")
+  private List<String> announceOpenSpaceIds;
+
   public static String demoDynamicDataSourceId = "demo_dynamic_data_source_id";
-  public static Map<String, Integer> totalByCardInstanceId = new HashMap<>();
-  public static Map<String, Integer> finishedByCardInstanceId = new HashMap<>();
-
-  public static String genCardId(ChatbotMessage message) throws NoSuchAlgorithmException {
-    String factor = message.getSenderId() + '_' + message.getSenderCorpId() + '_' + message.getConversationId() + '_'
-        + message.getMsgId() + '_' + UUID.randomUUID().toString();
-    MessageDigest digest = MessageDigest.getInstance("SHA-256");
-    byte[] hash = digest.digest(factor.getBytes(StandardCharsets.UTF_8));
-    StringBuilder hexString = new StringBuilder();
-    for (byte b : hash) {
-      String hex = Integer.toHexString(0xff & b);
-      if (hex.length() == 1)
-        hexString.append('0');
-      hexString.append(hex);
-    }
-    return hexString.toString();
-  }
 
-  public String createAndDeliverCard(ChatbotMessage message, String cardTemplateId, JSONObject cardData,
-      JSONObject options)
-      throws IOException, InterruptedException, NoSuchAlgorithmException {
-    String cardInstanceId = genCardId(message);
+  // ISV 套件按消息所属的授权企业取 Token，企业内部应用使用本应用的 Token
+  private AccessTokenCache.TokenKey tenantOf(ChatbotMessage message) {
+    return accessTokenCache.keyOf(clientId, message.getChatbotCorpId());
+  }
 
+  private JSONObject buildCreateAndDeliverData(ChatbotMessage message, String cardInstanceId,
+      String cardTemplateId, JSONObject cardData, JSONObject options) {
     boolean supportForward = (boolean) options.getOrDefault("supportForward", true);
     boolean atAll = (boolean) options.getOrDefault("alAll", false);
     boolean atSender = (boolean) options.getOrDefault("atSender", false);
@@ -121,95 +116,117 @@ public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessa
     for (String key : restOptions.keySet()) {
       data.put(key, restOptions.get(key));
     }
+    return data;
+  }
 
-    String url = openApiHost + "/v1.0/card/instances/createAndDeliver";
-
-    OkHttpClient client = new OkHttpClient();
-    MediaType JSON = MediaType.get("application/json; charset=utf-8");
-    RequestBody body = RequestBody.create(data.toJSONString(), JSON);
-
-    Request request = new Request.Builder()
-        .url(url)
-        .addHeader("Content-Type", "application/json")
-        .addHeader("Accept", "*/*")
-        .addHeader("x-acs-dingtalk-access-token", accessTokenService.getAccessToken())
-        .post(body)
-        .build();
-
-    try {
-      Response response = client.newCall(request).execute();
-      log.info("reply card: " + data.toJSONString());
-      if (response.code() != 200) {
-        log.error("reply card failed: " + response.code() + " " + response.body().string());
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
+  public String createAndDeliverCard(ChatbotMessage message, String cardTemplateId, JSONObject cardData,
+      JSONObject options) {
+    String cardInstanceId = cardIdGenerator.generate(message);
+    JSONObject data = buildCreateAndDeliverData(message, cardInstanceId, cardTemplateId, cardData, options);
+
+    CardApiResult result = cardApiTransport.execute(tenantOf(message), CardApiEndpoint.CREATE_AND_DELIVER, data,
+        true);
+    cardTrafficLogger.info(Category.OPEN_API, "reply card", data::toJSONString);
+    if (!result.isSuccess()) {
+      log.error("reply card failed: " + result);
     }
     return cardInstanceId;
   }
 
+  /**
+   * 异步创建并投放卡片，不阻塞 Stream 回调线程，结果中的 outTrackId 即卡片实例 ID
+   */
+  public CompletableFuture<CardApiResult> createAndDeliverCardAsync(ChatbotMessage message, String cardTemplateId,
+      JSONObject cardData, JSONObject options) {
+    String cardInstanceId = cardIdGenerator.generate(message);
+    JSONObject data = buildCreateAndDeliverData(message, cardInstanceId, cardTemplateId, cardData, options);
+    return cardApiTransport.executeAsync(tenantOf(message), CardApiEndpoint.CREATE_AND_DELIVER, data, true);
+  }
+
   @Override
   public Void execute(ChatbotMessage message) {
-
-    String receivedMessage = message.getText().getContent().trim();
-    log.info("received message: " + receivedMessage);
-
+    String msgId = message.getMsgId();
+    // Stream 重复投递的同一条消息直接跳过，不再创建卡片
+    if (!messageDeduplicator.markIfFirst(msgId)) {
+      return null;
+    }
     try {
-      // 卡片模板 ID
-      String cardTemplateId = "c36a2fbe-ff53-44ac-a91d-dedbe3654306.schema"; // 该模板只用于测试使用，如需投入线上使用，请导入卡片模板 json 到自己的应用下
-      // 卡片公有数据，非字符串类型的卡片数据参考文档：https://open.dingtalk.com/document/orgapp/instructions-for-filling-in-api-card-data
-      JSONObject cardData = new JSONObject();
-      Random random = new Random();
-      int month = random.nextInt(12) + 1;
-      String title = String.format("%d月迭代", month);
-      int total = random.nextInt(101) + 100;
-      int finished = 0;
-      cardData.put("title", title);
-      cardData.put("total", total);
-      cardData.put("finished", finished);
-      cardData.put("unfinished", total - finished);
-      cardData.put("progress", 0);
-      cardData.put("update_at", "");
-
-      JSONObject pullConfig = new JSONObject();
-      pullConfig.put("pullStrategy", "ONCE");
-      if (receivedMessage.toUpperCase().equals("RENDER")) {
-        pullConfig.put("pullStrategy", "RENDER");
-      }
-      if (receivedMessage.toUpperCase().equals("INTERVAL")) {
-        // 每隔 10 秒拉取一次数据
-        pullConfig.put("pullStrategy", "INTERVAL");
-        pullConfig.put("interval", 10);
-        pullConfig.put("timeUnit", "SECONDS");
-      }
-      JSONObject openDynamicDataConfig = new JSONObject();
-      openDynamicDataConfig.put("dynamicDataSourceConfigs", new JSONArray()
-          .fluentAdd(new JSONObject()
-              .fluentPut("dynamicDataSourceId", demoDynamicDataSourceId)
-              .fluentPut("pullConfig", pullConfig)));
-
-      // 创建并投放卡片: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
-      JSONObject options = new JSONObject();
-      options.put("openSpaceId", "dtv1.card//ONE_BOX." + message.getConversationId());
-      options.put("topOpenSpaceModel", new JSONObject().fluentPut("spaceType", "ONE_BOX"));
-      options.put("topOpenDeliverModel",
-          new JSONObject().fluentPut("expiredTimeMillis", System.currentTimeMillis() + (1000 * 60 * 3)));
-      options.put("openDynamicDataConfig", openDynamicDataConfig);
-
-      String cardInstanceId = createAndDeliverCard(message, cardTemplateId,
-          jsonObjectUtils.convertJSONValuesToString(cardData), options);
-
-      totalByCardInstanceId.put(cardInstanceId, total);
-      finishedByCardInstanceId.put(cardInstanceId, finished);
-    } catch (NoSuchAlgorithmException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
-    } catch (InterruptedException e) {
-      e.printStackTrace();
-      Thread.currentThread().interrupt();
+      reply(message);
+    } catch (RuntimeException e) {
+      // 处理失败时撤销标记，Stream 重新投递这条消息时可以再处理一次
+      messageDeduplicator.unmark(msgId);
+      throw e;
     }
-
     return null;
   }
+
+  private void reply(ChatbotMessage message) {
+    String receivedMessage = message.getText().getContent().trim();
+    cardTrafficLogger.info(Category.MESSAGE, "received message", () -> receivedMessage);
+
+    // 卡片模板 ID
+    String cardTemplateId = "c36a2fbe-ff53-44ac-a91d-dedbe3654306.schema"; // 该模板只用于测试使用，如需投入线上使用，请导入卡片模板 json 到自己的应用下
+    // 卡片公有数据，非字符串类型的卡片数据参考文档：https://open.dingtalk.com/document/orgapp/instructions-for-filling-in-api-card-data
+    JSONObject cardData = new JSONObject();
+    Random random = new Random();
+    int month = random.nextInt(12) + 1;
+    String title = String.format("%d月迭代", month);
+    int total = random.nextInt(101) + 100;
+    int finished = 0;
+    cardData.put("title", title);
+    cardData.put("total", total);
+    cardData.put("finished", finished);
+    cardData.put("unfinished", total - finished);
+    cardData.put("progress", 0);
+    cardData.put("update_at", "");
+
+    JSONObject pullConfig = new JSONObject();
+    pullConfig.put("pullStrategy", "ONCE");
+    if (receivedMessage.toUpperCase().equals("RENDER")) {
+      pullConfig.put("pullStrategy", "RENDER");
+    }
+    if (receivedMessage.toUpperCase().equals("INTERVAL")) {
+      // 每隔 10 秒拉取一次数据
+      pullConfig.put("pullStrategy", "INTERVAL");
+      pullConfig.put("interval", 10);
+      pullConfig.put("timeUnit", "SECONDS");
+    }
+    JSONObject openDynamicDataConfig = new JSONObject();
+    openDynamicDataConfig.put("dynamicDataSourceConfigs", new JSONArray()
+        .fluentAdd(new JSONObject()
+            .fluentPut("dynamicDataSourceId", demoDynamicDataSourceId)
+            .fluentPut("pullConfig", pullConfig)));
+
+    // 创建并投放卡片: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
+    // 吊顶 3 分钟后过期，卡片的进度也在这时删除
+    long expiredTimeMillis = System.currentTimeMillis() + (1000 * 60 * 3);
+    JSONObject options = new JSONObject();
+    options.put("openSpaceId", "dtv1.card//ONE_BOX." + message.getConversationId());
+    options.put("topOpenSpaceModel", new JSONObject().fluentPut("spaceType", "ONE_BOX"));
+    options.put("topOpenDeliverModel", new JSONObject().fluentPut("expiredTimeMillis", expiredTimeMillis));
+    options.put("openDynamicDataConfig", openDynamicDataConfig);
+
+    String cardInstanceId = createAndDeliverCard(message, cardTemplateId,
+        cardParamMapEncoder.encode(cardData), options);
+
+    cardStateStore.put(cardInstanceId, new DynamicDataProgress(total, finished), expiredTimeMillis);
+
+    // 批量投放到配置的群。吊顶几分钟后就过期，不是关键调用，熔断期间直接丢弃
+    if (!announceOpenSpaceIds.isEmpty()) {
+      JSONObject announceOptions = new JSONObject();
+      announceOptions.put("topOpenSpaceModel", options.get("topOpenSpaceModel"));
+      announceOptions.put("topOpenDeliverModel", options.get("topOpenDeliverModel"));
+      announceOptions.put("openDynamicDataConfig", openDynamicDataConfig);
+      CompletableFuture<CardFanOutDelivery.Report> delivered = cardFanOutDelivery.deliver(tenantOf(message),
+          cardTemplateId, cardParamMapEncoder.encode(cardData), announceOpenSpaceIds, announceOptions, false);
+      // 每张投放成功的卡片各自记录进度，动态数据源按卡片实例 ID 查询
+      delivered.thenAccept(report -> {
+        for (CardApiResult result : report.getResults()) {
+          if (result.isSuccess()) {
+            cardStateStore.put(result.getOutTrackId(), new DynamicDataProgress(total, finished), expiredTimeMillis);
+          }
+        }
+      });
+    }
+  }
 }
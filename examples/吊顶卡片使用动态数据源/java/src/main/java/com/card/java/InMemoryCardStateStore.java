@@ -0,0 +1,123 @@
+package com.card.java;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * 进程内的卡片状态存储，最多保存约 card.state.max-cards 张卡片的状态。
+ * 按 outTrackId 分成 64 段，每段是一个按访问顺序排列的 LinkedHashMap，各自加锁，不同卡片之间基本互不阻塞；
+ * 每段的容量为 max-cards 的 1/64，超出时丢弃该段中最久未访问的卡片
+ */
+@Component
+@ConditionalOnProperty(name = "card.state.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryCardStateStore implements CardStateStore {
+  private static final int SEGMENTS = 64;
+
+  @Autowired
+  private CardStateSweeper cardStateSweeper;
+
+  @Value("${card.state.max-cards:10000}")
+  private int maxCards;
+
+  private Segment[] segments;
+
+  private class Segment extends LinkedHashMap<String, Object> {
+    private final int capacity;
+
+    Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+      if (size() <= capacity) {
+        return false;
+      }
+      cardStateSweeper.evictedOverCapacity(eldest.getKey());
+      return true;
+    }
+  }
+
+  @PostConstruct
+  public void init() {
+    int capacity = Math.max(1, (maxCards + SEGMENTS - 1) / SEGMENTS);
+    segments = new Segment[SEGMENTS];
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(capacity);
+    }
+    cardStateSweeper.onExpired(outTrackId -> {
+      Segment segment = segmentFor(outTrackId);
+      synchronized (segment) {
+        if (!cardStateSweeper.scheduled(outTrackId)) {
+          segment.remove(outTrackId);
+        }
+      }
+    });
+  }
+
+  @Override
+  public <T> T get(String outTrackId, Class<T> type) {
+    Segment segment = segmentFor(outTrackId);
+    synchronized (segment) {
+      Object state = segment.get(outTrackId);
+      if (state != null) {
+        cardStateSweeper.touch(outTrackId);
+      }
+      return type.cast(state);
+    }
+  }
+
+  @Override
+  public void put(String outTrackId, Object state) {
+    Segment segment = segmentFor(outTrackId);
+    synchronized (segment) {
+      segment.put(outTrackId, state);
+      cardStateSweeper.touch(outTrackId);
+    }
+  }
+
+  @Override
+  public void put(String outTrackId, Object state, long expireAtMillis) {
+    Segment segment = segmentFor(outTrackId);
+    synchronized (segment) {
+      segment.put(outTrackId, state);
+      cardStateSweeper.expireAt(outTrackId, expireAtMillis);
+    }
+  }
+
+  @Override
+  public <T> T compute(String outTrackId, Class<T> type, UnaryOperator<T> update) {
+    Segment segment = segmentFor(outTrackId);
+    synchronized (segment) {
+      T next = update.apply(type.cast(segment.get(outTrackId)));
+      if (next == null) {
+        remove(outTrackId);
+      } else {
+        put(outTrackId, next);
+      }
+      return next;
+    }
+  }
+
+  @Override
+  public void remove(String outTrackId) {
+    Segment segment = segmentFor(outTrackId);
+    synchronized (segment) {
+      segment.remove(outTrackId);
+      cardStateSweeper.cancel(outTrackId);
+    }
+  }
+
+  private Segment segmentFor(String outTrackId) {
+    int h = outTrackId.hashCode();
+    return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+  }
+}
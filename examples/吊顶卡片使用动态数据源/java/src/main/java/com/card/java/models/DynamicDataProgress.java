@@ -0,0 +1,16 @@
+package com.card.java.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 吊顶卡片的任务进度，每次动态数据源拉取数据时 finished 加一
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DynamicDataProgress {
+  private int total;
+  private int finished;
+}
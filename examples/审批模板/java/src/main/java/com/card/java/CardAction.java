@@ -0,0 +1,26 @@
+package com.card.java;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记处理卡片回传请求的方法，由 {@link CardActionRouter} 在启动时建立分发表。
+ * 方法必须是 public，只有一个 CardCallback 参数，返回 CardCallbackResponse，CardCallback 的泛型参数即 params 绑定的类型。
+ * <ul>
+ * <li>只设置 value：匹配 cardPrivateData.actionIds 中的动作 ID</li>
+ * <li>设置 param 和 value：回传参数 param 的值等于 value 时匹配，如 param = "action", value = "agree"</li>
+ * <li>只设置 param：回传参数 param 有值（非空）时匹配，如群接龙的 delete_uid</li>
+ * <li>都不设置：没有其他动作匹配时的默认处理</li>
+ * </ul>
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CardAction {
+  String value() default "";
+
+  String param() default "";
+}
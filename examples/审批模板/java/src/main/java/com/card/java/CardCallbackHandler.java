@@ -1,11 +1,10 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import lombok.extern.slf4j.Slf4j;
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
-import com.card.java.models.CardCallbackMessage;
-import com.card.java.models.CardPrivateData;
-import com.card.java.models.CardPrivateDataWrapper;
+import com.card.java.models.CardCallback;
+import com.card.java.models.ApprovalParams;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import com.dingtalk.open.app.api.callback.OpenDingTalkCallbackListener;
@@ -16,42 +15,50 @@ import java.util.Random;
 
 @Slf4j
 @Component
-public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, JSONObject> {
+public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, CardCallbackResponse> {
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardTrafficLogger cardTrafficLogger;
+
+  @Autowired
+  private CardCallbackResponseWriter cardCallbackResponseWriter;
+
+  @Autowired
+  private CardActionRouter cardActionRouter;
 
   @Override
-  public JSONObject execute(String messageString) {
+  public CardCallbackResponse execute(String messageString) {
     /**
      * 卡片事件回调文档：https://open.dingtalk.com/document/orgapp/event-callback-card
      */
-    log.info("card callback message: " + messageString);
-    JSONObject updateCardData = new JSONObject(); // 更新公有数据
-    JSONObject userPrivateData = new JSONObject(); // 更新触发回传请求事件的人的私有数据
+    cardTrafficLogger.info(Category.CALLBACK, "card callback message", () -> messageString);
+    CardCallbackResponse response = cardActionRouter.dispatch(messageString);
+    if (response == null) {
+      response = buildResponse(new JSONObject(), new JSONObject());
+    }
 
-    CardCallbackMessage message = JSON.parseObject(messageString, CardCallbackMessage.class);
-    CardPrivateDataWrapper content = JSON.parseObject(message.getContent(), CardPrivateDataWrapper.class);
-    CardPrivateData cardPrivateData = content.getCardPrivateData();
-    JSONObject params = cardPrivateData.getParams();
-    String action = params.getString("action");
+    cardTrafficLogger.info(Category.CALLBACK, "card callback response", response::toString);
+    return response;
+  }
 
-    if (action.equals("agree") || action.equals("reject")) {
-      updateCardData.put("status", action);
-    }
+  @CardAction(param = "action", value = "agree")
+  public CardCallbackResponse agree(CardCallback<ApprovalParams> callback) {
+    return updateStatus(callback.getParams().getAction());
+  }
 
-    JSONObject cardUpdateOptions = new JSONObject();
-    cardUpdateOptions.put("updateCardDataByKey", true);
-    cardUpdateOptions.put("updatePrivateDataByKey", true);
+  @CardAction(param = "action", value = "reject")
+  public CardCallbackResponse reject(CardCallback<ApprovalParams> callback) {
+    return updateStatus(callback.getParams().getAction());
+  }
 
-    JSONObject response = new JSONObject();
-    response.put("cardUpdateOptions", cardUpdateOptions);
-    response.put("cardData",
-        new JSONObject().fluentPut("cardParamMap", jsonObjectUtils.convertJSONValuesToString(updateCardData)));
-    response.put("userPrivateData",
-        new JSONObject().fluentPut("cardParamMap", jsonObjectUtils.convertJSONValuesToString(userPrivateData)));
+  private CardCallbackResponse updateStatus(String action) {
+    JSONObject updateCardData = new JSONObject(); // 更新公有数据
+    JSONObject userPrivateData = new JSONObject(); // 更新触发回传请求事件的人的私有数据
+    updateCardData.put("status", action);
+    return buildResponse(updateCardData, userPrivateData);
+  }
 
-    log.info("card callback response: " + JSON.toJSONString(response));
-    return response;
+  private CardCallbackResponse buildResponse(JSONObject updateCardData, JSONObject userPrivateData) {
+    return cardCallbackResponseWriter.write(updateCardData, userPrivateData);
   }
 }
@@ -0,0 +1,22 @@
+package com.card.java;
+
+/**
+ * 已经编码好的卡片回传请求响应，由 {@link CardCallbackResponseWriter} 生成。
+ * 序列化时原样输出 JSON 文本，不会再次编码；toString 返回同一份文本，打日志时也不需要再序列化
+ */
+public final class CardCallbackResponse {
+  private final String json;
+
+  CardCallbackResponse(String json) {
+    this.json = json;
+  }
+
+  public String toJSONString() {
+    return json;
+  }
+
+  @Override
+  public String toString() {
+    return json;
+  }
+}
@@ -0,0 +1,39 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONObject;
+import com.dingtalk.open.app.api.GenericEventListener;
+import com.dingtalk.open.app.api.message.GenericOpenDingTalkEvent;
+import com.dingtalk.open.app.stream.protocol.event.EventAckStatus;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 接收钉钉通过 Stream 推送的事件，dingtalk.app.type=suite 时把 suite_ticket 事件中的 suiteTicket 交给
+ * {@link AccessTokenService}，用于获取授权企业的 accessToken。其他事件直接确认
+ */
+@Slf4j
+@Component
+public class SuiteTicketListener implements GenericEventListener {
+  static final String SUITE_TICKET_EVENT = "suite_ticket";
+
+  @Autowired
+  private AccessTokenService accessTokenService;
+
+  @Override
+  public EventAckStatus onEvent(GenericOpenDingTalkEvent event) {
+    if (!accessTokenService.isSuite() || !SUITE_TICKET_EVENT.equals(event.getEventType())) {
+      return EventAckStatus.SUCCESS;
+    }
+    JSONObject data = event.getData();
+    String suiteTicket = data == null ? null : data.getString("suiteTicket");
+    if (suiteTicket == null || suiteTicket.isEmpty()) {
+      log.warn("suite ticket event without suiteTicket, eventId={}", event.getEventId());
+      return EventAckStatus.SUCCESS;
+    }
+    accessTokenService.updateSuiteTicket(suiteTicket);
+    log.info("suite ticket updated, eventId={}", event.getEventId());
+    return EventAckStatus.SUCCESS;
+  }
+}
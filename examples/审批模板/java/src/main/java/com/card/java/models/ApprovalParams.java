@@ -0,0 +1,13 @@
+package com.card.java.models;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import lombok.Data;
+
+/**
+ * 审批卡片的回传参数，action 为 agree 或 reject
+ */
+@Data
+public class ApprovalParams {
+  @JSONField(name = "action")
+  private String action;
+}
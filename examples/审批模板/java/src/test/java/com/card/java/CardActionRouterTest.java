@@ -0,0 +1,164 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONObject;
+import com.card.java.models.ApprovalParams;
+import com.card.java.models.CardCallback;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CardActionRouterTest {
+
+  private ApplicationContext applicationContext;
+
+  private Handler handler;
+
+  private CardCallbackDecoder decoder;
+
+  private CardActionRouter router;
+
+  public static class Handler {
+    String invoked;
+    CardCallback<?> callback;
+
+    private CardCallbackResponse record(String name, CardCallback<?> callback) {
+      this.invoked = name;
+      this.callback = callback;
+      return new CardCallbackResponse("{\"handler\":\"" + name + "\"}");
+    }
+
+    @CardAction("btn_submit")
+    public CardCallbackResponse submit(CardCallback<JSONObject> callback) {
+      return record("submit", callback);
+    }
+
+    @CardAction(param = "action", value = "agree")
+    public CardCallbackResponse agree(CardCallback<ApprovalParams> callback) {
+      return record("agree", callback);
+    }
+
+    @CardAction(param = "comment")
+    public CardCallbackResponse comment(CardCallback<JSONObject> callback) {
+      return record("comment", callback);
+    }
+
+    @CardAction
+    public CardCallbackResponse fallback(CardCallback<JSONObject> callback) {
+      return record("fallback", callback);
+    }
+  }
+
+  public static class Duplicated {
+    @CardAction(param = "action", value = "agree")
+    public CardCallbackResponse first(CardCallback<JSONObject> callback) {
+      return null;
+    }
+
+    @CardAction(param = "action", value = "agree")
+    public CardCallbackResponse second(CardCallback<JSONObject> callback) {
+      return null;
+    }
+  }
+
+  @BeforeEach
+  void setUp() {
+    handler = new Handler();
+    router = newRouter(Handler.class, handler);
+  }
+
+  private CardActionRouter newRouter(Class<?> beanType, Object bean) {
+    applicationContext = mock(ApplicationContext.class);
+    when(applicationContext.getBeanDefinitionNames()).thenReturn(new String[] { "handler", "other" });
+    when(applicationContext.getType("handler", false)).thenAnswer(invocation -> beanType);
+    when(applicationContext.getType("other", false)).thenAnswer(invocation -> String.class);
+    when(applicationContext.getBean("handler")).thenReturn(bean);
+
+    CardActionRouter cardActionRouter = new CardActionRouter();
+    ReflectionTestUtils.setField(cardActionRouter, "applicationContext", applicationContext);
+    decoder = spy(new CardCallbackDecoder());
+    ReflectionTestUtils.setField(cardActionRouter, "cardCallbackDecoder", decoder);
+    cardActionRouter.init();
+    return cardActionRouter;
+  }
+
+  private static String message(List<String> actionIds, JSONObject params) {
+    JSONObject cardPrivateData = new JSONObject().fluentPut("actionIds", actionIds).fluentPut("params", params);
+    return new JSONObject()
+        .fluentPut("outTrackId", "card")
+        .fluentPut("userId", "user")
+        .fluentPut("content", new JSONObject().fluentPut("cardPrivateData", cardPrivateData).toJSONString())
+        .toJSONString();
+  }
+
+  @Test
+  void buildsTableBeforeHandlersAreCreated() {
+    // 初始化时只读取 Bean 定义的类型，Stream 连接建立前分发表已经就绪
+    verify(applicationContext, never()).getBean(anyString());
+
+    router.dispatch(message(null, new JSONObject().fluentPut("action", "agree")));
+    router.dispatch(message(null, new JSONObject().fluentPut("action", "agree")));
+    verify(applicationContext, times(1)).getBean("handler");
+  }
+
+  @Test
+  void matchesActionIdBeforeParams() {
+    CardCallbackResponse response = router.dispatch(message(Arrays.asList("btn_other", "btn_submit"),
+        new JSONObject().fluentPut("action", "agree")));
+    assertThat(response.toJSONString()).isEqualTo("{\"handler\":\"submit\"}");
+    assertThat(handler.callback.getParams()).isInstanceOf(JSONObject.class);
+  }
+
+  @Test
+  void bindsTypedParamsOfMatchedAction() {
+    router.dispatch(message(null, new JSONObject().fluentPut("action", "agree").fluentPut("comment", "ok")));
+    assertThat(handler.invoked).isEqualTo("agree");
+    assertThat(handler.callback.getParams()).isInstanceOf(ApprovalParams.class);
+    assertThat(((ApprovalParams) handler.callback.getParams()).getAction()).isEqualTo("agree");
+    assertThat(handler.callback.getOutTrackId()).isEqualTo("card");
+    assertThat(handler.callback.getUserId()).isEqualTo("user");
+    // 匹配和绑定共用一次解析
+    verify(decoder, times(1)).decode(anyString(), any());
+  }
+
+  @Test
+  void matchesPresentParamThenFallback() {
+    router.dispatch(message(null, new JSONObject().fluentPut("action", "reject").fluentPut("comment", "no")));
+    assertThat(handler.invoked).isEqualTo("comment");
+
+    // 空字符串视为没有值
+    router.dispatch(message(null, new JSONObject().fluentPut("comment", "")));
+    assertThat(handler.invoked).isEqualTo("fallback");
+
+    router.dispatch(message(null, null));
+    assertThat(handler.invoked).isEqualTo("fallback");
+  }
+
+  @Test
+  void returnsNullWithoutMatchingAction() {
+    CardActionRouter empty = newRouter(String.class, "");
+    assertThat(empty.dispatch(message(null, new JSONObject().fluentPut("action", "agree")))).isNull();
+  }
+
+  @Test
+  void rejectsDuplicatedActions() {
+    assertThatThrownBy(() -> newRouter(Duplicated.class, new Duplicated()))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("duplicated @CardAction");
+  }
+}
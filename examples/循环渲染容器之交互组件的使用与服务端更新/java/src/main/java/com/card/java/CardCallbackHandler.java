@@ -1,12 +1,11 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import lombok.extern.slf4j.Slf4j;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
-import com.card.java.models.CardCallbackMessage;
-import com.card.java.models.CardPrivateData;
-import com.card.java.models.CardPrivateDataWrapper;
+import com.card.java.models.CardCallback;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
@@ -25,10 +24,19 @@ import org.springframework.stereotype.Component;
 
 @Slf4j
 @Component
-public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, JSONObject> {
+public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, CardCallbackResponse> {
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardTrafficLogger cardTrafficLogger;
+
+  @Autowired
+  private CardCallbackResponseWriter cardCallbackResponseWriter;
+
+  @Autowired
+  private CardActionRouter cardActionRouter;
+
+  @Autowired
+  private CardStateStore cardStateStore;
 
   private static Map<String, String> valueKeyMap = new HashMap<>();
 
@@ -44,132 +52,148 @@ public class CardCallbackHandler implements OpenDingTalkCallbackListener<String,
   }
 
   @Override
-  public JSONObject execute(String messageString) {
+  public CardCallbackResponse execute(String messageString) {
     /**
      * 卡片事件回调文档：https://open.dingtalk.com/document/orgapp/event-callback-card
      */
-    log.info("card callback message: " + messageString);
-    JSONObject userPrivateData = new JSONObject();
+    cardTrafficLogger.info(Category.CALLBACK, "card callback message", () -> messageString);
+    CardCallbackResponse response = cardActionRouter.dispatch(messageString);
+
+    cardTrafficLogger.info(Category.CALLBACK, "card callback response", () -> response);
+    return response;
+  }
 
-    CardCallbackMessage message = JSON.parseObject(messageString, CardCallbackMessage.class);
-    String outTrackId = message.getOutTrackId();
-    CardPrivateDataWrapper content = JSON.parseObject(message.getContent(), CardPrivateDataWrapper.class);
-    CardPrivateData cardPrivateData = content.getCardPrivateData();
-    JSONObject params = cardPrivateData.getParams();
-
-    JSONArray submitFormFields = (JSONArray) params.get("submit_form_fields");
-
-    if (submitFormFields != null && !submitFormFields.isEmpty()) {
-      // 提交表单，做必填校验，响应错误提示或者响应提交成功处理
-      List<String> requiredErrorLabels = new ArrayList<>();
-      for (int i = 0; i < submitFormFields.size(); i++) {
-        JSONObject formField = submitFormFields.getJSONObject(i);
-        String formFieldType = formField.getString("type");
-        if (!valueKeyMap.containsKey(formFieldType)) {
-          userPrivateData.put("err_msg", "无效的表单类型「" + formFieldType + "」");
-          break;
+  @CardAction(param = "submit_form_fields")
+  public CardCallbackResponse submit(CardCallback<JSONObject> callback) {
+    JSONObject userPrivateData = new JSONObject();
+    JSONArray submitFormFields = (JSONArray) callback.getParams().get("submit_form_fields");
+
+    // 提交表单，做必填校验，响应错误提示或者响应提交成功处理
+    List<String> requiredErrorLabels = new ArrayList<>();
+    for (int i = 0; i < submitFormFields.size(); i++) {
+      JSONObject formField = submitFormFields.getJSONObject(i);
+      String formFieldType = formField.getString("type");
+      if (!valueKeyMap.containsKey(formFieldType)) {
+        userPrivateData.put("err_msg", "无效的表单类型「" + formFieldType + "」");
+        break;
+      }
+      String formFieldLabel = formField.getString("label");
+      Boolean formFieldRequired = formField.getBooleanValue("required");
+      Object formFieldValue = formField.get(valueKeyMap.get(formFieldType));
+
+      if (formFieldType.equals("CHECKBOX_LIST") || formFieldType.equals("CHECKBOX_LIST_MULTI")) {
+        Predicate<JSONObject> checkedFilter = (JSONObject x) -> x.getBooleanValue("checked");
+        long checkedCount = formField.getJSONArray(valueKeyMap.get(formFieldType)).stream()
+            .map(JSONObject.class::cast).filter(checkedFilter).count();
+        if (formFieldRequired && checkedCount == 0) {
+          requiredErrorLabels.add(formFieldLabel);
         }
-        String formFieldLabel = formField.getString("label");
-        Boolean formFieldRequired = formField.getBooleanValue("required");
-        Object formFieldValue = formField.get(valueKeyMap.get(formFieldType));
-
-        if (formFieldType.equals("CHECKBOX_LIST") || formFieldType.equals("CHECKBOX_LIST_MULTI")) {
-          Predicate<JSONObject> checkedFilter = (JSONObject x) -> x.getBooleanValue("checked");
-          long checkedCount = formField.getJSONArray(valueKeyMap.get(formFieldType)).stream()
-              .map(JSONObject.class::cast).filter(checkedFilter).count();
-          if (formFieldRequired && checkedCount == 0) {
-            requiredErrorLabels.add(formFieldLabel);
-          }
-        } else if (formFieldType.equals("SELECT")) {
-          if (formFieldRequired && !(formFieldValue instanceof Integer && (Integer) formFieldValue >= 0)) {
+      } else if (formFieldType.equals("SELECT")) {
+        if (formFieldRequired && !(formFieldValue instanceof Integer && (Integer) formFieldValue >= 0)) {
+          requiredErrorLabels.add(formFieldLabel);
+        }
+      } else {
+        try {
+          if (formFieldRequired && isEmpty(formFieldValue)) {
             requiredErrorLabels.add(formFieldLabel);
           }
-        } else {
-          try {
-            if (formFieldRequired && isEmpty(formFieldValue)) {
-              requiredErrorLabels.add(formFieldLabel);
-            }
-          } catch (IllegalAccessException e) {
-            e.printStackTrace();
-          }
+        } catch (IllegalAccessException e) {
+          e.printStackTrace();
         }
       }
+    }
 
-      if (!userPrivateData.containsKey("err_msg")) {
-        if (requiredErrorLabels.isEmpty()) {
-          userPrivateData.put("form_status", "disabled");
-          userPrivateData.put("button_text", "已提交");
-        } else {
-          userPrivateData.put("err_msg", "请填写必填项「" + String.join(", ", requiredErrorLabels) + "」");
-        }
-      }
-    } else {
-      String updateName = params.getString("name");
-      if (updateName == null) {
-        userPrivateData.put("err_msg", "服务异常");
+    if (!userPrivateData.containsKey("err_msg")) {
+      if (requiredErrorLabels.isEmpty()) {
+        userPrivateData.put("form_status", "disabled");
+        userPrivateData.put("button_text", "已提交");
       } else {
-        log.info("cardInstanceId: " + outTrackId);
-        JSONArray formFields = ChatBotHandler.formFieldsByInstanceId.get(outTrackId);
-        for (int i = 0; i < formFields.size(); i++) {
-          JSONObject formField = formFields.getJSONObject(i);
-          if (formField.getString("name").equals(updateName)) {
-            Boolean remove = false;
-            try {
-              remove = !isEmpty(params.getString("remove"));
-            } catch (IllegalAccessException e) {
-              e.printStackTrace();
-            }
-
-            String updateType = params.getString("type");
-            String updateKey = valueKeyMap.get(updateType);
-            Object updateValue = "";
-            if (remove && updateType.equals("multiSelect")) {
-              updateType = "MULTI_SELECT";
-              updateKey = valueKeyMap.get(updateType);
-              int removeIndex = params.getJSONObject(updateName).getIntValue("index");
-              updateValue = formField.getJSONArray(updateKey).toJavaList(Integer.class).stream()
-                  .filter(v -> v != removeIndex).collect(Collectors.toList());
-            } else if (updateType.equals("CHECKBOX_LIST")) {
-              updateValue = formField.getJSONArray(updateKey).stream()
-                  .map(obj -> ((JSONObject) obj).fluentPut("checked",
-                      ((JSONObject) obj).getIntValue("value") == params.getIntValue("value")))
-                  .collect(Collectors.toCollection(JSONArray::new));
-            } else if (updateType.equals("CHECKBOX_LIST_MULTI")) {
-              updateValue = formField.getJSONArray(updateKey).stream().map(obj -> {
-                JSONObject json = (JSONObject) obj;
-                boolean checked = json.getIntValue("value") == params.getIntValue("value")
-                    ? !json.getBooleanValue("checked")
-                    : json.getBooleanValue("checked");
-                return json.fluentPut("checked", checked);
-              }).collect(Collectors.toCollection(JSONArray::new));
-            } else {
-              updateValue = params.get(updateName);
-              if (updateType.equals("SELECT")) {
-                updateValue = ((JSONObject) updateValue).getIntValue("index");
-              } else if (updateType.equals("MULTI_SELECT")) {
-                updateValue = ((JSONObject) updateValue).getJSONArray("index");
-              } else if (updateType.equals("CHECKBOX")) {
-                updateValue = !formField.getBooleanValue(updateKey);
-              }
-            }
-            formField.put(updateKey, updateValue);
+        userPrivateData.put("err_msg", "请填写必填项「" + String.join(", ", requiredErrorLabels) + "」");
+      }
+    }
+    return buildResponse(userPrivateData);
+  }
+
+  @CardAction(param = "name")
+  public CardCallbackResponse update(CardCallback<JSONObject> callback) {
+    JSONObject userPrivateData = new JSONObject();
+    String outTrackId = callback.getOutTrackId();
+    JSONObject params = callback.getParams();
+    String updateName = params.getString("name");
+
+    log.info("cardInstanceId: {}", outTrackId);
+    // 在卡片状态的锁内修改表单字段并编码，编码结果与 CardParamMapEncoder 对非字符串值的处理相同
+    cardStateStore.compute(outTrackId, JSONArray.class, formFields -> {
+      if (formFields == null) {
+        return null;
+      }
+      updateFormFields(formFields, updateName, params);
+      userPrivateData.put("form_fields", JSON.toJSONString(formFields));
+      return formFields;
+    });
+    if (!userPrivateData.containsKey("form_fields")) {
+      userPrivateData.put("err_msg", "服务异常");
+    }
+    return buildResponse(userPrivateData);
+  }
+
+  private void updateFormFields(JSONArray formFields, String updateName, JSONObject params) {
+    for (int i = 0; i < formFields.size(); i++) {
+      JSONObject formField = formFields.getJSONObject(i);
+      if (formField.getString("name").equals(updateName)) {
+        Boolean remove = false;
+        try {
+          remove = !isEmpty(params.getString("remove"));
+        } catch (IllegalAccessException e) {
+          e.printStackTrace();
+        }
+
+        String updateType = params.getString("type");
+        String updateKey = valueKeyMap.get(updateType);
+        Object updateValue = "";
+        if (remove && updateType.equals("multiSelect")) {
+          updateType = "MULTI_SELECT";
+          updateKey = valueKeyMap.get(updateType);
+          int removeIndex = params.getJSONObject(updateName).getIntValue("index");
+          updateValue = formField.getJSONArray(updateKey).toJavaList(Integer.class).stream()
+              .filter(v -> v != removeIndex).collect(Collectors.toList());
+        } else if (updateType.equals("CHECKBOX_LIST")) {
+          updateValue = formField.getJSONArray(updateKey).stream()
+              .map(obj -> ((JSONObject) obj).fluentPut("checked",
+                  ((JSONObject) obj).getIntValue("value") == params.getIntValue("value")))
+              .collect(Collectors.toCollection(JSONArray::new));
+        } else if (updateType.equals("CHECKBOX_LIST_MULTI")) {
+          updateValue = formField.getJSONArray(updateKey).stream().map(obj -> {
+            JSONObject json = (JSONObject) obj;
+            boolean checked = json.getIntValue("value") == params.getIntValue("value")
+                ? !json.getBooleanValue("checked")
+                : json.getBooleanValue("checked");
+            return json.fluentPut("checked", checked);
+          }).collect(Collectors.toCollection(JSONArray::new));
+        } else {
+          updateValue = params.get(updateName);
+          if (updateType.equals("SELECT")) {
+            updateValue = ((JSONObject) updateValue).getIntValue("index");
+          } else if (updateType.equals("MULTI_SELECT")) {
+            updateValue = ((JSONObject) updateValue).getJSONArray("index");
+          } else if (updateType.equals("CHECKBOX")) {
+            updateValue = !formField.getBooleanValue(updateKey);
           }
         }
-        userPrivateData.put("form_fields", formFields);
+        formField.put(updateKey, updateValue);
       }
     }
+  }
 
-    JSONObject cardUpdateOptions = new JSONObject();
-    cardUpdateOptions.put("updateCardDataByKey", true);
-    cardUpdateOptions.put("updatePrivateDataByKey", true);
-
-    JSONObject response = new JSONObject();
-    response.put("cardUpdateOptions", cardUpdateOptions);
-    response.put("userPrivateData",
-        new JSONObject().fluentPut("cardParamMap", jsonObjectUtils.convertJSONValuesToString(userPrivateData)));
+  @CardAction
+  public CardCallbackResponse unknown(CardCallback<JSONObject> callback) {
+    JSONObject userPrivateData = new JSONObject();
+    userPrivateData.put("err_msg", "服务异常");
+    return buildResponse(userPrivateData);
+  }
 
-    log.info("card callback response: " + JSON.toJSONString(response));
-    return response;
+  private CardCallbackResponse buildResponse(JSONObject userPrivateData) {
+    return cardCallbackResponseWriter.write(userPrivateData);
   }
 
   public static boolean isEmpty(Object value) throws IllegalAccessException {
@@ -0,0 +1,276 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * 保存在本地目录 card.state.file.dir 下的卡片状态存储，每张卡片一个 JSON 文件，进程重启后可以恢复，不依赖外部服务。
+ * 写入时只在内存中记下编码好的状态，由后台线程每 card.state.file.flush-millis 毫秒批量落盘，
+ * 同一张卡片在一个周期内的多次更新只写最后一次；文件先写临时文件再原子替换，不会读到写了一半的状态。
+ * 读取经过最多 card.state.max-cards 张卡片的 LRU 缓存，未命中时依次读待落盘的状态和文件。
+ * 文件内容为 {"expireAt":指定的过期时间，没有指定时为 0,"state":状态}；
+ * 启动时按文件的修改时间登记空闲过期时间，读出文件后再按其中指定的过期时间过期
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "card.state.store", havingValue = "file")
+public class FileCardStateStore implements CardStateStore {
+  private static final int LOCK_STRIPES = 64;
+
+  private static final String FILE_SUFFIX = ".json";
+
+  @Autowired
+  private CardStateSweeper cardStateSweeper;
+
+  @Value("${card.state.file.dir:card-state}")
+  private String dir;
+
+  @Value("${card.state.file.flush-millis:200}")
+  private long flushMillis;
+
+  @Value("${card.state.max-cards:10000}")
+  private int maxCards;
+
+  private Path directory;
+
+  private Map<String, Object> cache;
+
+  // 待落盘的文件内容，content 为 null 表示删除
+  private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+
+  private final Object[] locks = new Object[LOCK_STRIPES];
+
+  private ScheduledExecutorService flusher;
+
+  private static class Pending {
+    final String content;
+
+    Pending(String content) {
+      this.content = content;
+    }
+  }
+
+  @PostConstruct
+  public void init() {
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new Object();
+    }
+    cache = Collections.synchronizedMap(new LinkedHashMap<String, Object>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+        return size() > maxCards;
+      }
+    });
+    directory = Paths.get(dir);
+    try {
+      Files.createDirectories(directory);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    cardStateSweeper.onExpired(this::expire);
+    scheduleStoredStates();
+    flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "card-state-flusher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    log.info("file card state store started, dir={}", directory.toAbsolutePath());
+  }
+
+  @PreDestroy
+  public void close() throws InterruptedException {
+    flusher.shutdown();
+    flusher.awaitTermination(5, TimeUnit.SECONDS);
+    flush();
+  }
+
+  @Override
+  public <T> T get(String outTrackId, Class<T> type) {
+    Object cached = cache.get(outTrackId);
+    if (cached != null) {
+      cardStateSweeper.touch(outTrackId);
+      return type.cast(cached);
+    }
+    synchronized (lockFor(outTrackId)) {
+      cached = cache.get(outTrackId);
+      if (cached != null) {
+        cardStateSweeper.touch(outTrackId);
+        return type.cast(cached);
+      }
+      Pending written = pending.get(outTrackId);
+      String content = written != null ? written.content : read(outTrackId);
+      if (content == null) {
+        return null;
+      }
+      JSONObject file = JSON.parseObject(content);
+      long expireAt = file.getLongValue("expireAt");
+      if (expireAt > 0 && expireAt <= System.currentTimeMillis()) {
+        remove(outTrackId);
+        return null;
+      }
+      if (expireAt > 0) {
+        cardStateSweeper.expireAt(outTrackId, expireAt);
+      } else {
+        cardStateSweeper.touch(outTrackId);
+      }
+      T state = file.getObject("state", type);
+      cache.put(outTrackId, state);
+      return state;
+    }
+  }
+
+  @Override
+  public void put(String outTrackId, Object state) {
+    synchronized (lockFor(outTrackId)) {
+      cardStateSweeper.touch(outTrackId);
+      write(outTrackId, state, cardStateSweeper.fixedExpireAt(outTrackId));
+    }
+  }
+
+  @Override
+  public void put(String outTrackId, Object state, long expireAtMillis) {
+    synchronized (lockFor(outTrackId)) {
+      cardStateSweeper.expireAt(outTrackId, expireAtMillis);
+      write(outTrackId, state, expireAtMillis);
+    }
+  }
+
+  private void write(String outTrackId, Object state, long expireAt) {
+    cache.put(outTrackId, state);
+    pending.put(outTrackId,
+        new Pending("{\"expireAt\":" + expireAt + ",\"state\":" + JSON.toJSONString(state) + "}"));
+  }
+
+  @Override
+  public <T> T compute(String outTrackId, Class<T> type, UnaryOperator<T> update) {
+    synchronized (lockFor(outTrackId)) {
+      T next = update.apply(get(outTrackId, type));
+      if (next == null) {
+        remove(outTrackId);
+      } else {
+        put(outTrackId, next);
+      }
+      return next;
+    }
+  }
+
+  @Override
+  public void remove(String outTrackId) {
+    synchronized (lockFor(outTrackId)) {
+      cache.remove(outTrackId);
+      pending.put(outTrackId, new Pending(null));
+      cardStateSweeper.cancel(outTrackId);
+    }
+  }
+
+  private void expire(String outTrackId) {
+    synchronized (lockFor(outTrackId)) {
+      // 过期回调前又写入或访问过
+      if (cardStateSweeper.scheduled(outTrackId)) {
+        return;
+      }
+      cache.remove(outTrackId);
+      pending.put(outTrackId, new Pending(null));
+    }
+  }
+
+  // 上次运行留下的状态，按文件的修改时间开始计算空闲时间
+  private void scheduleStoredStates() {
+    try (Stream<Path> files = Files.list(directory)) {
+      files.forEach(file -> {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(FILE_SUFFIX)) {
+          return;
+        }
+        try {
+          String outTrackId = new String(Base64.getUrlDecoder().decode(
+              name.substring(0, name.length() - FILE_SUFFIX.length())), StandardCharsets.UTF_8);
+          cardStateSweeper.touch(outTrackId, Files.getLastModifiedTime(file).toMillis());
+        } catch (IllegalArgumentException | IOException e) {
+          log.warn("skip card state file {}", file, e);
+        }
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  void flush() {
+    int written = 0;
+    for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+      try {
+        writeFile(entry.getKey(), entry.getValue().content);
+        // 落盘期间又有新的更新时保留，下个周期再写
+        pending.remove(entry.getKey(), entry.getValue());
+        written++;
+      } catch (IOException e) {
+        log.error("write card state failed, outTrackId={}", entry.getKey(), e);
+      }
+    }
+    if (written > 0) {
+      log.debug("flushed {} card states", written);
+    }
+  }
+
+  private String read(String outTrackId) {
+    Path file = fileOf(outTrackId);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try {
+      return Files.readString(file, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      log.error("read card state failed, outTrackId={}", outTrackId, e);
+      return null;
+    }
+  }
+
+  private void writeFile(String outTrackId, String content) throws IOException {
+    Path file = fileOf(outTrackId);
+    if (content == null) {
+      Files.deleteIfExists(file);
+      return;
+    }
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.writeString(tmp, content, StandardCharsets.UTF_8);
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // outTrackId 可能含有不能用于文件名的字符，用 URL 安全的 Base64 编码
+  private Path fileOf(String outTrackId) {
+    String name = Base64.getUrlEncoder().withoutPadding().encodeToString(outTrackId.getBytes(StandardCharsets.UTF_8));
+    return directory.resolve(name + FILE_SUFFIX);
+  }
+
+  private Object lockFor(String outTrackId) {
+    int h = outTrackId.hashCode();
+    return locks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+  }
+}
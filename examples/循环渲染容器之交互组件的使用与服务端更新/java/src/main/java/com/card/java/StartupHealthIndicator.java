@@ -0,0 +1,31 @@
+package com.card.java;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * 启动进度的健康检查，加入 readiness 分组（/actuator/health/readiness）：
+ * accessToken 获取成功并且 Stream 连接建立之后才接收流量
+ */
+@Component
+public class StartupHealthIndicator implements HealthIndicator {
+
+  @Autowired
+  private AccessTokenService accessTokenService;
+
+  @Autowired
+  private Listener listener;
+
+  @Override
+  public Health health() {
+    boolean tokenReady = accessTokenService.isReady();
+    boolean streamReady = listener.isStarted();
+    Health.Builder builder = tokenReady && streamReady ? Health.up() : Health.outOfService();
+    return builder
+        .withDetail("accessToken", tokenReady ? "READY" : "PENDING")
+        .withDetail("streamClient", streamReady ? "READY" : "PENDING")
+        .build();
+  }
+}
@@ -0,0 +1,23 @@
+package com.card.java.models;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 卡片回传请求，由 CardCallbackDecoder 一次解析得到，content 中的 cardPrivateData 已展开，params 为具体的参数类型
+ */
+@Data
+public class CardCallback<P> {
+  private String extension;
+  private String corpId;
+  private String spaceType;
+  private Integer userIdType;
+  private String type;
+  private String userId;
+  private String spaceId;
+  private String outTrackId;
+  private String value;
+  private List<String> actionIds;
+  private P params;
+}
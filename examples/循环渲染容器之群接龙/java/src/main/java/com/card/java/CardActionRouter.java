@@ -0,0 +1,202 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONObject;
+import com.card.java.models.CardCallback;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import javax.annotation.PostConstruct;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 卡片回传请求的分发。启动时扫描所有带 {@link CardAction} 注解的方法，按动作建立哈希分发表；
+ * 回传请求按 actionIds、回传参数的值、回传参数是否有值、默认处理的顺序查表，
+ * 每一步都是一次哈希查找，新增动作不会增加其他动作的匹配开销。
+ * 分发表在本组件初始化时按 Bean 定义的类型建立，早于 Listener 启动 Stream 连接，处理方法所在的 Bean 在第一次分发时再获取
+ */
+@Slf4j
+@Component
+public class CardActionRouter {
+
+  @Autowired
+  private ApplicationContext applicationContext;
+
+  @Autowired
+  private CardCallbackDecoder cardCallbackDecoder;
+
+  private final Routes routes = new Routes();
+
+  private class Route {
+    final String name;
+    final String beanName;
+    final MethodHandle unbound;
+    // params 绑定的类型，JSONObject 时不需要转换
+    final Class<?> paramsType;
+    volatile MethodHandle handle;
+
+    Route(String name, String beanName, MethodHandle unbound, Class<?> paramsType) {
+      this.name = name;
+      this.beanName = beanName;
+      this.unbound = unbound;
+      this.paramsType = paramsType;
+    }
+
+    MethodHandle handle() {
+      MethodHandle current = handle;
+      if (current == null) {
+        current = unbound.bindTo(applicationContext.getBean(beanName));
+        handle = current;
+      }
+      return current;
+    }
+  }
+
+  private static class Routes {
+    final Map<String, Route> byActionId = new HashMap<>();
+    // param -> (value -> route)，按注册顺序匹配 param
+    final Map<String, Map<String, Route>> byParamValue = new LinkedHashMap<>();
+    final Map<String, Route> byParamPresent = new LinkedHashMap<>();
+    Route fallback;
+  }
+
+  @PostConstruct
+  public void init() {
+    // 只读取 Bean 定义的类型，不创建 Bean，回传处理器依赖本组件时也不会循环创建
+    for (String beanName : applicationContext.getBeanDefinitionNames()) {
+      Class<?> beanType = applicationContext.getType(beanName, false);
+      if (beanType == null || !beanType.getName().startsWith(getClass().getPackage().getName())) {
+        continue;
+      }
+      Map<Method, CardAction> methods = MethodIntrospector.selectMethods(ClassUtils.getUserClass(beanType),
+          (MethodIntrospector.MetadataLookup<CardAction>) method ->
+              AnnotatedElementUtils.findMergedAnnotation(method, CardAction.class));
+      for (Map.Entry<Method, CardAction> entry : methods.entrySet()) {
+        register(beanName, entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private void register(String beanName, Method method, CardAction action) {
+    String name = method.getDeclaringClass().getSimpleName() + "#" + method.getName();
+    if (!Modifier.isPublic(method.getModifiers()) || method.getParameterCount() != 1
+        || method.getParameterTypes()[0] != CardCallback.class) {
+      throw new IllegalStateException("@CardAction method must be public and take a single CardCallback: " + name);
+    }
+    MethodHandle unbound;
+    try {
+      unbound = MethodHandles.publicLookup().unreflect(method);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("@CardAction method is not accessible: " + name, e);
+    }
+    Route route = new Route(name, beanName, unbound, paramsTypeOf(method));
+
+    Route previous;
+    if (!action.param().isEmpty() && !action.value().isEmpty()) {
+      previous = routes.byParamValue.computeIfAbsent(action.param(), p -> new HashMap<>()).put(action.value(), route);
+    } else if (!action.param().isEmpty()) {
+      previous = routes.byParamPresent.put(action.param(), route);
+    } else if (!action.value().isEmpty()) {
+      previous = routes.byActionId.put(action.value(), route);
+    } else {
+      previous = routes.fallback;
+      routes.fallback = route;
+    }
+    if (previous != null) {
+      throw new IllegalStateException("duplicated @CardAction " + name + " and " + previous.name);
+    }
+    log.info("card action registered: param={}, value={} -> {}", action.param(), action.value(), name);
+  }
+
+  private static Class<?> paramsTypeOf(Method method) {
+    Type type = method.getGenericParameterTypes()[0];
+    if (type instanceof ParameterizedType) {
+      Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+      if (argument instanceof Class) {
+        return (Class<?>) argument;
+      }
+    }
+    return JSONObject.class;
+  }
+
+  /**
+   * 解析回传请求并交给匹配的方法处理，没有匹配的方法时返回 null
+   */
+  public CardCallbackResponse dispatch(String messageString) {
+    CardCallback<JSONObject> callback = cardCallbackDecoder.decode(messageString);
+    Route route = match(callback);
+    if (route == null) {
+      log.warn("no card action matched, outTrackId={}", callback.getOutTrackId());
+      return null;
+    }
+    if (route.paramsType == JSONObject.class) {
+      return invoke(route, callback);
+    }
+    // 匹配用的 JSONObject 直接转换为具体的参数类型，消息只解析一次
+    return invoke(route, cardCallbackDecoder.bind(callback, route.paramsType));
+  }
+
+  private Route match(CardCallback<JSONObject> callback) {
+    if (callback.getActionIds() != null && !routes.byActionId.isEmpty()) {
+      for (String actionId : callback.getActionIds()) {
+        Route route = routes.byActionId.get(actionId);
+        if (route != null) {
+          return route;
+        }
+      }
+    }
+    JSONObject params = callback.getParams();
+    if (params != null) {
+      for (Map.Entry<String, Map<String, Route>> entry : routes.byParamValue.entrySet()) {
+        Object value = params.get(entry.getKey());
+        Route route = value == null ? null : entry.getValue().get(value.toString());
+        if (route != null) {
+          return route;
+        }
+      }
+      for (Map.Entry<String, Route> entry : routes.byParamPresent.entrySet()) {
+        if (isPresent(params.get(entry.getKey()))) {
+          return entry.getValue();
+        }
+      }
+    }
+    return routes.fallback;
+  }
+
+  private static boolean isPresent(Object value) {
+    if (value instanceof String) {
+      return !((String) value).isEmpty();
+    }
+    if (value instanceof Collection) {
+      return !((Collection<?>) value).isEmpty();
+    }
+    if (value instanceof Map) {
+      return !((Map<?, ?>) value).isEmpty();
+    }
+    return value != null;
+  }
+
+  private static CardCallbackResponse invoke(Route route, CardCallback<?> callback) {
+    try {
+      return (CardCallbackResponse) route.handle().invoke(callback);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException("card action " + route.name + " failed", e);
+    }
+  }
+}
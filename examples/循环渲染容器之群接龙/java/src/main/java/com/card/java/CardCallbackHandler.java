@@ -1,22 +1,17 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import lombok.extern.slf4j.Slf4j;
 import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
-import com.card.java.models.CardCallbackMessage;
-import com.card.java.models.CardPrivateData;
-import com.card.java.models.CardPrivateDataWrapper;
-
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
+import com.card.java.models.CardCallback;
+import com.card.java.models.RosterEntry;
+import com.card.java.models.SolitaireParams;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import com.dingtalk.open.app.api.callback.OpenDingTalkCallbackListener;
@@ -25,129 +20,104 @@ import org.springframework.stereotype.Component;
 
 @Slf4j
 @Component
-public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, JSONObject> {
+public class CardCallbackHandler implements OpenDingTalkCallbackListener<String, CardCallbackResponse> {
+
+  @Autowired
+  private CardTrafficLogger cardTrafficLogger;
+
+  @Autowired
+  private CardCallbackResponseWriter cardCallbackResponseWriter;
+
+  @Autowired
+  private CardActionRouter cardActionRouter;
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardApiTransport cardApiTransport;
 
   @Autowired
-  private AccessTokenService accessTokenService;
+  private CardRosterStore cardRosterStore;
 
-  private final JSONObject contentById = new JSONObject();
+  private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
   public JSONObject getUserInfoByUserId(String userId)
       throws IOException {
     // 查询用户详情: https://open.dingtalk.com/document/isvapp/query-user-details
-    String accessToken = accessTokenService.getAccessToken();
-    String url = "https://oapi.dingtalk.com/topapi/v2/user/get?access_token=" + accessToken;
     JSONObject data = new JSONObject();
     data.put("userid", userId);
-    OkHttpClient client = new OkHttpClient();
-    RequestBody body = RequestBody.create(data.toJSONString(), MediaType.get("application/json; charset=utf-8"));
 
-    Request request = new Request.Builder()
-        .url(url)
-        .addHeader("Content-Type", "application/json")
-        .addHeader("Accept", "*/*")
-        .post(body)
-        .build();
-
-    try {
-      Response response = client.newCall(request).execute();
-      String responseStr = response.body().string();
-      JSONObject responseJson = JSON.parseObject(responseStr);
-      log.info("get userinfo by userid: " + responseStr);
-      if (responseJson != null) {
-        if (responseJson.getInteger("errcode") == 0) {
-          return responseJson.getJSONObject("result");
-        } else {
-          log.error("get userinfo by userid failed: " + responseJson.getString("errcode") + " "
-              + responseJson.getString("errmsg"));
-          return null;
-        }
-      }
+    CardApiResult result = cardApiTransport.execute(CardApiEndpoint.USER_GET, data);
+    cardTrafficLogger.info(Category.OPEN_API, "get userinfo by userid", result::getBody);
+    if (result.getException() instanceof IOException) {
+      throw (IOException) result.getException();
+    }
+    if (!result.isSuccess()) {
+      log.error("get userinfo by userid failed: " + result.getErrorCode() + " " + result.getErrorMessage());
       return null;
-    } catch (IOException e) {
-      e.printStackTrace();
-      throw e;
     }
+    JSONObject responseJson = JSON.parseObject(result.getBody());
+    return responseJson == null ? null : responseJson.getJSONObject("result");
   }
 
   @Override
-  public JSONObject execute(String messageString) {
+  public CardCallbackResponse execute(String messageString) {
     /**
      * 卡片事件回调文档：https://open.dingtalk.com/document/orgapp/event-callback-card
      */
-    log.info("card callback message: " + messageString);
+    cardTrafficLogger.info(Category.CALLBACK, "card callback message", () -> messageString);
+    return cardActionRouter.dispatch(messageString);
+  }
+
+  // 取消接龙
+  @CardAction(param = "delete_uid")
+  public CardCallbackResponse leave(CardCallback<SolitaireParams> callback) {
+    String userId = callback.getUserId();
+    String outTrackId = callback.getOutTrackId();
+    String deleteUid = callback.getParams().getDeleteUid();
+
+    JSONObject userPrivateData = new JSONObject();
+    userPrivateData.put("uid", userId);
+    userPrivateData.put("joined", false);
+    List<RosterEntry> nextContent = cardRosterStore.leave(outTrackId, deleteUid);
+    return buildResponse(nextContent, userPrivateData);
+  }
+
+  // 参与接龙
+  @CardAction
+  public CardCallbackResponse join(CardCallback<SolitaireParams> callback) {
     try {
-      CardCallbackMessage message = JSON.parseObject(messageString, CardCallbackMessage.class);
-      String userId = message.getUserId();
-      String outTrackId = message.getOutTrackId();
-      CardPrivateDataWrapper content = JSON.parseObject(message.getContent(), CardPrivateDataWrapper.class);
-      CardPrivateData cardPrivateData = content.getCardPrivateData();
-      JSONObject params = cardPrivateData.getParams();
-
-      JSONArray currentContent = contentById.getJSONArray(outTrackId);
-      if (currentContent == null) {
-        currentContent = new JSONArray();
-      }
-      log.info("contentById: " + contentById.toJSONString());
+      String userId = callback.getUserId();
+      String outTrackId = callback.getOutTrackId();
+
       JSONObject userPrivateData = new JSONObject();
       userPrivateData.put("uid", userId);
-      JSONArray nextContent = new JSONArray();
-      String deleteUid = params.getString("delete_uid");
-
-      if (deleteUid != null) {
-        // 取消接龙
-        userPrivateData.put("joined", false);
-        for (int i = 0; i < currentContent.size(); i++) {
-          JSONObject item = currentContent.getJSONObject(i);
-          String uid = item.getString("uid");
-          if (!deleteUid.equals(uid)) {
-            nextContent.add(item);
-          }
-        }
-      } else {
-        // 参与接龙
-        userPrivateData.put("joined", true);
-        JSONObject body = new JSONObject();
-        LocalDateTime now = LocalDateTime.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        String formattedNow = now.format(formatter);
-        body.put("timestamp", formattedNow);
-        body.put("uid", userId);
-        body.put("remark", params.getString("remark"));
-        body.put("nick", "");
-        body.put("avatar", "");
-        JSONObject userInfo = getUserInfoByUserId(userId);
-        if (userInfo != null) {
-          body.put("nick", userInfo.getString("name"));
-          body.put("avatar", userInfo.getString("avatar"));
-        }
-        currentContent.add(body);
-        nextContent = currentContent;
+      userPrivateData.put("joined", true);
+      String nick = "";
+      String avatar = "";
+      // 查询用户信息在加锁之外完成
+      JSONObject userInfo = getUserInfoByUserId(userId);
+      if (userInfo != null) {
+        nick = userInfo.getString("name");
+        avatar = userInfo.getString("avatar");
       }
-      contentById.put(outTrackId, nextContent);
-
-      // 更新接龙列表和参与状态
-      JSONObject updateCardData = new JSONObject();
-      updateCardData.put("content", nextContent);
-
-      JSONObject cardUpdateOptions = new JSONObject();
-      cardUpdateOptions.put("updateCardDataByKey", true);
-      cardUpdateOptions.put("updatePrivateDataByKey", true);
-
-      JSONObject response = new JSONObject();
-      response.put("cardUpdateOptions", cardUpdateOptions);
-      response.put("cardData",
-          new JSONObject().fluentPut("cardParamMap", jsonObjectUtils.convertJSONValuesToString(updateCardData)));
-      response.put("userPrivateData",
-          new JSONObject().fluentPut("cardParamMap", jsonObjectUtils.convertJSONValuesToString(userPrivateData)));
-
-      return response;
+      RosterEntry entry = new RosterEntry(userId, nick, avatar,
+          callback.getParams() == null ? null : callback.getParams().getRemark(),
+          LocalDateTime.now().format(TIMESTAMP_FORMATTER));
+      List<RosterEntry> nextContent = cardRosterStore.join(outTrackId, entry);
+      return buildResponse(nextContent, userPrivateData);
     } catch (IOException e) {
       e.printStackTrace();
     }
     return null;
   }
+
+  private CardCallbackResponse buildResponse(List<RosterEntry> nextContent, JSONObject userPrivateData) {
+    // 只输出当前卡片的接龙列表，outTrackId 见回传请求的日志
+    cardTrafficLogger.info(Category.STATE, "content", () -> JSON.toJSONString(nextContent));
+
+    // 更新接龙列表和参与状态
+    JSONObject updateCardData = new JSONObject();
+    updateCardData.put("content", nextContent);
+
+    return cardCallbackResponseWriter.write(updateCardData, userPrivateData);
+  }
 }
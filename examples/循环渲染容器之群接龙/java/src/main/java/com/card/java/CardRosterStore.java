@@ -0,0 +1,83 @@
+package com.card.java;
+
+import com.card.java.models.RosterEntry;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * 群接龙卡片的接龙列表，按卡片实例 ID（outTrackId）保存在 CardStateStore 中。
+ * 每张卡片的列表按加入顺序排列并以 uid 为索引，按 uid 查找是 O(1)，同一个 uid 再次参与时原位置更新备注等信息。
+ * 写操作在 CardStateStore.compute 中完成，与同一张卡片的其他写入和过期删除互斥；每次参与或取消后复制一份不可变的快照，复制是 O(n)，
+ * 读取和序列化直接使用快照，不需要加锁，也不会读到更新了一半的列表。
+ * 回传响应本身就要把整个列表序列化一遍，复制快照不改变单次回调的开销量级；接龙人数很多时应改为分页展示
+ */
+@Component
+public class CardRosterStore {
+
+  @Autowired
+  private CardStateStore cardStateStore;
+
+  /**
+   * 一张卡片的接龙列表，序列化时只输出 entries 快照，反序列化时重建 uid 索引。byUid 只在 compute 中修改
+   */
+  public static class Roster {
+    private final LinkedHashMap<String, RosterEntry> byUid = new LinkedHashMap<>();
+    private volatile List<RosterEntry> entries = Collections.emptyList();
+
+    public List<RosterEntry> getEntries() {
+      return entries;
+    }
+
+    public void setEntries(List<RosterEntry> entries) {
+      byUid.clear();
+      for (RosterEntry entry : entries) {
+        byUid.put(entry.getUid(), entry);
+      }
+      publish();
+    }
+
+    // 复制整个列表，O(n)
+    private void publish() {
+      entries = List.copyOf(byUid.values());
+    }
+  }
+
+  /**
+   * 参与接龙，返回更新后的列表快照
+   */
+  public List<RosterEntry> join(String outTrackId, RosterEntry entry) {
+    Roster roster = cardStateStore.compute(outTrackId, Roster.class, current -> {
+      Roster next = current == null ? new Roster() : current;
+      next.byUid.put(entry.getUid(), entry);
+      next.publish();
+      return next;
+    });
+    return roster.entries;
+  }
+
+  /**
+   * 取消接龙，返回更新后的列表快照
+   */
+  public List<RosterEntry> leave(String outTrackId, String uid) {
+    Roster roster = cardStateStore.compute(outTrackId, Roster.class, current -> {
+      if (current != null && current.byUid.remove(uid) != null) {
+        current.publish();
+      }
+      return current;
+    });
+    return roster == null ? Collections.emptyList() : roster.entries;
+  }
+
+  /**
+   * 当前的列表快照，卡片没有人参与时为空列表
+   */
+  public List<RosterEntry> snapshot(String outTrackId) {
+    Roster roster = cardStateStore.get(outTrackId, Roster.class);
+    return roster == null ? Collections.emptyList() : roster.entries;
+  }
+}
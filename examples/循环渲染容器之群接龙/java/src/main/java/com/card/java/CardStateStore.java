@@ -0,0 +1,34 @@
+package com.card.java;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * 卡片状态存储，按卡片实例 ID（outTrackId）保存每张卡片在服务端的状态，如表单字段、接龙列表、任务进度。
+ * 由 card.state.store 选择实现：memory（默认，进程内有界存储，重启后丢失），file（保存在本地目录，重启后可以恢复）。
+ * get 返回的对象可能与存储中的是同一个，修改状态请使用 compute 或 put 新的对象。
+ * 状态会过期删除（见 CardStateSweeper）：put 时指定了过期时间的到期删除，其他的在 card.state.ttl.idle-seconds 秒内没有访问后删除
+ */
+public interface CardStateStore {
+
+  /**
+   * 卡片的状态，不存在时返回 null
+   */
+  <T> T get(String outTrackId, Class<T> type);
+
+  /**
+   * 保存卡片的状态，之前指定过过期时间的保持不变，否则按空闲时间过期
+   */
+  void put(String outTrackId, Object state);
+
+  /**
+   * 保存卡片的状态，到 expireAtMillis（毫秒时间戳）时删除，之后的访问不再延长
+   */
+  void put(String outTrackId, Object state, long expireAtMillis);
+
+  /**
+   * 原子地更新卡片的状态：update 的参数为当前状态（不存在时为 null），返回新的状态，返回 null 时删除该卡片的状态
+   */
+  <T> T compute(String outTrackId, Class<T> type, UnaryOperator<T> update);
+
+  void remove(String outTrackId);
+}
@@ -0,0 +1,166 @@
+package com.card.java;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 同一台机器上多个进程共享 accessToken 的文件，每个应用（ISV 为每个授权企业）一个文件，通过内存映射读写、文件锁互斥。
+ * 刷新时先加排他锁再检查文件中的 Token：其他进程已经刷新过则直接复用，否则由当前进程调用远程接口并写回文件，
+ * 重启的进程可以直接复用仍然有效的 Token。dingtalk.token.shared-file-dir 为空时不启用
+ */
+@Slf4j
+@Component
+public class SharedTokenFile {
+  private static final int MAGIC = 0x444b544b;
+  private static final int VERSION = 1;
+  private static final int FILE_SIZE = 4096;
+  // magic(4) + version(4) + expireTimestamp(8) + tokenLength(4)
+  private static final int HEADER_SIZE = 20;
+
+  @Value("${dingtalk.token.shared-file-dir:}")
+  private String sharedFileDir;
+
+  private final Map<AccessTokenCache.TokenKey, Slot> slots = new ConcurrentHashMap<>();
+
+  private static class Slot {
+    final FileChannel channel;
+    final MappedByteBuffer buffer;
+
+    Slot(FileChannel channel, MappedByteBuffer buffer) {
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+  }
+
+  public boolean isEnabled() {
+    return sharedFileDir != null && !sharedFileDir.trim().isEmpty();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    for (Slot slot : slots.values()) {
+      try {
+        slot.channel.close();
+      } catch (IOException e) {
+        log.warn("close shared token file failed", e);
+      }
+    }
+    slots.clear();
+  }
+
+  /**
+   * 在文件锁保护下刷新 Token：文件中的 Token 比 current 新且未过期时直接复用，否则调用 fetcher 获取并写回文件。
+   * 文件读写失败时退化为直接调用 fetcher
+   */
+  public AccessTokenCache.AccessToken refresh(AccessTokenCache.TokenKey key, AccessTokenCache.AccessToken current,
+      Supplier<AccessTokenCache.AccessToken> fetcher) {
+    Slot slot;
+    try {
+      slot = slots.computeIfAbsent(key, this::open);
+    } catch (IllegalStateException e) {
+      log.warn("open shared token file of {} failed, fetch token directly", key, e.getCause());
+      return fetcher.get();
+    }
+
+    // 同一个 key 的刷新已经由 AccessTokenCache 保证单飞，这里的锁只用于进程间互斥
+    try (FileLock ignored = slot.channel.lock()) {
+      AccessTokenCache.AccessToken shared = read(slot.buffer);
+      long currentExpireTimestamp = current == null ? 0 : current.getExpireTimestamp();
+      if (shared != null && !shared.isNearlyExpired() && shared.getExpireTimestamp() > currentExpireTimestamp) {
+        log.info("reuse access token of {} from shared token file, expireTimestamp={}", key,
+            shared.getExpireTimestamp());
+        return shared;
+      }
+
+      AccessTokenCache.AccessToken fetched = fetcher.get();
+      if (fetched != null) {
+        write(slot.buffer, fetched);
+      }
+      return fetched;
+    } catch (IOException | OverlappingFileLockException e) {
+      // 同一进程中的其他实例正持有这个文件的锁（文件锁属于整个 JVM）
+      log.warn("lock shared token file of {} failed, fetch token directly", key, e);
+      return fetcher.get();
+    }
+  }
+
+  private Slot open(AccessTokenCache.TokenKey key) {
+    // appKey 和 corpId 分别用 URL 安全的 Base64 编码，编码结果不含 '.'，不同的 key 不会对应同一个文件
+    String name = "token-" + encode(key.getAppKey()) + (key.getCorpId() == null ? "" : "." + encode(key.getCorpId()));
+    Path path = Paths.get(sharedFileDir, name + ".bin");
+    try {
+      Files.createDirectories(path.getParent());
+      if (Files.notExists(path) && FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+        // 文件中保存的是 Token 明文，只允许当前用户读写
+        try {
+          Files.createFile(path,
+              PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (FileAlreadyExistsException e) {
+          // 其他进程刚刚创建
+        }
+      }
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      return new Slot(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String encode(String value) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static AccessTokenCache.AccessToken read(MappedByteBuffer buffer) {
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      return null;
+    }
+    long expireTimestamp = buffer.getLong(8);
+    int length = buffer.getInt(16);
+    if (length <= 0 || length > FILE_SIZE - HEADER_SIZE) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(HEADER_SIZE, bytes);
+    AccessTokenCache.AccessToken token = new AccessTokenCache.AccessToken();
+    token.setAccessToken(new String(bytes, StandardCharsets.UTF_8));
+    token.setExpireTimestamp(expireTimestamp);
+    return token;
+  }
+
+  private static void write(MappedByteBuffer buffer, AccessTokenCache.AccessToken token) {
+    byte[] bytes = token.getAccessToken().getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > FILE_SIZE - HEADER_SIZE) {
+      log.warn("access token too long to share, length={}", bytes.length);
+      return;
+    }
+    // 先写数据再写 magic，读到 magic 说明数据完整
+    buffer.putInt(0, 0);
+    buffer.putInt(4, VERSION);
+    buffer.putLong(8, token.getExpireTimestamp());
+    buffer.putInt(16, bytes.length);
+    buffer.put(HEADER_SIZE, bytes);
+    buffer.putInt(0, MAGIC);
+    buffer.force();
+  }
+}
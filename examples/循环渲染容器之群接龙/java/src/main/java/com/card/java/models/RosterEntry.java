@@ -0,0 +1,16 @@
+package com.card.java.models;
+
+import lombok.Value;
+
+/**
+ * 接龙列表中的一项，创建后不可修改，可以在多个快照之间共享。
+ * 从持久化的快照恢复时 fastjson 按参数名调用全参构造方法，参数名取自编译时默认生成的调试信息
+ */
+@Value
+public class RosterEntry {
+  String uid;
+  String nick;
+  String avatar;
+  String remark;
+  String timestamp;
+}
@@ -0,0 +1,15 @@
+package com.card.java.models;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import lombok.Data;
+
+/**
+ * 群接龙卡片的回传参数，参与接龙时带 remark，取消接龙时带 delete_uid
+ */
+@Data
+public class SolitaireParams {
+  @JSONField(name = "delete_uid")
+  private String deleteUid;
+  @JSONField(name = "remark")
+  private String remark;
+}
@@ -0,0 +1,111 @@
+package com.card.java;
+
+import com.card.java.models.RosterEntry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CardRosterStoreTest {
+
+  private CardStateSweeper cardStateSweeper;
+
+  private InMemoryCardStateStore cardStateStore;
+
+  private CardRosterStore rosterStore;
+
+  @BeforeEach
+  void setUp() {
+    cardStateSweeper = new CardStateSweeper();
+    ReflectionTestUtils.setField(cardStateSweeper, "meterRegistry", new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(cardStateSweeper, "idleSeconds", 3600L);
+    ReflectionTestUtils.setField(cardStateSweeper, "tickMillis", 1000L);
+    ReflectionTestUtils.setField(cardStateSweeper, "wheelSlots", 64);
+    cardStateSweeper.init();
+
+    cardStateStore = new InMemoryCardStateStore();
+    ReflectionTestUtils.setField(cardStateStore, "cardStateSweeper", cardStateSweeper);
+    ReflectionTestUtils.setField(cardStateStore, "maxCards", 100);
+    cardStateStore.init();
+
+    rosterStore = new CardRosterStore();
+    ReflectionTestUtils.setField(rosterStore, "cardStateStore", cardStateStore);
+  }
+
+  @AfterEach
+  void tearDown() {
+    cardStateSweeper.close();
+  }
+
+  private static RosterEntry entry(String uid, String remark) {
+    return new RosterEntry(uid, "nick-" + uid, null, remark, "2024-01-01 00:00:00");
+  }
+
+  private static List<String> uids(List<RosterEntry> entries) {
+    return entries.stream().map(RosterEntry::getUid).toList();
+  }
+
+  @Test
+  void keepsJoinOrderAndUpdatesRejoinInPlace() {
+    rosterStore.join("card", entry("a", "1"));
+    rosterStore.join("card", entry("b", "1"));
+    rosterStore.join("card", entry("c", "1"));
+
+    // 再次参与只更新备注，不改变位置
+    List<RosterEntry> entries = rosterStore.join("card", entry("b", "2"));
+    assertThat(uids(entries)).containsExactly("a", "b", "c");
+    assertThat(entries.get(1).getRemark()).isEqualTo("2");
+    assertThat(rosterStore.snapshot("card")).isEqualTo(entries);
+  }
+
+  @Test
+  void leaveRemovesOnlyThatUid() {
+    rosterStore.join("card", entry("a", "1"));
+    rosterStore.join("card", entry("b", "1"));
+
+    assertThat(uids(rosterStore.leave("card", "a"))).containsExactly("b");
+    assertThat(uids(rosterStore.leave("card", "unknown"))).containsExactly("b");
+    assertThat(rosterStore.leave("other-card", "a")).isEmpty();
+  }
+
+  @Test
+  void snapshotsAreImmutableAndNotAffectedByLaterUpdates() {
+    List<RosterEntry> first = rosterStore.join("card", entry("a", "1"));
+    List<RosterEntry> second = rosterStore.join("card", entry("b", "1"));
+    rosterStore.leave("card", "a");
+
+    assertThat(uids(first)).containsExactly("a");
+    assertThat(uids(second)).containsExactly("a", "b");
+    assertThat(uids(rosterStore.snapshot("card"))).containsExactly("b");
+    assertThatThrownBy(() -> second.add(entry("c", "1"))).isInstanceOf(UnsupportedOperationException.class);
+  }
+
+  @Test
+  void cardsAreIndependent() {
+    rosterStore.join("card-a", entry("a", "1"));
+    rosterStore.join("card-b", entry("b", "1"));
+
+    assertThat(uids(rosterStore.snapshot("card-a"))).containsExactly("a");
+    assertThat(uids(rosterStore.snapshot("card-b"))).containsExactly("b");
+    assertThat(rosterStore.snapshot("card-c")).isEmpty();
+  }
+
+  @Test
+  void rebuildsUidIndexFromEntries() {
+    // 从文件恢复时只有 entries，uid 索引需要重建
+    CardRosterStore.Roster roster = new CardRosterStore.Roster();
+    roster.setEntries(List.of(entry("a", "1"), entry("b", "1")));
+    cardStateStore.put("card", roster);
+
+    assertThat(uids(rosterStore.join("card", entry("a", "2")))).containsExactly("a", "b");
+    assertThat(uids(rosterStore.leave("card", "b"))).containsExactly("a");
+  }
+}
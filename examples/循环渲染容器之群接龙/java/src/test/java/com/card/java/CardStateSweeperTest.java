@@ -0,0 +1,134 @@
+package com.card.java;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CardStateSweeperTest {
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private CardStateSweeper sweeper;
+
+  private final List<String> expired = new CopyOnWriteArrayList<>();
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    sweeper = new CardStateSweeper();
+    ReflectionTestUtils.setField(sweeper, "meterRegistry", meterRegistry);
+    // 1 秒没有访问后过期，100 毫秒一格，8 格一圈
+    ReflectionTestUtils.setField(sweeper, "idleSeconds", 1L);
+    ReflectionTestUtils.setField(sweeper, "tickMillis", 100L);
+    ReflectionTestUtils.setField(sweeper, "wheelSlots", 8);
+    sweeper.init();
+    sweeper.onExpired(expired::add);
+  }
+
+  @AfterEach
+  void tearDown() {
+    sweeper.close();
+  }
+
+  private double evicted(String reason) {
+    return meterRegistry.get("card.state.evicted").tag("reason", reason).counter().count();
+  }
+
+  @Test
+  void expiresIdleCard() throws InterruptedException {
+    // 最后一次访问在 1 秒前，下一格到期
+    sweeper.touch("card", System.currentTimeMillis() - 1000);
+    sweeper.touch("other-card");
+    Thread.sleep(300);
+
+    assertThat(expired).containsExactly("card");
+    assertThat(sweeper.scheduled("card")).isFalse();
+    assertThat(sweeper.scheduled("other-card")).isTrue();
+    assertThat(evicted("ttl")).isEqualTo(1);
+  }
+
+  @Test
+  void touchExtendsIdleExpiry() throws InterruptedException {
+    sweeper.touch("card", System.currentTimeMillis() - 800);
+    sweeper.touch("card");
+    Thread.sleep(500);
+    assertThat(expired).isEmpty();
+    assertThat(sweeper.scheduled("card")).isTrue();
+
+    Thread.sleep(800);
+    assertThat(expired).containsExactly("card");
+  }
+
+  @Test
+  void touchDoesNotExtendFixedExpiry() throws InterruptedException {
+    long expireAt = System.currentTimeMillis() + 200;
+    sweeper.expireAt("card", expireAt);
+    sweeper.touch("card");
+    assertThat(sweeper.fixedExpireAt("card")).isEqualTo(expireAt);
+
+    Thread.sleep(500);
+    assertThat(expired).containsExactly("card");
+    assertThat(sweeper.fixedExpireAt("card")).isZero();
+  }
+
+  @Test
+  void expiresDeadlineBeyondOneRound() throws InterruptedException {
+    // 一圈 800 毫秒，更远的过期时间到格时再往后放
+    sweeper.expireAt("card", System.currentTimeMillis() + 1200);
+    Thread.sleep(900);
+    assertThat(expired).isEmpty();
+
+    Thread.sleep(600);
+    assertThat(expired).containsExactly("card");
+  }
+
+  @Test
+  void cancelledCardIsNotExpired() throws InterruptedException {
+    sweeper.touch("card", System.currentTimeMillis() - 900);
+    sweeper.cancel("card");
+    Thread.sleep(300);
+
+    assertThat(expired).isEmpty();
+    assertThat(sweeper.scheduled("card")).isFalse();
+  }
+
+  @Test
+  void evictedOverCapacityIsCountedSeparately() {
+    sweeper.touch("card");
+    sweeper.evictedOverCapacity("card");
+
+    assertThat(sweeper.scheduled("card")).isFalse();
+    assertThat(evicted("capacity")).isEqualTo(1);
+    assertThat(evicted("ttl")).isZero();
+  }
+
+  @Test
+  void touchDuringExpiryIsNotLost() throws InterruptedException {
+    for (int i = 0; i < 200; i++) {
+      sweeper.touch("card-" + i, System.currentTimeMillis() - 1000);
+    }
+    // 到期删除的同时访问，访问后卡片一定还在等待过期
+    Thread toucher = new Thread(() -> {
+      for (int round = 0; round < 50; round++) {
+        for (int i = 0; i < 200; i++) {
+          sweeper.touch("card-" + i);
+        }
+      }
+    });
+    toucher.start();
+    toucher.join();
+    Thread.sleep(200);
+
+    for (int i = 0; i < 200; i++) {
+      assertThat(sweeper.scheduled("card-" + i)).isTrue();
+    }
+  }
+}
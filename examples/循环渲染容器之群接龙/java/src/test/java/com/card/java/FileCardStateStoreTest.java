@@ -0,0 +1,151 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONObject;
+import com.card.java.models.RosterEntry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileCardStateStoreTest {
+
+  @TempDir
+  Path dir;
+
+  private final List<CardStateSweeper> sweepers = new ArrayList<>();
+
+  private final List<FileCardStateStore> stores = new ArrayList<>();
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    for (FileCardStateStore store : stores) {
+      store.close();
+    }
+    sweepers.forEach(CardStateSweeper::close);
+  }
+
+  // 每次创建新的存储和时间轮，模拟进程重启
+  private FileCardStateStore newStore() {
+    CardStateSweeper cardStateSweeper = new CardStateSweeper();
+    ReflectionTestUtils.setField(cardStateSweeper, "meterRegistry", new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(cardStateSweeper, "idleSeconds", 3600L);
+    ReflectionTestUtils.setField(cardStateSweeper, "tickMillis", 1000L);
+    ReflectionTestUtils.setField(cardStateSweeper, "wheelSlots", 64);
+    cardStateSweeper.init();
+    sweepers.add(cardStateSweeper);
+
+    FileCardStateStore store = new FileCardStateStore();
+    ReflectionTestUtils.setField(store, "cardStateSweeper", cardStateSweeper);
+    ReflectionTestUtils.setField(store, "dir", dir.toString());
+    // 测试中手动 flush
+    ReflectionTestUtils.setField(store, "flushMillis", 3_600_000L);
+    ReflectionTestUtils.setField(store, "maxCards", 100);
+    store.init();
+    stores.add(store);
+    return store;
+  }
+
+  private CardStateSweeper sweeperOf(FileCardStateStore store) {
+    return (CardStateSweeper) ReflectionTestUtils.getField(store, "cardStateSweeper");
+  }
+
+  private long files() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.count();
+    }
+  }
+
+  @Test
+  void restoresStatesAfterRestart() throws Exception {
+    FileCardStateStore store = newStore();
+    store.put("card", new JSONObject().fluentPut("progress", 3));
+    // 写入先留在内存中，落盘前不产生文件
+    assertThat(files()).isZero();
+    store.close();
+    assertThat(files()).isEqualTo(1);
+
+    FileCardStateStore restarted = newStore();
+    // 启动时按文件的修改时间登记空闲过期
+    assertThat(sweeperOf(restarted).scheduled("card")).isTrue();
+    assertThat(restarted.get("card", JSONObject.class).getIntValue("progress")).isEqualTo(3);
+    assertThat(restarted.get("other-card", JSONObject.class)).isNull();
+  }
+
+  @Test
+  void readsPendingStateBeforeFlush() {
+    FileCardStateStore store = newStore();
+    store.put("card", "state");
+    // 超出缓存后从待落盘的状态中读出
+    for (int i = 0; i < 200; i++) {
+      store.put("card-" + i, String.valueOf(i));
+    }
+    assertThat(store.get("card", String.class)).isEqualTo("state");
+  }
+
+  @Test
+  void keepsFixedExpireAtAfterRestart() throws Exception {
+    long expireAt = System.currentTimeMillis() + 60_000;
+    FileCardStateStore store = newStore();
+    store.put("card", "1", expireAt);
+    // 之后的写入不改变指定的过期时间
+    store.put("card", "2");
+    store.close();
+
+    FileCardStateStore restarted = newStore();
+    assertThat(restarted.get("card", String.class)).isEqualTo("2");
+    assertThat(sweeperOf(restarted).fixedExpireAt("card")).isEqualTo(expireAt);
+  }
+
+  @Test
+  void dropsStateExpiredWhileStopped() throws Exception {
+    FileCardStateStore store = newStore();
+    store.put("card", "state", System.currentTimeMillis() + 200);
+    store.close();
+    Thread.sleep(300);
+
+    FileCardStateStore restarted = newStore();
+    assertThat(restarted.get("card", String.class)).isNull();
+    restarted.flush();
+    assertThat(files()).isZero();
+  }
+
+  @Test
+  void removeDeletesFile() throws Exception {
+    FileCardStateStore store = newStore();
+    store.put("card", "state");
+    store.flush();
+    assertThat(files()).isEqualTo(1);
+
+    store.remove("card");
+    assertThat(store.get("card", String.class)).isNull();
+    store.flush();
+    assertThat(files()).isZero();
+  }
+
+  @Test
+  void restoresRosterAndRebuildsUidIndex() throws Exception {
+    CardRosterStore rosterStore = new CardRosterStore();
+    FileCardStateStore store = newStore();
+    ReflectionTestUtils.setField(rosterStore, "cardStateStore", store);
+    rosterStore.join("card", new RosterEntry("a", "nick-a", null, "1", "2024-01-01 00:00:00"));
+    rosterStore.join("card", new RosterEntry("b", "nick-b", null, "1", "2024-01-01 00:00:00"));
+    store.close();
+
+    CardRosterStore restarted = new CardRosterStore();
+    ReflectionTestUtils.setField(restarted, "cardStateStore", newStore());
+    assertThat(restarted.snapshot("card")).extracting(RosterEntry::getUid).containsExactly("a", "b");
+    assertThat(restarted.leave("card", "a")).extracting(RosterEntry::getUid).containsExactly("b");
+  }
+}
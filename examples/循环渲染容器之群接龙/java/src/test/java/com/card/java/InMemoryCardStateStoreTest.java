@@ -0,0 +1,115 @@
+package com.card.java;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InMemoryCardStateStoreTest {
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private CardStateSweeper cardStateSweeper;
+
+  private InMemoryCardStateStore store;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    cardStateSweeper = new CardStateSweeper();
+    ReflectionTestUtils.setField(cardStateSweeper, "meterRegistry", meterRegistry);
+    ReflectionTestUtils.setField(cardStateSweeper, "idleSeconds", 3600L);
+    ReflectionTestUtils.setField(cardStateSweeper, "tickMillis", 1000L);
+    ReflectionTestUtils.setField(cardStateSweeper, "wheelSlots", 64);
+    cardStateSweeper.init();
+
+    store = new InMemoryCardStateStore();
+    ReflectionTestUtils.setField(store, "cardStateSweeper", cardStateSweeper);
+    // 64 段，每段 10 张卡片
+    ReflectionTestUtils.setField(store, "maxCards", 640);
+    store.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    cardStateSweeper.close();
+  }
+
+  private double overCapacity() {
+    return meterRegistry.get("card.state.evicted").tag("reason", "capacity").counter().count();
+  }
+
+  @Test
+  void dropsLeastRecentlyUsedCardsOverCapacity() {
+    store.put("card-0", "0");
+    for (int i = 1; i < 10000; i++) {
+      store.put("card-" + i, String.valueOf(i));
+      // 一直在访问的卡片不会被丢弃
+      assertThat(store.get("card-0", String.class)).isEqualTo("0");
+    }
+
+    int kept = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (store.get("card-" + i, String.class) != null) {
+        kept++;
+      } else {
+        assertThat(cardStateSweeper.scheduled("card-" + i)).isFalse();
+      }
+    }
+    assertThat(kept).isLessThanOrEqualTo(640);
+    assertThat(overCapacity()).isEqualTo(10000 - kept);
+  }
+
+  @Test
+  void computeIsAtomicPerCard() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          for (int j = 0; j < 1000; j++) {
+            store.compute("card", Integer.class, count -> count == null ? 1 : count + 1);
+          }
+          return null;
+        }));
+      }
+      start.countDown();
+      for (Future<?> result : results) {
+        result.get();
+      }
+      assertThat(store.get("card", Integer.class)).isEqualTo(8000);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void computeReturningNullRemovesState() {
+    store.put("card", "state");
+    assertThat(store.compute("card", String.class, state -> null)).isNull();
+    assertThat(store.get("card", String.class)).isNull();
+    assertThat(cardStateSweeper.scheduled("card")).isFalse();
+  }
+
+  @Test
+  void keepsFixedExpireAtWhenStateIsReplaced() {
+    long expireAt = System.currentTimeMillis() + 60_000;
+    store.put("card", "1", expireAt);
+    store.put("card", "2");
+    assertThat(store.get("card", String.class)).isEqualTo("2");
+    assertThat(cardStateSweeper.fixedExpireAt("card")).isEqualTo(expireAt);
+  }
+}
@@ -0,0 +1,42 @@
+package com.card.java;
+
+import lombok.Getter;
+
+/**
+ * 卡片相关的 OpenAPI 接口
+ */
+@Getter
+public enum CardApiEndpoint {
+  // 创建并投放卡片: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
+  CREATE_AND_DELIVER("POST", null, "/v1.0/card/instances/createAndDeliver"),
+  // 更新卡片: https://open.dingtalk.com/document/orgapp/interactive-card-update-interface
+  UPDATE("PUT", null, "/v1.0/card/instances"),
+  // AI 卡片流式更新: https://open.dingtalk.com/document/orgapp/api-streamingupdate
+  STREAMING("PUT", null, "/v1.0/card/streaming"),
+  // 查询用户详情（旧版 oapi 接口，access_token 放在 query 中）: https://open.dingtalk.com/document/isvapp/query-user-details
+  USER_GET("POST", "https://oapi.dingtalk.com", "/topapi/v2/user/get");
+
+  private final String method;
+  private final String host;
+  private final String path;
+
+  CardApiEndpoint(String method, String host, String path) {
+    this.method = method;
+    this.host = host;
+    this.path = path;
+  }
+
+  /**
+   * 旧版 oapi 接口，HTTP 状态码总是 200，错误信息在响应体的 errcode 中
+   */
+  public boolean isLegacyApi() {
+    return host != null;
+  }
+
+  /**
+   * 查询接口，熔断期间排队重放的查询结果没有调用方读取，默认不作为关键调用
+   */
+  public boolean isQuery() {
+    return this == USER_GET;
+  }
+}
@@ -0,0 +1,173 @@
+package com.card.java;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 卡片接口的客户端限流，分别按接口、应用、卡片实例（outTrackId）三个维度的令牌桶限流。
+ * 调用方按预约顺序排队等待令牌而不是直接失败，排队耗时记录在 card.api.ratelimit.wait 指标中；
+ * 截止时间之前等不到令牌的调用不再排队，计入 card.api.ratelimit.rejected 指标
+ */
+@Component
+public class CardApiRateLimiter {
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${card.api.rate-limit.create-and-deliver-qps:20}")
+  private double createAndDeliverQps;
+
+  @Value("${card.api.rate-limit.update-qps:20}")
+  private double updateQps;
+
+  @Value("${card.api.rate-limit.streaming-qps:20}")
+  private double streamingQps;
+
+  @Value("${card.api.rate-limit.user-get-qps:20}")
+  private double userGetQps;
+
+  @Value("${card.api.rate-limit.app-qps:40}")
+  private double appQps;
+
+  @Value("${card.api.rate-limit.card-qps:5}")
+  private double cardQps;
+
+  // 令牌桶最多积攒多少秒的令牌，决定允许的突发量
+  @Value("${card.api.rate-limit.burst-seconds:1}")
+  private double burstSeconds;
+
+  private final Map<CardApiEndpoint, TokenBucket> endpointBuckets = new EnumMap<>(CardApiEndpoint.class);
+  private final Map<CardApiEndpoint, Timer> waitTimers = new EnumMap<>(CardApiEndpoint.class);
+  private final Map<CardApiEndpoint, Counter> rejectedCounters = new EnumMap<>(CardApiEndpoint.class);
+  private final Map<String, TokenBucket> appBuckets = new ConcurrentHashMap<>();
+  private final Map<String, TokenBucket> cardBuckets = new ConcurrentHashMap<>();
+  private final AtomicInteger reservations = new AtomicInteger();
+
+  @PostConstruct
+  public void init() {
+    for (CardApiEndpoint endpoint : CardApiEndpoint.values()) {
+      endpointBuckets.put(endpoint, new TokenBucket(endpointQps(endpoint), burstSeconds));
+      waitTimers.put(endpoint, Timer.builder("card.api.ratelimit.wait")
+          .tag("endpoint", endpoint.name())
+          .description("Time card api calls spent queued in the client side rate limiter")
+          .register(meterRegistry));
+      rejectedCounters.put(endpoint, Counter.builder("card.api.ratelimit.rejected")
+          .tag("endpoint", endpoint.name())
+          .description("Card api calls given up because no token was available before their deadline")
+          .register(meterRegistry));
+    }
+  }
+
+  private double endpointQps(CardApiEndpoint endpoint) {
+    switch (endpoint) {
+      case CREATE_AND_DELIVER:
+        return createAndDeliverQps;
+      case UPDATE:
+        return updateQps;
+      case STREAMING:
+        return streamingQps;
+      default:
+        return userGetQps;
+    }
+  }
+
+  /**
+   * 为一次调用预约令牌，返回需要等待的纳秒数。预约按调用顺序排队，先预约的先放行。
+   * 要等到 deadlineNanos 之后才有令牌时不预约、不消耗令牌，返回 -1，调用方应放弃本次调用
+   */
+  public long reserve(CardApiEndpoint endpoint, String appKey, String outTrackId, long deadlineNanos) {
+    TokenBucket endpointBucket = endpointBuckets.get(endpoint);
+    TokenBucket appBucket = appKey == null ? null
+        : appBuckets.computeIfAbsent(appKey, k -> new TokenBucket(appQps, burstSeconds));
+    TokenBucket cardBucket = outTrackId == null ? null
+        : cardBuckets.computeIfAbsent(outTrackId, k -> new TokenBucket(cardQps, burstSeconds));
+    // 新建的令牌桶从创建时开始计时，now 要在创建之后取，否则第一次调用也要等待
+    long now = System.nanoTime();
+    if ((reservations.incrementAndGet() & 1023) == 0) {
+      evictIdleCardBuckets(now);
+    }
+
+    long earliest = endpointBucket.nextAvailable(now);
+    if (appBucket != null) {
+      earliest = Math.max(earliest, appBucket.nextAvailable(now));
+    }
+    if (cardBucket != null) {
+      earliest = Math.max(earliest, cardBucket.nextAvailable(now));
+    }
+    if (earliest - deadlineNanos > 0) {
+      rejectedCounters.get(endpoint).increment();
+      return -1;
+    }
+
+    long availableAt = endpointBucket.reserve(now);
+    if (appBucket != null) {
+      availableAt = Math.max(availableAt, appBucket.reserve(now));
+    }
+    if (cardBucket != null) {
+      availableAt = Math.max(availableAt, cardBucket.reserve(now));
+    }
+
+    long waitNanos = Math.max(0, availableAt - now);
+    waitTimers.get(endpoint).record(waitNanos, TimeUnit.NANOSECONDS);
+    return waitNanos;
+  }
+
+  /**
+   * 令牌桶已经攒满的卡片说明近期没有调用，移除以免卡片越来越多时内存增长
+   */
+  private void evictIdleCardBuckets(long now) {
+    cardBuckets.values().removeIf(bucket -> bucket.isIdle(now));
+  }
+
+  private static class TokenBucket {
+    private final double maxPermits;
+    private final long intervalNanos;
+    private double storedPermits;
+    private long nextFreeNanos;
+
+    TokenBucket(double permitsPerSecond, double burstSeconds) {
+      this.maxPermits = Math.max(1, permitsPerSecond * burstSeconds);
+      this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+      this.storedPermits = maxPermits;
+      this.nextFreeNanos = System.nanoTime();
+    }
+
+    synchronized long reserve(long now) {
+      refill(now);
+      long availableAt = nextFreeNanos;
+      double fromStored = Math.min(1, storedPermits);
+      storedPermits -= fromStored;
+      nextFreeNanos += (long) ((1 - fromStored) * intervalNanos);
+      return availableAt;
+    }
+
+    synchronized long nextAvailable(long now) {
+      refill(now);
+      return nextFreeNanos;
+    }
+
+    synchronized boolean isIdle(long now) {
+      refill(now);
+      return storedPermits >= maxPermits;
+    }
+
+    private void refill(long now) {
+      if (now > nextFreeNanos) {
+        storedPermits = Math.min(maxPermits, storedPermits + (double) (now - nextFreeNanos) / intervalNanos);
+        nextFreeNanos = now;
+      }
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package com.card.java;
 
+import com.card.java.CardTrafficLogger.Category;
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.dashscope.aigc.generation.Generation;
 import com.alibaba.dashscope.aigc.generation.GenerationParam;
@@ -19,56 +20,41 @@ import org.springframework.stereotype.Component;
 
 import lombok.extern.slf4j.Slf4j;
 
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.UUID;
 import java.util.Collections;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Component
 public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessage, Void> {
 
   @Autowired
-  private AccessTokenService accessTokenService;
+  private CardTrafficLogger cardTrafficLogger;
 
   @Autowired
-  private JSONObjectUtils jsonObjectUtils;
+  private CardParamMapEncoder cardParamMapEncoder;
 
-  @Value("${openApiHost}")
-  private String openApiHost;
+  @Autowired
+  private CardApiTransport cardApiTransport;
 
-  @Value("${dingtalk.app.client-id}")
-  private String clientId;
+  @Autowired
+  private AccessTokenCache accessTokenCache;
 
-  private static class StreamState {
-    int contentLen = 0;
-  }
+  @Autowired
+  private CardIdGenerator cardIdGenerator;
 
-  public static String genCardId(ChatbotMessage message) throws NoSuchAlgorithmException {
-    String factor = message.getSenderId() + '_' + message.getSenderCorpId() + '_' + message.getConversationId() + '_'
-        + message.getMsgId() + '_' + UUID.randomUUID().toString();
-    MessageDigest digest = MessageDigest.getInstance("SHA-256");
-    byte[] hash = digest.digest(factor.getBytes(StandardCharsets.UTF_8));
-    StringBuilder hexString = new StringBuilder();
-    for (byte b : hash) {
-      String hex = Integer.toHexString(0xff & b);
-      if (hex.length() == 1)
-        hexString.append('0');
-      hexString.append(hex);
-    }
-    return hexString.toString();
-  }
+  @Autowired
+  private MessageDeduplicator messageDeduplicator;
+
+  @Autowired
+  private StreamingFlushScheduler streamingFlushScheduler;
 
-  public void streamCallWithMessage(String message, String outTrackId, String contentKey)
+  @Value("${dingtalk.app.client-id}")
+  private String clientId;
+
+  public void streamCallWithMessage(AccessTokenCache.TokenKey tenant, String message, String outTrackId,
+      String contentKey)
       throws ApiException, NoApiKeyException, InputRequiredException, InterruptedException {
     Generation gen = new Generation();
 
@@ -86,45 +72,32 @@ public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessa
         .build();
 
     Semaphore semaphore = new Semaphore(0);
-    StringBuilder fullContent = new StringBuilder();
-    StreamState state = new StreamState();
+    // 由调度器决定何时刷新，每张卡片同一时间只有一个流式更新请求在发送中
+    StreamingFlushScheduler.Session session = streamingFlushScheduler.open(outTrackId,
+        (content, isFull, isFinalize, isError) ->
+            streamingAsync(tenant, outTrackId, contentKey, content, isFull, isFinalize, isError));
     gen.streamCall(param, new ResultCallback<GenerationResult>() {
       @Override
       public void onEvent(GenerationResult message) {
-        fullContent.append(message.getOutput().getChoices().get(0).getMessage().getContent());
-        String content = fullContent.toString();
-        int fullContentLen = content.length();
-        if (fullContentLen - state.contentLen > 20) {
-          streaming(outTrackId, contentKey, content, true, false, false);
-          log.info("调用流式更新接口更新内容：current_length=" + state.contentLen + ", next_length=" + fullContentLen);
-          state.contentLen = fullContentLen;
-        }
+        session.append(message.getOutput().getChoices().get(0).getMessage().getContent());
       }
 
       @Override
       public void onError(Exception err) {
         log.error("streamCallWithMessage get exception, msg: " + err.getMessage());
-        streaming(outTrackId, contentKey, fullContent.toString(), true, false, true);
-        semaphore.release();
+        session.finish(true).whenComplete((result, e) -> semaphore.release());
       }
 
       @Override
       public void onComplete() {
-        streaming(outTrackId, contentKey, fullContent.toString(), true, true, false);
-        semaphore.release();
+        session.finish(false).whenComplete((result, e) -> semaphore.release());
       }
     });
     semaphore.acquire();
   }
 
-  public void streaming(
-      String cardInstanceId,
-      String contentKey,
-      String contentValue,
-      Boolean isFull,
-      Boolean isFinalize,
-      Boolean isError) {
-
+  private JSONObject buildStreamingData(String cardInstanceId, String contentKey, String contentValue,
+      Boolean isFull, Boolean isFinalize, Boolean isError) {
     // 流式更新: https://open.dingtalk.com/document/isvapp/api-streamingupdate
     JSONObject data = new JSONObject().fluentPut("outTrackId", cardInstanceId);
     data.put("key", contentKey);
@@ -133,37 +106,31 @@ public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessa
     data.put("isFinalize", isFinalize);
     data.put("isError", isError);
     data.put("guid", UUID.randomUUID().toString());
+    return data;
+  }
 
-    String url = openApiHost + "/v1.0/card/streaming";
-
-    OkHttpClient client = new OkHttpClient();
-    MediaType JSON = MediaType.get("application/json; charset=utf-8");
-    RequestBody body = RequestBody.create(data.toJSONString(), JSON);
-
-    Request request = new Request.Builder()
-        .url(url)
-        .addHeader("Content-Type", "application/json")
-        .addHeader("Accept", "*/*")
-        .addHeader("x-acs-dingtalk-access-token", accessTokenService.getAccessToken())
-        .put(body)
-        .build();
+  /**
+   * 异步流式更新卡片，guid 在请求体构造时生成，同一帧的重发不会被重复渲染
+   */
+  public CompletableFuture<CardApiResult> streamingAsync(AccessTokenCache.TokenKey tenant, String cardInstanceId,
+      String contentKey, String contentValue, Boolean isFull, Boolean isFinalize, Boolean isError) {
+    return cardApiTransport.executeAsync(tenant, CardApiEndpoint.STREAMING,
+        buildStreamingData(cardInstanceId, contentKey, contentValue, isFull, isFinalize, isError),
+        isCriticalFrame(isFinalize, isError));
+  }
 
-    try {
-      Response response = client.newCall(request).execute();
-      log.info("streaming update card: " + data.toJSONString());
-      if (response.code() != 200) {
-        log.error("streaming update card failed: " + response.code() + " " + response.body().string());
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+  // 只有最终帧和错误帧是关键调用，熔断期间中间帧直接丢弃
+  private static boolean isCriticalFrame(Boolean isFinalize, Boolean isError) {
+    return Boolean.TRUE.equals(isFinalize) || Boolean.TRUE.equals(isError);
   }
 
-  public String createAndDeliverCard(ChatbotMessage message, String cardTemplateId, JSONObject cardData,
-      JSONObject options)
-      throws IOException, InterruptedException, NoSuchAlgorithmException {
-    String cardInstanceId = genCardId(message);
+  // ISV 套件按消息所属的授权企业取 Token，企业内部应用使用本应用的 Token
+  private AccessTokenCache.TokenKey tenantOf(ChatbotMessage message) {
+    return accessTokenCache.keyOf(clientId, message.getChatbotCorpId());
+  }
 
+  private JSONObject buildCreateAndDeliverData(ChatbotMessage message, String cardInstanceId,
+      String cardTemplateId, JSONObject cardData, JSONObject options) {
     boolean supportForward = (boolean) options.getOrDefault("supportForward", true);
     boolean atAll = (boolean) options.getOrDefault("alAll", false);
     boolean atSender = (boolean) options.getOrDefault("atSender", false);
@@ -219,38 +186,53 @@ public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessa
     for (String key : restOptions.keySet()) {
       data.put(key, restOptions.get(key));
     }
+    return data;
+  }
 
-    String url = openApiHost + "/v1.0/card/instances/createAndDeliver";
-
-    OkHttpClient client = new OkHttpClient();
-    MediaType JSON = MediaType.get("application/json; charset=utf-8");
-    RequestBody body = RequestBody.create(data.toJSONString(), JSON);
-
-    Request request = new Request.Builder()
-        .url(url)
-        .addHeader("Content-Type", "application/json")
-        .addHeader("Accept", "*/*")
-        .addHeader("x-acs-dingtalk-access-token", accessTokenService.getAccessToken())
-        .post(body)
-        .build();
-
-    try {
-      Response response = client.newCall(request).execute();
-      log.info("reply card: " + data.toJSONString());
-      if (response.code() != 200) {
-        log.error("reply card failed: " + response.code() + " " + response.body().string());
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
+  public String createAndDeliverCard(ChatbotMessage message, String cardTemplateId, JSONObject cardData,
+      JSONObject options) {
+    String cardInstanceId = cardIdGenerator.generate(message);
+    JSONObject data = buildCreateAndDeliverData(message, cardInstanceId, cardTemplateId, cardData, options);
+
+    CardApiResult result = cardApiTransport.execute(tenantOf(message), CardApiEndpoint.CREATE_AND_DELIVER, data,
+        true);
+    cardTrafficLogger.info(Category.OPEN_API, "reply card", data::toJSONString);
+    if (!result.isSuccess()) {
+      log.error("reply card failed: " + result);
     }
     return cardInstanceId;
   }
 
+  /**
+   * 异步创建并投放卡片，不阻塞 Stream 回调线程，结果中的 outTrackId 即卡片实例 ID
+   */
+  public CompletableFuture<CardApiResult> createAndDeliverCardAsync(ChatbotMessage message, String cardTemplateId,
+      JSONObject cardData, JSONObject options) {
+    String cardInstanceId = cardIdGenerator.generate(message);
+    JSONObject data = buildCreateAndDeliverData(message, cardInstanceId, cardTemplateId, cardData, options);
+    return cardApiTransport.executeAsync(tenantOf(message), CardApiEndpoint.CREATE_AND_DELIVER, data, true);
+  }
+
   @Override
   public Void execute(ChatbotMessage message) {
+    String msgId = message.getMsgId();
+    // Stream 重复投递的同一条消息直接跳过，不再创建卡片
+    if (!messageDeduplicator.markIfFirst(msgId)) {
+      return null;
+    }
+    try {
+      reply(message);
+    } catch (RuntimeException e) {
+      // 处理失败时撤销标记，Stream 重新投递这条消息时可以再处理一次
+      messageDeduplicator.unmark(msgId);
+      throw e;
+    }
+    return null;
+  }
 
+  private void reply(ChatbotMessage message) {
     String receivedMessage = message.getText().getContent().trim();
-    log.info("received message: " + receivedMessage);
+    cardTrafficLogger.info(Category.MESSAGE, "received message", () -> receivedMessage);
 
     try {
       // 卡片模板 ID
@@ -262,16 +244,15 @@ public class ChatBotHandler implements OpenDingTalkCallbackListener<ChatbotMessa
       // 创建并投放卡片: https://open.dingtalk.com/document/orgapp/create-and-deliver-cards
       JSONObject options = new JSONObject();
       String cardInstanceId = createAndDeliverCard(message, cardTemplateId,
-          jsonObjectUtils.convertJSONValuesToString(cardData), options);
+          cardParamMapEncoder.encode(cardData), options);
 
-      streamCallWithMessage(receivedMessage, cardInstanceId, contentKey);
-    } catch (NoSuchAlgorithmException | IOException | ApiException | NoApiKeyException | InputRequiredException e) {
+      // 流式更新使用投放卡片时的租户 Token
+      streamCallWithMessage(tenantOf(message), receivedMessage, cardInstanceId, contentKey);
+    } catch (ApiException | NoApiKeyException | InputRequiredException e) {
       e.printStackTrace();
     } catch (InterruptedException e) {
       e.printStackTrace();
       Thread.currentThread().interrupt();
     }
-
-    return null;
   }
 }
@@ -0,0 +1,244 @@
+package com.card.java;
+
+import com.card.java.CardTrafficLogger.Category;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI 卡片流式更新的刷新调度器。每张卡片一个 {@link Session}，满足以下任一条件时刷新：
+ * 距上次刷新超过最小间隔且新增内容达到字数阈值，或者最早未刷新的内容等待超过最大延迟。
+ * 每张卡片同一时间最多只有一个流式更新请求在发送中，刷新间隔会根据接口耗时和限流情况自适应调整。
+ * 增量模式下只发送上次确认成功之后新增的内容（isFull=false），请求失败后下一次发送全量内容重新同步
+ */
+@Slf4j
+@Component
+public class StreamingFlushScheduler {
+
+  @Autowired
+  private CardTrafficLogger cardTrafficLogger;
+
+  @Value("${card.streaming.min-interval-millis:200}")
+  private long minIntervalMillis;
+
+  @Value("${card.streaming.max-delay-millis:1000}")
+  private long maxDelayMillis;
+
+  @Value("${card.streaming.min-chars:20}")
+  private int minChars;
+
+  @Value("${card.streaming.delta-mode:true}")
+  private boolean deltaMode;
+
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "streaming-flush-timer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * 发送一次流式更新，isFull=true 时 content 为卡片当前的完整内容，否则为需要追加的增量内容
+   */
+  @FunctionalInterface
+  public interface StreamingSender {
+    CompletableFuture<CardApiResult> send(String content, boolean isFull, boolean isFinalize, boolean isError);
+  }
+
+  public Session open(String outTrackId, StreamingSender sender) {
+    return new Session(outTrackId, sender);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    timer.shutdownNow();
+  }
+
+  public class Session {
+    private final String outTrackId;
+    private final StreamingSender sender;
+    private final StringBuilder content = new StringBuilder();
+    private final CompletableFuture<CardApiResult> done = new CompletableFuture<>();
+
+    private int flushedLength;
+    private long lastFlushNanos;
+    private long firstPendingNanos;
+    private boolean inFlight;
+    private boolean finishing;
+    private boolean finalError;
+    // 上一次请求失败，服务端内容与已确认的内容可能不一致，下一次需要全量同步
+    private boolean resync;
+    private ScheduledFuture<?> scheduled;
+
+    // 接口耗时的指数滑动平均，以及限流时的退避倍数
+    private double latencyEwmaMillis;
+    private double backoffFactor = 1;
+
+    private Session(String outTrackId, StreamingSender sender) {
+      this.outTrackId = outTrackId;
+      this.sender = sender;
+    }
+
+    public synchronized void append(String text) {
+      if (finishing || text == null || text.isEmpty()) {
+        return;
+      }
+      if (firstPendingNanos == 0) {
+        firstPendingNanos = System.nanoTime();
+      }
+      content.append(text);
+      tryFlush();
+    }
+
+    public synchronized String getContent() {
+      return content.toString();
+    }
+
+    /**
+     * 结束流式输出：等在途请求完成后发送最终内容，返回的 future 在最终请求完成后完成
+     */
+    public synchronized CompletableFuture<CardApiResult> finish(boolean isError) {
+      if (!finishing) {
+        finishing = true;
+        finalError = isError;
+        cancelTimer();
+        if (!inFlight) {
+          sendFinal();
+        }
+      }
+      return done;
+    }
+
+    private long currentIntervalNanos() {
+      double intervalMillis = Math.max(minIntervalMillis, latencyEwmaMillis) * backoffFactor;
+      return TimeUnit.MILLISECONDS.toNanos((long) Math.min(maxDelayMillis, intervalMillis));
+    }
+
+    private void tryFlush() {
+      if (inFlight || finishing) {
+        return;
+      }
+      int pending = content.length() - flushedLength;
+      if (pending <= 0) {
+        return;
+      }
+
+      long now = System.nanoTime();
+      long intervalDueAt = lastFlushNanos + currentIntervalNanos();
+      long maxDelayDueAt = firstPendingNanos + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+      if ((pending >= minChars && now >= intervalDueAt) || now >= maxDelayDueAt) {
+        flush(now);
+        return;
+      }
+
+      long dueAt = pending >= minChars ? Math.min(intervalDueAt, maxDelayDueAt) : maxDelayDueAt;
+      if (scheduled == null) {
+        scheduled = timer.schedule(this::onTimer, dueAt - now, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    private synchronized void onTimer() {
+      scheduled = null;
+      tryFlush();
+    }
+
+    private void cancelTimer() {
+      if (scheduled != null) {
+        scheduled.cancel(false);
+        scheduled = null;
+      }
+    }
+
+    private void flush(long now) {
+      cancelTimer();
+      int length = content.length();
+      boolean isFull = isFullFlush();
+      // 每次刷新都会经过这里，按 STREAMING 类别采样输出
+      int currentLength = flushedLength;
+      cardTrafficLogger.info(Category.STREAMING, "调用流式更新接口更新内容", () -> "outTrackId=" + outTrackId
+          + ", current_length=" + currentLength + ", next_length=" + length + ", isFull=" + isFull);
+      inFlight = true;
+      lastFlushNanos = now;
+      firstPendingNanos = 0;
+      try {
+        sender.send(payload(isFull), isFull, false, false).whenComplete((result, e) -> onFlushed(length, result, e));
+      } catch (RuntimeException e) {
+        // 发送前就抛出异常也按失败处理，否则 inFlight 不会清除，finish 永远等不到在途请求完成。
+        // 交给定时线程回调，避免在 flush 中直接重试形成递归
+        timer.execute(() -> onFlushed(length, null, e));
+      }
+    }
+
+    private boolean isFullFlush() {
+      return !deltaMode || resync;
+    }
+
+    private String payload(boolean isFull) {
+      return isFull ? content.toString() : content.substring(flushedLength);
+    }
+
+    private synchronized void onFlushed(int length, CardApiResult result, Throwable e) {
+      inFlight = false;
+      if (e != null) {
+        log.error("streaming flush failed, outTrackId={}", outTrackId, e);
+      }
+      if (result != null) {
+        adapt(result);
+      }
+      if (result != null && result.isSuccess()) {
+        flushedLength = length;
+        resync = false;
+      } else {
+        resync = true;
+      }
+      if (content.length() > flushedLength && firstPendingNanos == 0) {
+        // 本次刷新失败，未确认的内容重新计入等待时间
+        firstPendingNanos = System.nanoTime();
+      }
+      if (finishing) {
+        sendFinal();
+      } else {
+        tryFlush();
+      }
+    }
+
+    private void adapt(CardApiResult result) {
+      latencyEwmaMillis = latencyEwmaMillis == 0
+          ? result.getLatencyMillis()
+          : latencyEwmaMillis * 0.8 + result.getLatencyMillis() * 0.2;
+      if (result.isThrottled()) {
+        backoffFactor = Math.min(8, backoffFactor * 2);
+      } else if (result.isSuccess()) {
+        backoffFactor = Math.max(1, backoffFactor * 0.75);
+      }
+    }
+
+    private void sendFinal() {
+      boolean isFull = isFullFlush();
+      try {
+        sender.send(payload(isFull), isFull, !finalError, finalError).whenComplete((result, e) -> {
+          if (e != null) {
+            done.completeExceptionally(e);
+          } else {
+            done.complete(result);
+          }
+        });
+      } catch (RuntimeException e) {
+        done.completeExceptionally(e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "StreamingFlushScheduler.Session{outTrackId=" + outTrackId + "}";
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package com.card.java;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamingFlushSchedulerTest {
+
+  private StreamingFlushScheduler scheduler;
+
+  // 每次发送的参数和返回的 future，由测试决定何时完成
+  private final List<Sent> sent = new CopyOnWriteArrayList<>();
+
+  private record Sent(String content, boolean isFull, boolean isFinalize, boolean isError,
+      CompletableFuture<CardApiResult> future) {
+  }
+
+  @BeforeEach
+  void setUp() {
+    CardTrafficLogger cardTrafficLogger = new CardTrafficLogger();
+    ReflectionTestUtils.setField(cardTrafficLogger, "environment", new MockEnvironment());
+    ReflectionTestUtils.setField(cardTrafficLogger, "maxPayloadChars", 2048);
+    cardTrafficLogger.init();
+
+    scheduler = new StreamingFlushScheduler();
+    ReflectionTestUtils.setField(scheduler, "cardTrafficLogger", cardTrafficLogger);
+    ReflectionTestUtils.setField(scheduler, "minIntervalMillis", 0L);
+    ReflectionTestUtils.setField(scheduler, "maxDelayMillis", 1000L);
+    ReflectionTestUtils.setField(scheduler, "minChars", 5);
+    ReflectionTestUtils.setField(scheduler, "deltaMode", true);
+  }
+
+  @AfterEach
+  void tearDown() {
+    scheduler.shutdown();
+  }
+
+  private StreamingFlushScheduler.Session open() {
+    return scheduler.open("card", (content, isFull, isFinalize, isError) -> {
+      CompletableFuture<CardApiResult> future = new CompletableFuture<>();
+      sent.add(new Sent(content, isFull, isFinalize, isError, future));
+      return future;
+    });
+  }
+
+  private static CardApiResult ok() {
+    return CardApiResult.ofResponse(CardApiEndpoint.STREAMING, "card", 200, "{\"success\":true}", 0);
+  }
+
+  private static CardApiResult failed() {
+    return CardApiResult.ofResponse(CardApiEndpoint.STREAMING, "card", 503, "", 0);
+  }
+
+  @Test
+  void sendsDeltasWithOneRequestInFlight() {
+    StreamingFlushScheduler.Session session = open();
+    session.append("abc");
+    assertThat(sent).isEmpty();
+    session.append("de");
+    assertThat(sent).hasSize(1);
+    assertThat(sent.get(0).content()).isEqualTo("abcde");
+    assertThat(sent.get(0).isFull()).isFalse();
+
+    // 在途请求完成前只累积内容
+    session.append("fghij");
+    assertThat(sent).hasSize(1);
+
+    sent.get(0).future().complete(ok());
+    assertThat(sent).hasSize(2);
+    assertThat(sent.get(1).content()).isEqualTo("fghij");
+    assertThat(sent.get(1).isFull()).isFalse();
+  }
+
+  @Test
+  void resyncsFullContentAfterFailure() {
+    StreamingFlushScheduler.Session session = open();
+    session.append("abcde");
+    session.append("fghij");
+    sent.get(0).future().complete(failed());
+
+    assertThat(sent).hasSize(2);
+    assertThat(sent.get(1).content()).isEqualTo("abcdefghij");
+    assertThat(sent.get(1).isFull()).isTrue();
+  }
+
+  @Test
+  void flushesPendingContentAfterMaxDelay() throws InterruptedException {
+    ReflectionTestUtils.setField(scheduler, "maxDelayMillis", 50L);
+    StreamingFlushScheduler.Session session = open();
+    session.append("ab");
+    assertThat(sent).isEmpty();
+
+    awaitSent(1);
+    assertThat(sent).hasSize(1);
+    assertThat(sent.get(0).content()).isEqualTo("ab");
+  }
+
+  @Test
+  void finishWaitsForInFlightRequest() {
+    StreamingFlushScheduler.Session session = open();
+    session.append("abcde");
+    session.append("f");
+    CompletableFuture<CardApiResult> done = session.finish(false);
+    assertThat(sent).hasSize(1);
+
+    sent.get(0).future().complete(ok());
+    assertThat(sent).hasSize(2);
+    Sent last = sent.get(1);
+    assertThat(last.content()).isEqualTo("f");
+    assertThat(last.isFinalize()).isTrue();
+    assertThat(last.isError()).isFalse();
+    assertThat(done).isNotDone();
+
+    last.future().complete(ok());
+    assertThat(done).isCompleted();
+
+    // 结束后追加的内容和重复的 finish 都被忽略
+    session.append("ghijk");
+    assertThat(session.finish(true)).isSameAs(done);
+    assertThat(sent).hasSize(2);
+  }
+
+  @Test
+  void finishCompletesWhenSenderThrows() {
+    StreamingFlushScheduler.Session session = scheduler.open("card", (content, isFull, isFinalize, isError) -> {
+      throw new IllegalStateException("boom");
+    });
+    session.append("abcde");
+
+    // 中间帧同步抛出异常后不会一直处于发送中，最终帧的异常通过 future 返回
+    CompletableFuture<CardApiResult> done = session.finish(true);
+    assertThat(done).failsWithin(Duration.ofSeconds(2));
+  }
+
+  @Test
+  void finalFrameResyncsAfterSenderThrew() throws InterruptedException {
+    ReflectionTestUtils.setField(scheduler, "minIntervalMillis", 1000L);
+    AtomicBoolean thrown = new AtomicBoolean();
+    StreamingFlushScheduler.Session session = scheduler.open("card", (content, isFull, isFinalize, isError) -> {
+      if (thrown.compareAndSet(false, true)) {
+        throw new IllegalStateException("boom");
+      }
+      CompletableFuture<CardApiResult> future = new CompletableFuture<>();
+      sent.add(new Sent(content, isFull, isFinalize, isError, future));
+      return future;
+    });
+    session.append("abcde");
+    CompletableFuture<CardApiResult> done = session.finish(false);
+
+    awaitSent(1);
+    assertThat(sent).hasSize(1);
+    assertThat(sent.get(0).content()).isEqualTo("abcde");
+    assertThat(sent.get(0).isFull()).isTrue();
+    assertThat(sent.get(0).isFinalize()).isTrue();
+    sent.get(0).future().complete(ok());
+    assertThat(done).isCompleted();
+  }
+
+  private void awaitSent(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (sent.size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+}
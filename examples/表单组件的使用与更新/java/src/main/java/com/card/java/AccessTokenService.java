@@ -1,24 +1,30 @@
 package com.card.java;
 
-import com.aliyun.dingtalkoauth2_1_0.Client;
-import com.aliyun.dingtalkoauth2_1_0.models.GetAccessTokenRequest;
-import com.aliyun.dingtalkoauth2_1_0.models.GetAccessTokenResponse;
-import com.aliyun.dingtalkoauth2_1_0.models.GetAccessTokenResponseBody;
-import com.aliyun.tea.TeaException;
 import lombok.Getter;
-import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 当前应用（dingtalk.app.client-id）的 accessToken，Token 的缓存和后台刷新由 {@link AccessTokenCache} 负责。
+ * dingtalk.app.type=suite 时当前应用是 ISV 第三方企业应用，client-id 为 suiteKey，按消息所属的授权企业取 Token，
+ * 需要先收到钉钉推送的 suiteTicket（见 {@link SuiteTicketListener}）。
+ * dingtalk.token.extra-apps 和 dingtalk.token.extra-suites 注册其他应用和套件，格式为 key:secret，多个用逗号分隔，
+ * 调用卡片接口时通过 {@link AccessTokenCache.TokenKey} 指定；其他套件的 suiteTicket 由业务通过 {@link #updateSuiteTicket} 传入
+ */
 @Slf4j
 @Service
 public class AccessTokenService {
-  private Client auth2Client;
+  @Autowired
+  private AccessTokenCache accessTokenCache;
 
   @Value("${dingtalk.app.client-id}")
   private String clientId;
@@ -26,20 +32,33 @@ public class AccessTokenService {
   @Value("${dingtalk.app.client-secret}")
   private String clientSecret;
 
-  private volatile AccessToken accessToken;
+  // app：企业内部应用；suite：ISV 第三方企业应用
+  @Value("${dingtalk.app.type:app}")
+  private String appType;
+
+  @Value("${dingtalk.token.extra-apps:}")
+  private String extraApps;
+
+  @Value("${dingtalk.token.extra-suites:}")
+  private String extraSuites;
+
+  // 首次获取 Token 失败后的重试间隔，连续失败时指数增长
+  @Value("${dingtalk.token.retry-delay-millis:1000}")
+  private long retryDelayMillis;
+
+  @Value("${dingtalk.token.max-retry-delay-millis:30000}")
+  private long maxRetryDelayMillis;
 
   @Getter
-  @Setter
-  static class AccessToken {
-    private String accessToken;
-    private Long expireTimestamp;
-  }
+  private AccessTokenCache.TokenKey defaultKey;
+
+  private final CompletableFuture<Void> ready = new CompletableFuture<>();
 
   /**
-   * 启动获取一个Token
+   * 在后台获取第一个 Token，不阻塞应用启动，获取成功前 readiness 探针为 DOWN
    */
   @PostConstruct
-  public void init() throws Exception {
+  public void init() {
     if (Objects.isNull(clientId)) {
       throw new RuntimeException("please set dingtalk.app.client-id=xxx");
     }
@@ -48,87 +67,92 @@ public class AccessTokenService {
       throw new RuntimeException("please set dingtalk.app.client-secret=xxx");
     }
 
-    com.aliyun.teaopenapi.models.Config config = new com.aliyun.teaopenapi.models.Config();
-    config.protocol = "https";
-    config.regionId = "central";
-    auth2Client = new Client(config);
+    parseCredentials(extraApps).forEach(accessTokenCache::registerApp);
+    parseCredentials(extraSuites).forEach(accessTokenCache::registerSuite);
+    defaultKey = AccessTokenCache.TokenKey.of(clientId);
+    if (isSuite()) {
+      // 套件的 Token 属于各个授权企业，收到第一个 suiteTicket 后才能获取
+      accessTokenCache.registerSuite(clientId, clientSecret);
+      return;
+    }
+    accessTokenCache.registerApp(clientId, clientSecret);
+    accessTokenCache.pin(defaultKey);
+
+    acquire(1);
+  }
 
-    // 重试三次如果失败，应用启动不成功，否则启动无意义
-    int maxTryTimes = 3;
-    while (maxTryTimes-- > 0) {
-      if (refreshAccessToken()) {
-        break;
+  private static Map<String, String> parseCredentials(String value) {
+    Map<String, String> credentials = new LinkedHashMap<>();
+    for (String entry : value.split(",")) {
+      if (entry.isBlank()) {
+        continue;
       }
-
-      Thread.sleep(100);
+      int separator = entry.indexOf(':');
+      if (separator <= 0 || separator == entry.length() - 1) {
+        throw new IllegalArgumentException("invalid app credential, expect key:secret, got " + entry.trim());
+      }
+      credentials.put(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
     }
+    return credentials;
+  }
 
-    if (maxTryTimes <= 0) {
-      throw new RuntimeException(
-          "fail to get accessToken from remote, try 3 times, please check your clientId and clientSecret");
-    }
+  public boolean isSuite() {
+    return "suite".equals(appType);
   }
 
   /**
-   * 定时检查Token是否过期，过期的了就去刷一下
+   * 当前套件的 suiteTicket，钉钉定时推送，之后获取授权企业的 Token 时使用
    */
-  @Scheduled(fixedRate = 60 * 1000)
-  public void checkAccessToken() {
-    if (Objects.isNull(accessToken)) {
-      return;
-    }
+  public void updateSuiteTicket(String suiteTicket) {
+    updateSuiteTicket(clientId, suiteTicket);
+  }
 
-    // check before expired in 10 minutes
-    long advanceCheckTime = 10 * 60L;
-    if (accessToken.expireTimestamp - System.currentTimeMillis() > advanceCheckTime * 1000L) {
-      return;
+  /**
+   * 指定套件的 suiteTicket，用于 dingtalk.token.extra-suites 中的套件
+   */
+  public void updateSuiteTicket(String suiteKey, String suiteTicket) {
+    accessTokenCache.updateSuiteTicket(suiteKey, suiteTicket);
+    if (suiteKey.equals(clientId)) {
+      ready.complete(null);
     }
-
-    refreshAccessToken();
   }
 
-  private Boolean refreshAccessToken() {
-    GetAccessTokenRequest getAccessTokenRequest = new GetAccessTokenRequest()
-        .setAppKey(clientId)
-        .setAppSecret(clientSecret);
-
-    try {
-      GetAccessTokenResponse getAccessTokenResponse = auth2Client.getAccessToken(getAccessTokenRequest);
-      if (Objects.isNull(getAccessTokenResponse) || Objects.isNull(getAccessTokenResponse.body)) {
-        log.error("AccessTokenService_getTokenFromRemoteServer getAccessToken return error," +
-            " response={}", getAccessTokenResponse);
-        return false;
+  private void acquire(int attempt) {
+    refresh().thenAccept(token -> {
+      if (token != null) {
+        ready.complete(null);
+        return;
       }
-
-      GetAccessTokenResponseBody body = getAccessTokenResponse.body;
-      if (Objects.isNull(body.accessToken) || Objects.isNull(body.expireIn)) {
-        log.error("AccessTokenService_getTokenFromRemoteServer getAccessToken invalid token, token or expireIn" +
-            " maybe null, accessToken={}, expireIn={}", body.accessToken, body.expireIn);
-        return false;
+      // 获取失败时一直重试，多次失败通常是 clientId 或 clientSecret 配置错误
+      if (attempt % 3 == 0) {
+        log.error("fail to get accessToken from remote, tried {} times, please check your clientId and clientSecret",
+            attempt);
       }
+      long delayMillis = Math.min(maxRetryDelayMillis, retryDelayMillis << Math.min(attempt - 1, 10));
+      CompletableFuture.runAsync(() -> acquire(attempt + 1),
+          CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS));
+    });
+  }
 
-      AccessToken accessToken = new AccessToken();
-      accessToken.setAccessToken(body.accessToken);
-      accessToken.setExpireTimestamp(System.currentTimeMillis() + body.expireIn * 1000);
-      this.accessToken = accessToken;
-      log.info("refresh access token success, expireIn={}", body.expireIn);
-      return true;
-    } catch (TeaException e) {
-      log.error("AccessTokenService_getTokenFromRemoteServer getAccessToken throw " +
-          "TeaException, errCode={}, errorMessage={}", e.getCode(), e.getMessage(), e);
-      return false;
-    } catch (Exception e) {
-      log.error("AccessTokenService_getTokenFromRemoteServer getAccessToken throw Exception", e);
-      return false;
-    }
+  /**
+   * 第一个 Token 是否已经获取成功，套件为是否已经收到 suiteTicket
+   */
+  public boolean isReady() {
+    return ready.isDone();
+  }
+
+  /**
+   * 刷新 Token，同一时间只有一次远程调用，并发的调用方拿到同一个 future。刷新失败时 future 以 null 完成
+   */
+  public CompletableFuture<AccessTokenCache.AccessToken> refresh() {
+    return accessTokenCache.refresh(defaultKey);
   }
 
   public String getAccessToken() {
-    return accessToken.accessToken;
+    return accessTokenCache.getAccessToken(defaultKey);
   }
 
   public boolean isTokenNearlyExpired() {
-    // if expired timestamp nearly 5000ms, should not send requests
-    return accessToken.expireTimestamp < System.currentTimeMillis() - 5000L;
+    return accessTokenCache.isTokenNearlyExpired(defaultKey);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,172 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 一次卡片 OpenAPI 调用的结果，包含 HTTP 状态码、钉钉错误码、错误分类以及耗时
+ */
+@Getter
+public class CardApiResult {
+
+  public enum Outcome {
+    // 调用成功
+    SUCCESS,
+    // 网络异常或服务端 5xx，使用相同的 outTrackId/guid 重试是安全的
+    RETRYABLE,
+    // 触发钉钉限流，需要退避后再重试
+    THROTTLED,
+    // 参数、权限等错误，重试也不会成功
+    FATAL,
+    // 熔断器打开、获取不到 Token，或本地限流、刷新 Token 等待超过了截止时间，请求没有发出；或调用线程被中断，没有得到响应
+    REJECTED,
+    // accessToken 被吊销或已过期，刷新 Token 后可以重放
+    TOKEN_INVALID
+  }
+
+  // 旧版 oapi 接口中表示限流的 errcode
+  private static final Set<Integer> LEGACY_THROTTLED_ERRCODES = new HashSet<>(Arrays.asList(90002, 90006, 90018));
+
+  // 旧版 oapi 接口中表示 access_token 无效（40014）或过期（42001）的 errcode
+  private static final Set<Integer> LEGACY_TOKEN_INVALID_ERRCODES = new HashSet<>(Arrays.asList(40014, 42001));
+
+  private final CardApiEndpoint endpoint;
+  private final String outTrackId;
+  private final int httpStatus;
+  private final String errorCode;
+  private final String errorMessage;
+  private final String requestId;
+  private final Outcome outcome;
+  private final String body;
+  private final long latencyMillis;
+  private final Exception exception;
+
+  private CardApiResult(CardApiEndpoint endpoint, String outTrackId, int httpStatus, String errorCode,
+      String errorMessage, String requestId, Outcome outcome, String body, long latencyMillis, Exception exception) {
+    this.endpoint = endpoint;
+    this.outTrackId = outTrackId;
+    this.httpStatus = httpStatus;
+    this.errorCode = errorCode;
+    this.errorMessage = errorMessage;
+    this.requestId = requestId;
+    this.outcome = outcome;
+    this.body = body;
+    this.latencyMillis = latencyMillis;
+    this.exception = exception;
+  }
+
+  public static CardApiResult ofResponse(CardApiEndpoint endpoint, String outTrackId, int httpStatus, String body,
+      long latencyMillis) {
+    boolean ok = httpStatus >= 200 && httpStatus < 300;
+    if (ok && !endpoint.isLegacyApi()) {
+      return new CardApiResult(endpoint, outTrackId, httpStatus, null, null, null, Outcome.SUCCESS, body,
+          latencyMillis, null);
+    }
+
+    JSONObject error = parseBody(body);
+    if (endpoint.isLegacyApi()) {
+      // 旧版 oapi 接口: {"errcode": 0, "errmsg": "ok", "request_id": "..."}
+      Integer errcode = error == null ? null : error.getInteger("errcode");
+      String errorCode = errcode == null ? null : String.valueOf(errcode);
+      String errorMessage = error == null ? null : error.getString("errmsg");
+      String requestId = error == null ? null : error.getString("request_id");
+      Outcome outcome;
+      if (!ok) {
+        outcome = classifyHttpStatus(httpStatus);
+      } else if (errcode == null) {
+        outcome = Outcome.FATAL;
+      } else if (errcode == 0) {
+        outcome = Outcome.SUCCESS;
+      } else if (errcode == -1) {
+        // 系统繁忙
+        outcome = Outcome.RETRYABLE;
+      } else if (LEGACY_THROTTLED_ERRCODES.contains(errcode)) {
+        outcome = Outcome.THROTTLED;
+      } else if (LEGACY_TOKEN_INVALID_ERRCODES.contains(errcode)) {
+        outcome = Outcome.TOKEN_INVALID;
+      } else {
+        outcome = Outcome.FATAL;
+      }
+      return new CardApiResult(endpoint, outTrackId, httpStatus, errorCode, errorMessage, requestId, outcome, body,
+          latencyMillis, null);
+    }
+
+    // 新版接口: {"code": "Forbidden.AccessDenied.QpsLimitForApi", "message": "...", "requestid": "..."}
+    String errorCode = error == null ? null : error.getString("code");
+    String errorMessage = error == null ? null : error.getString("message");
+    String requestId = error == null ? null : error.getString("requestid");
+    Outcome outcome = classifyHttpStatus(httpStatus);
+    if (errorCode != null && (errorCode.contains("Throttling") || errorCode.contains("QpsLimit"))) {
+      outcome = Outcome.THROTTLED;
+    } else if (httpStatus == 401 || (errorCode != null && errorCode.contains("InvalidAuthentication"))) {
+      outcome = Outcome.TOKEN_INVALID;
+    }
+    return new CardApiResult(endpoint, outTrackId, httpStatus, errorCode, errorMessage, requestId, outcome, body,
+        latencyMillis, null);
+  }
+
+  public static CardApiResult ofException(CardApiEndpoint endpoint, String outTrackId, Exception exception,
+      long latencyMillis) {
+    Outcome outcome = exception instanceof IOException ? Outcome.RETRYABLE : Outcome.FATAL;
+    return new CardApiResult(endpoint, outTrackId, 0, null, exception.getMessage(), null, outcome, null,
+        latencyMillis, exception);
+  }
+
+  public static CardApiResult ofRejected(CardApiEndpoint endpoint, String outTrackId, String reason) {
+    return new CardApiResult(endpoint, outTrackId, 0, null, reason, null, Outcome.REJECTED, null, 0, null);
+  }
+
+  private static Outcome classifyHttpStatus(int httpStatus) {
+    if (httpStatus == 429) {
+      return Outcome.THROTTLED;
+    }
+    if (httpStatus == 408 || httpStatus >= 500) {
+      return Outcome.RETRYABLE;
+    }
+    return Outcome.FATAL;
+  }
+
+  private static JSONObject parseBody(String body) {
+    if (body == null || body.isEmpty()) {
+      return null;
+    }
+    try {
+      return JSON.parseObject(body);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  public boolean isSuccess() {
+    return outcome == Outcome.SUCCESS;
+  }
+
+  public boolean isRetryable() {
+    return outcome == Outcome.RETRYABLE || outcome == Outcome.THROTTLED;
+  }
+
+  public boolean isThrottled() {
+    return outcome == Outcome.THROTTLED;
+  }
+
+  public boolean isTokenInvalid() {
+    return outcome == Outcome.TOKEN_INVALID;
+  }
+
+  public boolean isRejected() {
+    return outcome == Outcome.REJECTED;
+  }
+
+  @Override
+  public String toString() {
+    return "CardApiResult{endpoint=" + endpoint + ", outTrackId=" + outTrackId + ", outcome=" + outcome
+        + ", httpStatus=" + httpStatus + ", errorCode=" + errorCode + ", errorMessage=" + errorMessage
+        + ", requestId=" + requestId + ", latencyMillis=" + latencyMillis + "}";
+  }
+}
@@ -0,0 +1,138 @@
+package com.card.java;
+
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializeConfig;
+import com.alibaba.fastjson2.JSONWriter;
+import com.alibaba.fastjson2.writer.FieldWriter;
+
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 卡片参数 cardParamMap 的编码，替代原来的 JSONObjectUtils.convertJSONValuesToString。
+ * cardParamMap 的值只能是字符串：字符串原样输出，其他值转成 JSON 字符串，null 输出为 "null"，与原实现一致。
+ * 每种值类型的编码方式只判断一次并缓存，字符串、布尔和整数直接转换，不再经过 JSON.toJSONString；
+ * 也可以直接传入 POJO 或 record，按 fastjson 的字段定义（包括 @JSONField）取值，值为 null 的字段不输出，
+ * 不需要先转成 JSONObject。encodeEntries 和 toJSONString 不再复制出一份 JSONObject
+ */
+@Component
+public class CardParamMapEncoder {
+
+  private interface ValueEncoder {
+    String encode(Object value);
+  }
+
+  private static final ValueEncoder AS_IS = value -> (String) value;
+
+  private static final ValueEncoder TO_STRING = String::valueOf;
+
+  private static final ValueEncoder TO_JSON_STRING = com.alibaba.fastjson.JSON::toJSONString;
+
+  private static final ClassValue<ValueEncoder> VALUE_ENCODERS = new ClassValue<ValueEncoder>() {
+    @Override
+    protected ValueEncoder computeValue(Class<?> type) {
+      if (type == String.class) {
+        return AS_IS;
+      }
+      // 这几种类型 JSON.toJSONString 的结果与 String.valueOf 相同
+      if (type == Boolean.class || type == Integer.class || type == Long.class || type == Short.class
+          || type == Byte.class) {
+        return TO_STRING;
+      }
+      return TO_JSON_STRING;
+    }
+  };
+
+  // POJO、record 的字段，取自 fastjson 1.x 兼容层的 ObjectWriter，字段名和顺序与 JSON.toJSONString 相同
+  private static final ClassValue<List<FieldWriter>> BEAN_FIELDS = new ClassValue<List<FieldWriter>>() {
+    @Override
+    protected List<FieldWriter> computeValue(Class<?> type) {
+      return SerializeConfig.getGlobalInstance().getProvider().getObjectWriter(type).getFieldWriters();
+    }
+  };
+
+  /**
+   * 生成字符串值的 JSONObject，用于放入创建、更新卡片接口请求的 cardParamMap
+   */
+  public JSONObject encode(Object params) {
+    JSONObject result = new JSONObject();
+    forEach(params, result::put);
+    return result;
+  }
+
+  /**
+   * 编码 cardParamMap 的各个值，结果用 Encoded.writeTo 写入 JSONWriter。
+   * 非字符串的值要在打开 JSONWriter 之前编码好：fastjson 每个线程只缓存一个写缓冲区，
+   * 在写入过程中再调用 JSON.toJSONString 会为每个值重新分配缓冲区
+   */
+  public Encoded encodeEntries(Object params) {
+    Encoded encoded = new Encoded(params instanceof Map ? ((Map<?, ?>) params).size()
+        : BEAN_FIELDS.get(params.getClass()).size());
+    forEach(params, encoded::add);
+    return encoded;
+  }
+
+  /**
+   * 编码后的 cardParamMap 的 JSON 文本，等同于 JSON.toJSONString(encode(params))
+   */
+  public String toJSONString(Object params) {
+    Encoded encoded = encodeEntries(params);
+    try (JSONWriter writer = JSONWriter.of()) {
+      encoded.writeTo(writer);
+      return writer.toString();
+    }
+  }
+
+  /**
+   * 编码好的 cardParamMap，键和值交替存放
+   */
+  public static final class Encoded {
+    private final String[] entries;
+    private int size;
+
+    private Encoded(int capacity) {
+      entries = new String[capacity * 2];
+    }
+
+    private void add(String key, String value) {
+      entries[size++] = key;
+      entries[size++] = value;
+    }
+
+    /**
+     * 作为一个 JSON 对象写入 writer
+     */
+    public void writeTo(JSONWriter writer) {
+      writer.startObject();
+      for (int i = 0; i < size; i += 2) {
+        writer.writeName(entries[i]);
+        writer.writeColon();
+        writer.writeString(entries[i + 1]);
+      }
+      writer.endObject();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void forEach(Object params, BiConsumer<String, String> action) {
+    if (params instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) params).entrySet()) {
+        action.accept(String.valueOf(entry.getKey()), encodeValue(entry.getValue()));
+      }
+      return;
+    }
+    for (FieldWriter field : BEAN_FIELDS.get(params.getClass())) {
+      Object value = field.getFieldValue(params);
+      if (value != null) {
+        action.accept(field.fieldName, encodeValue(value));
+      }
+    }
+  }
+
+  static String encodeValue(Object value) {
+    return value == null ? "null" : VALUE_ENCODERS.get(value.getClass()).encode(value);
+  }
+}
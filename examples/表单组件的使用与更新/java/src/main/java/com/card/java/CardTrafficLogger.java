@@ -0,0 +1,79 @@
+package com.card.java;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * 卡片收发内容的日志：收到的机器人消息、调用 OpenAPI 的请求、流式更新、卡片回传请求和卡片状态。
+ * 内容通过 Supplier 传入，INFO 未开启或本次未被采样时不会拼接和序列化；
+ * 超过 card.log.max-payload-chars 个字符的内容截断输出。
+ * 每类日志使用单独的 logger（card.traffic.message、card.traffic.open-api 等），可以在 logback 中单独调整级别，
+ * 采样率由 card.log.sample-rate.<类别> 配置，1 为全部输出，0 为不输出
+ */
+@Component
+public class CardTrafficLogger {
+
+  public enum Category {
+    MESSAGE("message"),
+    OPEN_API("open-api"),
+    STREAMING("streaming"),
+    CALLBACK("callback"),
+    STATE("state");
+
+    private final String key;
+
+    Category(String key) {
+      this.key = key;
+    }
+  }
+
+  @Autowired
+  private Environment environment;
+
+  @Value("${card.log.max-payload-chars:2048}")
+  private int maxPayloadChars;
+
+  private final Logger[] loggers = new Logger[Category.values().length];
+
+  private final double[] sampleRates = new double[Category.values().length];
+
+  @PostConstruct
+  public void init() {
+    for (Category category : Category.values()) {
+      loggers[category.ordinal()] = LoggerFactory.getLogger("card.traffic." + category.key);
+      sampleRates[category.ordinal()] =
+          environment.getProperty("card.log.sample-rate." + category.key, Double.class, 1.0);
+    }
+  }
+
+  /**
+   * 输出 "label: payload"，payload 只在确定要输出时才调用
+   */
+  public void info(Category category, String label, Supplier<?> payload) {
+    Logger logger = loggers[category.ordinal()];
+    if (!logger.isInfoEnabled() || !sampled(category)) {
+      return;
+    }
+    logger.info("{}: {}", label, truncate(String.valueOf(payload.get())));
+  }
+
+  private boolean sampled(Category category) {
+    double rate = sampleRates[category.ordinal()];
+    return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+  }
+
+  private String truncate(String text) {
+    if (maxPayloadChars <= 0 || text.length() <= maxPayloadChars) {
+      return text;
+    }
+    return text.substring(0, maxPayloadChars) + "...(truncated, " + text.length() + " chars)";
+  }
+}
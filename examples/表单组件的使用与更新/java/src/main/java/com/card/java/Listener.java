@@ -5,17 +5,24 @@ import com.dingtalk.open.app.api.OpenDingTalkStreamClientBuilder;
 import com.dingtalk.open.app.api.callback.DingTalkStreamTopics;
 import com.dingtalk.open.app.api.security.AuthClientCredential;
 
+import lombok.extern.slf4j.Slf4j;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+@Slf4j
 @Component
 public class Listener {
     @Autowired
     private ChatBotHandler chatBotHandler;
     @Autowired
+    private SuiteTicketListener suiteTicketListener;
+    @Autowired
     private CardCallbackHandler cardCallbackHandler;
 
     @Value("${dingtalk.app.client-id}")
@@ -23,6 +30,8 @@ public class Listener {
     @Value("${dingtalk.app.client-secret}")
     private String clientSecret;
 
+    private final CompletableFuture<Void> started = new CompletableFuture<>();
+
     @PostConstruct
     public void init() throws Exception {
         // init stream client
@@ -31,7 +40,26 @@ public class Listener {
                 .credential(new AuthClientCredential(clientId, clientSecret))
                 .registerCallbackListener(DingTalkStreamTopics.BOT_MESSAGE_TOPIC, chatBotHandler)
                 .registerCallbackListener(DingTalkStreamTopics.CARD_CALLBACK_TOPIC, cardCallbackHandler)
+                .registerAllEventListener(suiteTicketListener)
                 .build();
-        client.start();
+        // 在后台连接 Stream，与获取 accessToken 并行，不阻塞应用启动；连接成功前 readiness 探针为 DOWN
+        CompletableFuture.runAsync(() -> start(client, 1));
+    }
+
+    private void start(OpenDingTalkClient client, int attempt) {
+        try {
+            client.start();
+            started.complete(null);
+            log.info("dingtalk stream client started");
+        } catch (Exception e) {
+            long delayMillis = Math.min(30000L, 1000L << Math.min(attempt - 1, 5));
+            log.warn("start dingtalk stream client failed, attempt={}, retry in {}ms", attempt, delayMillis, e);
+            CompletableFuture.runAsync(() -> start(client, attempt + 1),
+                    CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    public boolean isStarted() {
+        return started.isDone();
     }
 }
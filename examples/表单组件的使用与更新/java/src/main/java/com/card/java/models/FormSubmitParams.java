@@ -0,0 +1,16 @@
+package com.card.java.models;
+
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.annotation.JSONField;
+import lombok.Data;
+
+/**
+ * 表单卡片的回传参数，form 为提交的表单值，current_form 为当前的表单定义
+ */
+@Data
+public class FormSubmitParams {
+  @JSONField(name = "form")
+  private JSONObject form;
+  @JSONField(name = "current_form")
+  private JSONObject currentForm;
+}